@@ -26,7 +26,39 @@ public class MainVerticle extends AbstractVerticle {
     final int port = Integer.parseInt(
         Config.getSysConf("http.port", "port", "8081", config()));
 
-    EusageReportsApi eusageReportsApi = new EusageReportsApi(WebClient.create(vertx));
+    final int ermPrefetch = Integer.parseInt(
+        Config.getSysConf("erm.prefetch", "ermPrefetch", "1", config()));
+
+    final int refreshConcurrency = Integer.parseInt(
+        Config.getSysConf("refresh.concurrency", "refreshConcurrency", "4", config()));
+
+    final boolean aggregateInSql = Boolean.parseBoolean(
+        Config.getSysConf("report.aggregateInSql", "reportAggregateInSql", "false", config()));
+
+    final int reportCacheSize = Integer.parseInt(
+        Config.getSysConf("report.cacheSize", "reportCacheSize", "100", config()));
+
+    final long reportCacheTtl = Long.parseLong(
+        Config.getSysConf("report.cacheTtl", "reportCacheTtl", "300", config()));
+
+    final int reportWorkers = Integer.parseInt(
+        Config.getSysConf("report.workers", "reportWorkers", "4", config()));
+
+    final int reportWorkerQueue = Integer.parseInt(
+        Config.getSysConf("report.workerQueue", "reportWorkerQueue", "100", config()));
+
+    final long reportMetricsInterval = Long.parseLong(
+        Config.getSysConf("report.metricsInterval", "reportMetricsInterval", "60", config()));
+
+    EusageReportsApi eusageReportsApi = new EusageReportsApi(WebClient.create(vertx))
+        .setErmPrefetch(ermPrefetch)
+        .setRefreshConcurrency(refreshConcurrency)
+        .setAggregateInSql(aggregateInSql)
+        .setReportCache(reportCacheSize, reportCacheTtl)
+        .setReportWorkers(reportWorkers, reportWorkerQueue);
+    if (reportMetricsInterval > 0) {
+      vertx.setPeriodic(reportMetricsInterval * 1000L, id -> eusageReportsApi.logReportMetrics());
+    }
     RouterCreator [] routerCreators = {
         eusageReportsApi,
         new Tenant2Api(eusageReportsApi),
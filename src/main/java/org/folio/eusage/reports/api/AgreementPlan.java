@@ -0,0 +1,76 @@
+package org.folio.eusage.reports.api;
+
+import io.vertx.core.json.JsonObject;
+import io.vertx.sqlclient.Tuple;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Data for an agreement gathered from ERM, orders, finance and invoices.
+ *
+ * <p>The plan is filled without holding a database connection and is written afterwards
+ * in one transaction.
+ */
+public class AgreementPlan {
+  final UUID agreementId;
+
+  /** KB titles already looked at. */
+  final Set<UUID> kbTitleIds = new HashSet<>();
+
+  /** Title entries to write: kbTitleId to (id, kbTitleName, publicationType, new). */
+  final Map<UUID, Tuple> titleEntries = new LinkedHashMap<>();
+
+  /** Package name for each kbPackageId. */
+  final Map<UUID, String> packageNames = new LinkedHashMap<>();
+
+  /** Package content (list of kbTitleId) for each kbPackageId. */
+  final Map<UUID, List<UUID>> packageContent = new LinkedHashMap<>();
+
+  /** Rows for agreement_entries table in the order of agreement lines. */
+  final List<Tuple> agreementEntries = new ArrayList<>();
+
+  int agreementLines;
+
+  /** Agreements that got a new data version when the plan was written. */
+  final Set<UUID> changedAgreements = new HashSet<>();
+
+  /** Timing and row counts for the status record. */
+  final JsonObject statistics = new JsonObject();
+
+  /** Lookups that may be shared with other agreements. */
+  final LookupCache cache;
+
+  AgreementPlan(UUID agreementId) {
+    this(agreementId, new LookupCache());
+  }
+
+  AgreementPlan(UUID agreementId, LookupCache cache) {
+    this.agreementId = agreementId;
+    this.cache = cache;
+  }
+
+  boolean containsPackage(UUID kbPackageId) {
+    return packageContent.containsKey(kbPackageId);
+  }
+
+  void addPackage(UUID kbPackageId, String kbPackageName, List<UUID> kbTitleIds) {
+    packageNames.put(kbPackageId, kbPackageName);
+    packageContent.put(kbPackageId, kbTitleIds);
+  }
+
+  void addAgreementEntry(UUID kbTitleId, UUID kbPackageId, String type, UUID agreementLineId,
+      UUID poLineId, Number encumberedCost, Number invoicedCost, String fiscalYearRange,
+      String subscriptionDateRange, String coverageDateRanges, String orderType,
+      String invoiceNumber, String poLineNumber) {
+
+    agreementEntries.add(Tuple.of(UUID.randomUUID(), kbTitleId, kbPackageId, type,
+        agreementId, agreementLineId, poLineId, encumberedCost, invoicedCost,
+        fiscalYearRange, subscriptionDateRange, coverageDateRanges, orderType,
+        invoiceNumber, poLineNumber));
+  }
+}
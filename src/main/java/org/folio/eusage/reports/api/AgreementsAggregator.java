@@ -0,0 +1,73 @@
+package org.folio.eusage.reports.api;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.sqlclient.Row;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Report of several agreements from one query: a report of all agreements and a report of
+ * each agreement.
+ *
+ * <p>Rows must have agreementId as last column and be free of duplicates for each agreement.
+ * For the report of all agreements, rows are compared without agreementId, so a title that
+ * is in several agreements is counted once.
+ */
+final class AgreementsAggregator implements ReportAggregator {
+  private final String orderBy;
+  private final ReportAggregator all;
+  private final Map<UUID, ReportAggregator> agreements = new LinkedHashMap<>();
+  private DistinctRows allRows;
+  /** Position of the row being added. */
+  private long seq;
+
+  /**
+   * Create aggregator.
+   * @param orderBy ORDER BY clause of query.
+   * @param agreementIds agreements in the order they are reported.
+   * @param factory makes aggregator for agreement identifier, or for comma separated
+   *     identifiers for the report of all agreements.
+   */
+  AgreementsAggregator(String orderBy, List<UUID> agreementIds,
+      Function<String, ReportAggregator> factory) {
+
+    this.orderBy = orderBy;
+    all = factory.apply(agreementIds.stream().map(UUID::toString)
+        .collect(Collectors.joining(",")));
+    for (UUID agreementId : agreementIds) {
+      agreements.put(agreementId, factory.apply(agreementId.toString()));
+    }
+  }
+
+  @Override
+  public void add(Row row, long seq) {
+    if (allRows == null) {
+      allRows = new DistinctRows(orderBy, row.size() - 1, r -> all.add(r, this.seq));
+    }
+    this.seq = seq;
+    allRows.accept(row);
+    agreements.get(row.getUUID("agreementid")).add(row, seq);
+  }
+
+  @Override
+  public void merge(List<ReportAggregator> parts) {
+    List<AgreementsAggregator> aggregators =
+        ReportAggregator.parts(parts, AgreementsAggregator.class);
+    all.merge(aggregators.stream().map(a -> a.all).collect(Collectors.toList()));
+    agreements.forEach((agreementId, aggregator) -> aggregator.merge(aggregators.stream()
+        .map(a -> a.agreements.get(agreementId)).collect(Collectors.toList())));
+  }
+
+  @Override
+  public JsonObject toJson(ItemPage page) {
+    JsonArray reports = new JsonArray();
+    agreements.forEach((agreementId, aggregator) ->
+        reports.add(aggregator.toJson(page).put("agreementId", agreementId.toString())));
+    return all.toJson(page).put("agreements", reports);
+  }
+}
@@ -3,15 +3,20 @@ package org.folio.eusage.reports.api;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.sqlclient.Row;
-import io.vertx.sqlclient.RowSet;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -22,115 +27,211 @@ public final class CostPerUse {
     throw new UnsupportedOperationException("Cannot instantiate utility class");
   }
 
-  static JsonObject titlesToJsonObject(RowSet<Row> rowSet, Periods usePeriods) {
+  /**
+   * Key of subscription (payKey) or of item (payKey and publication period).
+   */
+  private static final class CostKey {
+    private final UUID kbId;
+    private final String poLineNumber;
+    private final String fiscalYearRange;
+    private final String subscriptionDateRange;
+    private final String pubPeriodLabel;
 
-    JsonArray totalRequests = new JsonArray();
-    JsonArray uniqueRequests = new JsonArray();
-    List<Set<UUID>> titlesByPeriod = new ArrayList<>();
-    Map<String,JsonObject> totalItems = new HashMap<>();
-    List<Map<UUID,Double>> paidByPeriodMap = new ArrayList<>();
-    Map<String,Set<String>> titlesInSubscription = new HashMap<>();
-    for (int i = 0; i < usePeriods.size(); i++) {
-      totalRequests.add(0L);
-      uniqueRequests.add(0L);
-      titlesByPeriod.add(new TreeSet<>());
-      paidByPeriodMap.add(new HashMap<>());
+    CostKey(UUID kbId, String poLineNumber, String fiscalYearRange,
+        String subscriptionDateRange, String pubPeriodLabel) {
+      this.kbId = kbId;
+      this.poLineNumber = poLineNumber;
+      this.fiscalYearRange = fiscalYearRange;
+      this.subscriptionDateRange = subscriptionDateRange;
+      this.pubPeriodLabel = pubPeriodLabel;
     }
-    JsonArray items = new JsonArray();
-    // determine number of titles in a package
-    Map<UUID,Set<UUID>> packageContent = new HashMap<>();
-    rowSet.forEach(row -> {
-      UUID kbPackageId = row.getUUID("kbpackageid");
-      UUID kbId = row.getUUID("kbid");
-      packageContent.computeIfAbsent(kbPackageId, x -> new TreeSet<>()).add(kbId);
-      String fiscalYearRange = row.getString("fiscalyearrange");
-      String subscriptionDateRange = row.getString("subscriptiondaterange");
-      // deal with fiscal year range first, and save the that date range
-      DateRange subscriptionPeriod = null;
-      if (fiscalYearRange != null) {
-        subscriptionPeriod = new DateRange(fiscalYearRange);
+
+    CostKey withPubPeriod(String label) {
+      return new CostKey(kbId, poLineNumber, fiscalYearRange, subscriptionDateRange, label);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
       }
-      // consider subscription date range, Overrides subscription period if present
-      if (subscriptionDateRange != null) {
-        subscriptionPeriod = new DateRange(subscriptionDateRange);
+      if (!(o instanceof CostKey)) {
+        return false;
       }
-      if (subscriptionPeriod == null) {
-        return;
+      CostKey other = (CostKey) o;
+      return Objects.equals(kbId, other.kbId)
+          && Objects.equals(poLineNumber, other.poLineNumber)
+          && Objects.equals(fiscalYearRange, other.fiscalYearRange)
+          && Objects.equals(subscriptionDateRange, other.subscriptionDateRange)
+          && Objects.equals(pubPeriodLabel, other.pubPeriodLabel);
+    }
+
+    @Override
+    public int hashCode() {
+      int h = Objects.hashCode(kbId);
+      h = 31 * h + Objects.hashCode(poLineNumber);
+      h = 31 * h + Objects.hashCode(fiscalYearRange);
+      h = 31 * h + Objects.hashCode(subscriptionDateRange);
+      return 31 * h + Objects.hashCode(pubPeriodLabel);
+    }
+  }
+
+  /**
+   * Amount that is divided by the number of titles when the report is made.
+   */
+  private static final class Cost {
+    private final double amount;
+    private final CostKey payKey;
+    private final UUID kbPackageId;
+    /** Position of the row of the amount. */
+    private final long seq;
+
+    Cost(double amount, CostKey payKey, UUID kbPackageId, long seq) {
+      this.amount = amount;
+      this.payKey = payKey;
+      this.kbPackageId = kbPackageId;
+      this.seq = seq;
+    }
+  }
+
+  /**
+   * Report item and its amounts that are not divided yet.
+   */
+  private static final class CostItem {
+    private final JsonObject json = new JsonObject();
+    private Cost amountPaid;
+    private Cost amountEncumbered;
+    private Cost costPerTotalRequest;
+    private long totalItemRequests;
+    private Cost costPerUniqueRequest;
+    private long uniqueItemRequests;
+  }
+
+  /**
+   * Cost per use.
+   *
+   * <p>Amounts are divided by the number of titles in each package and by the number of
+   * publication years of each title. These are only known when all rows are seen, so the
+   * amounts are kept undivided and divided by {@link #toJson()}. Rows must be ordered with
+   * publication date last (NULLS LAST) for each title.
+   */
+  static final class Aggregator implements ReportAggregator {
+    private final Periods usePeriods;
+    private final DateRange allPeriods;
+    private final DateRange[] periodRanges;
+    private final long[] totalRequests;
+    private final long[] uniqueRequests;
+    private final List<Set<UUID>> titlesByPeriod = new ArrayList<>();
+    private final Map<CostKey,CostItem> totalItems = new HashMap<>();
+    private final List<Map<UUID,Cost>> paidByPeriodMap = new ArrayList<>();
+    private final Map<CostKey,Set<String>> titlesInSubscription = new HashMap<>();
+    private final OrderedItems<CostItem> items = new OrderedItems<>();
+    // number of titles in a package
+    private final Map<UUID,Set<UUID>> packageContent = new HashMap<>();
+    // summed in insertion order so that totals do not depend on hashing
+    private final Map<CostKey,Cost> amountEncumberedTotalMap = new LinkedHashMap<>();
+    private final Map<CostKey,Cost> amountPaidTotalMap = new LinkedHashMap<>();
+    /** Parsed fiscal year and subscription date ranges. */
+    private final Map<String,DateRange> dateRanges = new HashMap<>();
+
+    Aggregator(Periods usePeriods) {
+      this.usePeriods = usePeriods;
+      allPeriods = new DateRange(usePeriods.startDate, usePeriods.endDate);
+      periodRanges = new DateRange[usePeriods.size()];
+      totalRequests = new long[usePeriods.size()];
+      uniqueRequests = new long[usePeriods.size()];
+      for (int i = 0; i < usePeriods.size(); i++) {
+        titlesByPeriod.add(new TreeSet<>());
+        paidByPeriodMap.add(new HashMap<>());
       }
-      String poLineNumber = row.getString("polinenumber");
-      String payKey = kbId + "," + poLineNumber + "," + fiscalYearRange
-          + "," + subscriptionDateRange;
-      LocalDate publicationDate = row.getLocalDate("publicationdate");
-      String pubPeriodLabel = Periods.periodLabelFloor(publicationDate, 12,"nopub");
-      if (titlesInSubscription.containsKey(payKey) && "nopub".equals(pubPeriodLabel)) {
-        return;
+    }
+
+    private DateRange getDateRange(String range) {
+      if (range == null) {
+        return null;
+      }
+      return dateRanges.computeIfAbsent(range, DateRange::new);
+    }
+
+    private DateRange getPeriodRange(int idx, LocalDate usageStart) {
+      DateRange range = periodRanges[idx];
+      if (range == null) {
+        range = new DateRange(usageStart, usageStart.plusMonths(usePeriods.getMonths()));
+        periodRanges[idx] = range;
+      }
+      return range;
+    }
+
+    private double titleAmount(Cost cost) {
+      int titlesDivide = titlesInSubscription.get(cost.payKey).size();
+      if (cost.kbPackageId != null) {
+        titlesDivide *= packageContent.get(cost.kbPackageId).size();
       }
-      titlesInSubscription.putIfAbsent(payKey, new TreeSet<>());
-      titlesInSubscription.get(payKey).add(pubPeriodLabel);
-    });
-    Map<String,Double> amountEncumberedTotalMap = new HashMap<>();
-    Map<String,Double> amountPaidTotalMap = new HashMap<>();
-    rowSet.forEach(row -> {
+      return cost.amount / titlesDivide;
+    }
+
+    @Override
+    public void add(Row row, long seq) {
       log.debug("costPerUse row: {}", row::deepToString);
       final UUID kbPackageId = row.getUUID("kbpackageid");
+      final UUID kbId = row.getUUID("kbid");
+      packageContent.computeIfAbsent(kbPackageId, x -> new HashSet<>()).add(kbId);
       final String orderType = row.getString("ordertype");
       final String fiscalYearRange = row.getString("fiscalyearrange");
       final String subscriptionDateRange = row.getString("subscriptiondaterange");
-      // deal with fiscal year range first, and save the that date range
-      DateRange subscriptionPeriod = null;
-      if (fiscalYearRange != null) {
-        subscriptionPeriod = new DateRange(fiscalYearRange);
-      }
-      // consider subscription date range, Overrides subscription period if present
-      if (subscriptionDateRange != null) {
-        subscriptionPeriod = new DateRange(subscriptionDateRange);
-      }
+      // consider subscription date range, Overrides fiscal year range if present
+      DateRange subscriptionPeriod = subscriptionDateRange != null
+          ? getDateRange(subscriptionDateRange) : getDateRange(fiscalYearRange);
       if (subscriptionPeriod == null) {
         return;
       }
       LocalDate publicationDate = row.getLocalDate("publicationdate");
       String pubPeriodLabel = Periods.periodLabelFloor(publicationDate, 12,"nopub");
       String poLineNumber = row.getString("polinenumber");
-      UUID kbId = row.getUUID("kbid");
-      String payKey = kbId + "," + poLineNumber + "," + fiscalYearRange + ","
-          + subscriptionDateRange;
-      if (!titlesInSubscription.get(payKey).contains(pubPeriodLabel)) {
+      CostKey payKey = new CostKey(kbId, poLineNumber, fiscalYearRange,
+          subscriptionDateRange, null);
+      // rows without publication date come last for a title, so "nopub" is only
+      // counted for a title that has no rows with publication date
+      Set<String> pubPeriods = titlesInSubscription.get(payKey);
+      if (pubPeriods == null) {
+        pubPeriods = new HashSet<>();
+        titlesInSubscription.put(payKey, pubPeriods);
+        pubPeriods.add(pubPeriodLabel);
+      } else if (!"nopub".equals(pubPeriodLabel)) {
+        pubPeriods.add(pubPeriodLabel);
+      } else if (!pubPeriods.contains(pubPeriodLabel)) {
         return;
       }
-      String itemKey = payKey + "," + pubPeriodLabel;
+      CostKey itemKey = payKey.withPubPeriod(pubPeriodLabel);
       UUID paidId = kbPackageId != null ? kbPackageId : kbId;
-      int titlesDivide = titlesInSubscription.get(payKey).size();
-      if (kbPackageId != null) {
-        titlesDivide *= packageContent.get(kbPackageId).size();
-      }
       // number of months period in start - end also in subscribed period
-      long allPeriodsMonths = subscriptionPeriod.commonMonths(
-          new DateRange(usePeriods.startDate, usePeriods.endDate));
+      long allPeriodsMonths = subscriptionPeriod.commonMonths(allPeriods);
       if (allPeriodsMonths <= 0) {
         return;
       }
       // at this point, since allPeriodsMonths > 0, then subscriptionMonths > 0
       int subscriptionMonths = subscriptionPeriod.getMonths();
       Number encumberedCost = row.getDouble("encumberedcost");
-      Double amountEncumbered = null;
+      Cost amountEncumbered = null;
       if (encumberedCost != null) {
         double amount = allPeriodsMonths * encumberedCost.doubleValue() / subscriptionMonths;
-        amountEncumbered = amount / titlesDivide;
+        amountEncumbered = new Cost(amount, payKey, kbPackageId, seq);
         amountEncumberedTotalMap.putIfAbsent(itemKey, amountEncumbered);
       }
       Number invoicedCost = row.getNumeric("invoicedcost");
-      Double amountPaid = null;
+      Cost amountPaid = null;
       if (invoicedCost != null) {
         double amount = allPeriodsMonths * invoicedCost.doubleValue() / subscriptionMonths;
-        amountPaid = amount / titlesDivide;
+        amountPaid = new Cost(amount, payKey, kbPackageId, seq);
         amountPaidTotalMap.putIfAbsent(itemKey, amountPaid);
       }
-      final String usageDateRange = row.getString("usagedaterange");
-      JsonObject item = totalItems.get(itemKey);
-      if (item == null) {
-        item = new JsonObject();
-        totalItems.put(itemKey, item);
-        items.add(item);
+      final LocalDate usageDate = row.getLocalDate("usagestart");
+      CostItem costItem = totalItems.get(itemKey);
+      if (costItem == null) {
+        costItem = new CostItem();
+        totalItems.put(itemKey, costItem);
+        items.add(costItem, seq);
+        JsonObject item = costItem.json;
         item.put("kbId", kbId)
             .put("title", row.getString("title"))
             .put("derivedTitle", kbPackageId != null);
@@ -160,122 +261,192 @@ public final class CostPerUse {
           invoiceNumbers.add(invoiceNumber);
         }
         item.put("invoiceNumbers", invoiceNumbers);
-        if (usageDateRange != null) {
+        if (usageDate != null) {
           item.put("amountPaid", 0.0);
           item.put("amountEncumbered", 0.0);
           item.put("totalItemRequests", 0L);
           item.put("uniqueItemRequests", 0L);
         }
         if (fiscalYearRange != null) {
-          DateRange tmp = new DateRange(fiscalYearRange);
+          DateRange tmp = getDateRange(fiscalYearRange);
           item.put("fiscalDateStart", tmp.getStart());
           item.put("fiscalDateEnd", tmp.getEnd());
         }
         // consider subscription date range, Overrides subscription period if present
         if (subscriptionDateRange != null) {
-          DateRange tmp = new DateRange(subscriptionDateRange);
+          DateRange tmp = getDateRange(subscriptionDateRange);
           item.put("subscriptionDateStart", tmp.getStart());
           item.put("subscriptionDateEnd", tmp.getEnd());
         }
         if (!"nopub".equals(pubPeriodLabel)) {
           item.put("publicationYear", pubPeriodLabel);
         }
+        // amounts are set by toJson
         if (amountPaid != null) {
-          item.put("amountPaid", CsvReports.formatCost(amountPaid));
+          item.put("amountPaid", 0.0);
+          costItem.amountPaid = amountPaid;
         }
         if (amountEncumbered != null) {
-          item.put("amountEncumbered", CsvReports.formatCost(amountEncumbered));
+          item.put("amountEncumbered", 0.0);
+          costItem.amountEncumbered = amountEncumbered;
         }
       }
-      if (usageDateRange == null) {
+      if (usageDate == null) {
         // or no counter report data
         return;
       }
-      LocalDate usageStart = usePeriods.floorMonths(LocalDate.parse(
-          usageDateRange.substring(1, 11)));
+      LocalDate usageStart = usePeriods.floorMonths(usageDate);
       int idx = usePeriods.getPeriodEntry(usageStart);
       titlesByPeriod.get(idx).add(kbId);
 
       // number of months in this period
-      long thisPeriodMonths = subscriptionPeriod.commonMonths(
-          new DateRange(usageStart, usageStart.plusMonths(usePeriods.getMonths())));
+      long thisPeriodMonths = subscriptionPeriod.commonMonths(getPeriodRange(idx, usageStart));
       log.debug("This {} all {} sub {}", thisPeriodMonths, allPeriodsMonths, subscriptionMonths);
       if (thisPeriodMonths == 0) {
         return;
       }
+      JsonObject item = costItem.json;
       long totalItemRequestsByPeriod = row.getLong("totalaccesscount");
-      totalRequests.set(idx, totalRequests.getLong(idx) + totalItemRequestsByPeriod);
+      totalRequests[idx] += totalItemRequestsByPeriod;
       item.put("totalItemRequests", item.getLong("totalItemRequests")
           + totalItemRequestsByPeriod);
       long uniqueItemRequestsByPeriod = row.getLong("uniqueaccesscount");
-      uniqueRequests.set(idx, uniqueRequests.getLong(idx) + uniqueItemRequestsByPeriod);
+      uniqueRequests[idx] += uniqueItemRequestsByPeriod;
       item.put("uniqueItemRequests", item.getLong("uniqueItemRequests")
           + uniqueItemRequestsByPeriod);
 
       if (invoicedCost != null) {
-        double amount = allPeriodsMonths * invoicedCost.doubleValue() / subscriptionMonths;
-        Double amountTitle = amount / titlesDivide;
-        paidByPeriodMap.get(idx).putIfAbsent(paidId, thisPeriodMonths * invoicedCost.doubleValue()
-            / subscriptionMonths);
+        paidByPeriodMap.get(idx).putIfAbsent(paidId, new Cost(thisPeriodMonths
+            * invoicedCost.doubleValue() / subscriptionMonths, payKey, kbPackageId, seq));
         Long totalItemRequests = item.getLong("totalItemRequests");
         if (totalItemRequests != null && totalItemRequests > 0L) {
-          item.put("costPerTotalRequest", CsvReports.formatCost(amountTitle / totalItemRequests));
+          item.put("costPerTotalRequest", 0.0);
+          costItem.costPerTotalRequest = amountPaid;
+          costItem.totalItemRequests = totalItemRequests;
         }
         Long uniqueItemRequests = item.getLong("uniqueItemRequests");
         if (uniqueItemRequests != null && uniqueItemRequests > 0L) {
-          item.put("costPerUniqueRequest", CsvReports.formatCost(amountTitle / uniqueItemRequests));
+          item.put("costPerUniqueRequest", 0.0);
+          costItem.costPerUniqueRequest = amountPaid;
+          costItem.uniqueItemRequests = uniqueItemRequests;
         }
       }
-    });
-    JsonArray totalItemCostsPerRequestsByPeriod = new JsonArray();
-    JsonArray uniqueItemCostsPerRequestsByPeriod = new JsonArray();
-    JsonArray totalItemRequestsByPeriod = new JsonArray();
-    JsonArray uniqueItemRequestsByPeriod = new JsonArray();
-    JsonArray costByPeriod = new JsonArray();
-    JsonArray titleCountByPeriod = new JsonArray();
-    for (int i = 0; i < usePeriods.size(); i++) {
-      titleCountByPeriod.add(titlesByPeriod.get(i).size());
-      Double p = 0.0;
-      for (Double v : paidByPeriodMap.get(i).values()) {
-        p += v;
-      }
-      costByPeriod.add(CsvReports.formatCost(p));
-      Long n = totalRequests.getLong(i);
-      totalItemRequestsByPeriod.add(n);
-      if (n > 0) {
-        totalItemCostsPerRequestsByPeriod.add(CsvReports.formatCost(p / n));
-      } else {
-        totalItemCostsPerRequestsByPeriod.addNull();
+    }
+
+    /**
+     * Put entries of maps in the order of the rows of their values. The value of the first
+     * row of a key is kept, as when the entries are put while rows are added.
+     * @param map map to put to.
+     * @param parts maps of partial reports.
+     * @param <K> key type.
+     */
+    private static <K> void putInOrder(Map<K,Cost> map, Stream<Map<K,Cost>> parts) {
+      parts.flatMap(part -> part.entrySet().stream())
+          .sorted(Comparator.comparingLong(e -> e.getValue().seq))
+          .forEachOrdered(e -> map.putIfAbsent(e.getKey(), e.getValue()));
+    }
+
+    @Override
+    public void merge(List<ReportAggregator> parts) {
+      List<Aggregator> aggregators = ReportAggregator.parts(parts, Aggregator.class);
+      for (Aggregator part : aggregators) {
+        for (int i = 0; i < usePeriods.size(); i++) {
+          titlesByPeriod.get(i).addAll(part.titlesByPeriod.get(i));
+          totalRequests[i] += part.totalRequests[i];
+          uniqueRequests[i] += part.uniqueRequests[i];
+        }
+        // subscriptions are of one title, packages have titles of several partitions
+        titlesInSubscription.putAll(part.titlesInSubscription);
+        part.packageContent.forEach((kbPackageId, kbIds) ->
+            packageContent.computeIfAbsent(kbPackageId, x -> new HashSet<>()).addAll(kbIds));
       }
-      n = uniqueRequests.getLong(i);
-      uniqueItemRequestsByPeriod.add(n);
-      if (n > 0) {
-        uniqueItemCostsPerRequestsByPeriod.add(CsvReports.formatCost(p / n));
-      } else {
-        uniqueItemCostsPerRequestsByPeriod.addNull();
+      // amounts are summed in the order they are put, so they are put in the order of rows
+      for (int i = 0; i < usePeriods.size(); i++) {
+        int idx = i;
+        putInOrder(paidByPeriodMap.get(i), aggregators.stream()
+            .map(a -> a.paidByPeriodMap.get(idx)));
       }
+      putInOrder(amountEncumberedTotalMap, aggregators.stream()
+          .map(a -> a.amountEncumberedTotalMap));
+      putInOrder(amountPaidTotalMap, aggregators.stream().map(a -> a.amountPaidTotalMap));
+      items.merge(aggregators.stream().map(a -> a.items).collect(Collectors.toList()));
     }
-    Double amountEncumberedTotal = 0.0;
-    for (Double v : amountEncumberedTotalMap.values()) {
-      amountEncumberedTotal += v;
+
+    private JsonObject itemToJson(CostItem costItem) {
+      // a copy, so that a cached report can be converted by several requests at the same time
+      JsonObject item = new JsonObject(new LinkedHashMap<>(costItem.json.getMap()));
+      if (costItem.amountPaid != null) {
+        item.put("amountPaid", CsvReports.formatCost(titleAmount(costItem.amountPaid)));
+      }
+      if (costItem.amountEncumbered != null) {
+        item.put("amountEncumbered",
+            CsvReports.formatCost(titleAmount(costItem.amountEncumbered)));
+      }
+      if (costItem.costPerTotalRequest != null) {
+        item.put("costPerTotalRequest", CsvReports.formatCost(
+            titleAmount(costItem.costPerTotalRequest) / costItem.totalItemRequests));
+      }
+      if (costItem.costPerUniqueRequest != null) {
+        item.put("costPerUniqueRequest", CsvReports.formatCost(
+            titleAmount(costItem.costPerUniqueRequest) / costItem.uniqueItemRequests));
+      }
+      return item;
     }
-    Double amountPaidTotal = 0.0;
-    for (Double v : amountPaidTotalMap.values()) {
-      amountPaidTotal += v;
+
+    @Override
+    public JsonObject toJson(ItemPage page) {
+      JsonArray totalItemCostsPerRequestsByPeriod = new JsonArray();
+      JsonArray uniqueItemCostsPerRequestsByPeriod = new JsonArray();
+      JsonArray totalItemRequestsByPeriod = new JsonArray();
+      JsonArray uniqueItemRequestsByPeriod = new JsonArray();
+      JsonArray costByPeriod = new JsonArray();
+      JsonArray titleCountByPeriod = new JsonArray();
+      for (int i = 0; i < usePeriods.size(); i++) {
+        titleCountByPeriod.add(titlesByPeriod.get(i).size());
+        Double p = 0.0;
+        for (Cost v : paidByPeriodMap.get(i).values()) {
+          p += v.amount;
+        }
+        costByPeriod.add(CsvReports.formatCost(p));
+        long n = totalRequests[i];
+        totalItemRequestsByPeriod.add(n);
+        if (n > 0) {
+          totalItemCostsPerRequestsByPeriod.add(CsvReports.formatCost(p / n));
+        } else {
+          totalItemCostsPerRequestsByPeriod.addNull();
+        }
+        n = uniqueRequests[i];
+        uniqueItemRequestsByPeriod.add(n);
+        if (n > 0) {
+          uniqueItemCostsPerRequestsByPeriod.add(CsvReports.formatCost(p / n));
+        } else {
+          uniqueItemCostsPerRequestsByPeriod.addNull();
+        }
+      }
+      Double amountEncumberedTotal = 0.0;
+      for (Cost v : amountEncumberedTotalMap.values()) {
+        amountEncumberedTotal += titleAmount(v);
+      }
+      Double amountPaidTotal = 0.0;
+      for (Cost v : amountPaidTotalMap.values()) {
+        amountPaidTotal += titleAmount(v);
+      }
+      JsonArray itemsArray = ReportAggregator.toJsonArray(page.select(items.getItems(),
+          item -> item.json.getLong("totalItemRequests", 0L)), this::itemToJson);
+      JsonObject json = new JsonObject();
+      json.put("amountEncumberedTotal", CsvReports.formatCost(amountEncumberedTotal));
+      json.put("amountPaidTotal", CsvReports.formatCost(amountPaidTotal));
+      json.put("accessCountPeriods", usePeriods.getAccessCountPeriods());
+      json.put("costByPeriod", costByPeriod);
+      json.put("totalItemRequestsByPeriod", totalItemRequestsByPeriod);
+      json.put("uniqueItemRequestsByPeriod", uniqueItemRequestsByPeriod);
+      json.put("totalItemCostsPerRequestsByPeriod", totalItemCostsPerRequestsByPeriod);
+      json.put("uniqueItemCostsPerRequestsByPeriod", uniqueItemCostsPerRequestsByPeriod);
+      json.put("titleCountByPeriod", titleCountByPeriod);
+      json.put("items", itemsArray);
+      ReportAggregator.putItemsTotal(json, page, items.size());
+      log.debug("costPerUse: JSON {}", json::encodePrettily);
+      return json;
     }
-    JsonObject json = new JsonObject();
-    json.put("amountEncumberedTotal", CsvReports.formatCost(amountEncumberedTotal));
-    json.put("amountPaidTotal", CsvReports.formatCost(amountPaidTotal));
-    json.put("accessCountPeriods", usePeriods.getAccessCountPeriods());
-    json.put("costByPeriod", costByPeriod);
-    json.put("totalItemRequestsByPeriod", totalItemRequestsByPeriod);
-    json.put("uniqueItemRequestsByPeriod", uniqueItemRequestsByPeriod);
-    json.put("totalItemCostsPerRequestsByPeriod", totalItemCostsPerRequestsByPeriod);
-    json.put("uniqueItemCostsPerRequestsByPeriod", uniqueItemCostsPerRequestsByPeriod);
-    json.put("titleCountByPeriod", titleCountByPeriod);
-    json.put("items", items);
-    log.debug("costPerUse: JSON {}", json::encodePrettily);
-    return json;
   }
-
 }
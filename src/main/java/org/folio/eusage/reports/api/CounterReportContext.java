@@ -2,13 +2,28 @@ package org.folio.eusage.reports.api;
 
 import io.vertx.ext.web.RoutingContext;
 import io.vertx.sqlclient.Tuple;
+import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
 import org.folio.tlib.postgres.TenantPgPool;
 
 public class CounterReportContext {
   Map<String, Tuple> entries = new HashMap<>();
 
+  // title entry months whose title_data changed; sorted so that title entries are locked
+  // in the same order by concurrent ingests
+  final Map<UUID, Set<LocalDate>> titleDataMonths = new TreeMap<>();
+
+  // agreements that got a new data version
+  final Set<UUID> changedAgreements = new HashSet<>();
+
   final RoutingContext ctx;
 
   final TenantPgPool pool;
@@ -29,4 +44,21 @@ public class CounterReportContext {
   Tuple getErmTitle(String type, String identifier) {
     return entries.get(type + "-" + identifier);
   }
+
+  void addTitleDataMonth(UUID titleEntryId, LocalDate usageStart) {
+    titleDataMonths.computeIfAbsent(titleEntryId, k -> new TreeSet<>())
+        .add(usageStart.withDayOfMonth(1));
+  }
+
+  /**
+   * Remove title entry months added so far.
+   * @return (titleEntryId, first day of month) tuples, each pair once.
+   */
+  List<Tuple> takeTitleDataMonths() {
+    List<Tuple> tuples = new ArrayList<>();
+    titleDataMonths.forEach((titleEntryId, months) ->
+        months.forEach(month -> tuples.add(Tuple.of(titleEntryId, month))));
+    titleDataMonths.clear();
+    return tuples;
+  }
 }
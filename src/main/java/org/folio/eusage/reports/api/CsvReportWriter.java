@@ -0,0 +1,110 @@
+package org.folio.eusage.reports.api;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.streams.WriteStream;
+import java.io.IOException;
+import org.apache.commons.csv.CSVPrinter;
+
+/**
+ * Write report as CSV in chunks.
+ *
+ * <p>The CSV printer appends to a buffer that is written to the stream when it has
+ * {@link #CHUNK_SIZE} characters. Rows of the items array are printed one at a time, and
+ * printing pauses while the write queue of the stream is full.
+ */
+final class CsvReportWriter implements Appendable {
+  /** Characters collected before they are written to the stream. */
+  static final int CHUNK_SIZE = 65536;
+
+  /**
+   * Prints CSV rows for a value.
+   * @param <T> type of value.
+   */
+  interface Printer<T> {
+    void print(CSVPrinter printer, T value) throws IOException;
+  }
+
+  private final WriteStream<Buffer> stream;
+  private final StringBuilder chunk = new StringBuilder();
+  private final Promise<Void> promise = Promise.promise();
+  private final JsonArray items;
+  private final Printer<JsonObject> row;
+  private CSVPrinter printer;
+  private int itemIdx;
+
+  private CsvReportWriter(WriteStream<Buffer> stream, JsonArray items, Printer<JsonObject> row) {
+    this.stream = stream;
+    this.items = items;
+    this.row = row;
+  }
+
+  /**
+   * Write report and end stream.
+   * @param stream stream such as a chunked HTTP response.
+   * @param json report.
+   * @param head prints header and totals rows of report.
+   * @param row prints row of item in items array of report.
+   * @return future that completes when the stream has been ended.
+   */
+  static Future<Void> write(WriteStream<Buffer> stream, JsonObject json,
+      Printer<JsonObject> head, Printer<JsonObject> row) {
+
+    CsvReportWriter writer = new CsvReportWriter(stream, json.getJsonArray("items"), row);
+    stream.exceptionHandler(writer.promise::tryFail);
+    try {
+      writer.printer = new CSVPrinter(writer, CsvReports.CSV_FORMAT);
+      head.print(writer.printer, json);
+    } catch (IOException e) {
+      return Future.failedFuture(e);
+    }
+    writer.pump();
+    return writer.promise.future();
+  }
+
+  private void pump() {
+    try {
+      while (items != null && itemIdx < items.size()) {
+        if (stream.writeQueueFull()) {
+          stream.drainHandler(x -> pump());
+          return;
+        }
+        while (itemIdx < items.size() && chunk.length() < CHUNK_SIZE) {
+          row.print(printer, items.getJsonObject(itemIdx));
+          itemIdx++;
+        }
+        if (chunk.length() >= CHUNK_SIZE) {
+          stream.write(Buffer.buffer(chunk.toString()));
+          chunk.setLength(0);
+        }
+      }
+    } catch (IOException e) {
+      promise.tryFail(e);
+      return;
+    }
+    // like end(String) of a response, the write is not awaited; errors go to exceptionHandler
+    stream.end(Buffer.buffer(chunk.toString()));
+    promise.tryComplete();
+  }
+
+  @Override
+  public Appendable append(CharSequence csq) {
+    chunk.append(csq);
+    return this;
+  }
+
+  @Override
+  public Appendable append(CharSequence csq, int start, int end) {
+    chunk.append(csq, start, end);
+    return this;
+  }
+
+  @Override
+  public Appendable append(char c) {
+    chunk.append(c);
+    return this;
+  }
+}
@@ -1,7 +1,10 @@
 package org.folio.eusage.reports.api;
 
+import io.vertx.core.Future;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
+import io.vertx.core.streams.WriteStream;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.io.UncheckedIOException;
@@ -12,10 +15,12 @@ import org.apache.commons.csv.CSVPrinter;
 public final class CsvReports {
   static final CSVFormat CSV_FORMAT = CSVFormat.RFC4180;
 
-  static DecimalFormat costDecimalFormat = new DecimalFormat("#.00");
+  // DecimalFormat is not thread safe, and reports are made by several threads
+  static final ThreadLocal<DecimalFormat> costDecimalFormat =
+      ThreadLocal.withInitial(() -> new DecimalFormat("#.00"));
 
   static Number formatCost(Double n) {
-    return Double.parseDouble(costDecimalFormat.format(n));
+    return Double.parseDouble(costDecimalFormat.get().format(n));
   }
 
   private CsvReports() {
@@ -29,14 +34,39 @@ public final class CsvReports {
     StringWriter stringWriter = new StringWriter();
     try {
       CSVPrinter writer = new CSVPrinter(stringWriter, CSV_FORMAT);
-      getUseOverTime2Csv(json, groupByPublicationYear, periodOfUse, writer);
+      getUseOverTimeHeadCsv(json, groupByPublicationYear, periodOfUse, writer);
+      JsonArray items = json.getJsonArray("items");
+      if (items != null) {
+        for (int j = 0; j < items.size(); j++) {
+          getUseOverTimeItemCsv(items.getJsonObject(j), groupByPublicationYear, periodOfUse,
+              writer);
+        }
+      }
     } catch (IOException e) {
       throw new UncheckedIOException(e);
     }
     return stringWriter.toString();
   }
 
-  private static void getUseOverTime2Csv(JsonObject json, boolean groupByPublicationYear,
+  /**
+   * Write use over time report as CSV in chunks.
+   * @param stream stream such as a chunked HTTP response.
+   * @param json report.
+   * @param groupByPublicationYear whether there is a column for publication year.
+   * @param periodOfUse whether there is a column for period of use.
+   * @return future that completes when the stream has been ended.
+   */
+  static Future<Void> writeUseOverTime2Csv(WriteStream<Buffer> stream, JsonObject json,
+      boolean groupByPublicationYear, boolean periodOfUse) {
+
+    return CsvReportWriter.write(stream, json,
+        (writer, report) -> getUseOverTimeHeadCsv(report, groupByPublicationYear,
+            periodOfUse, writer),
+        (writer, item) -> getUseOverTimeItemCsv(item, groupByPublicationYear,
+            periodOfUse, writer));
+  }
+
+  private static void getUseOverTimeHeadCsv(JsonObject json, boolean groupByPublicationYear,
       boolean periodOfUse, CSVPrinter writer) throws IOException {
 
     writer.print("Title");
@@ -60,32 +90,29 @@ public final class CsvReports {
 
     getUseTotalsCsv(json, groupByPublicationYear, periodOfUse, writer, "total");
     getUseTotalsCsv(json, groupByPublicationYear, periodOfUse, writer, "unique");
+  }
 
-    JsonArray items = json.getJsonArray("items");
-    if (items == null) {
-      return;
+  private static void getUseOverTimeItemCsv(JsonObject item, boolean groupByPublicationYear,
+      boolean periodOfUse, CSVPrinter writer) throws IOException {
+
+    writer.print(item.getString("title"));
+    writer.print(item.getString("printISSN"));
+    writer.print(item.getString("onlineISSN"));
+    writer.print(item.getString("ISBN"));
+    if (groupByPublicationYear) {
+      writer.print(item.getString("publicationYear"));
     }
-    for (int j = 0; j < items.size(); j++) {
-      JsonObject item = items.getJsonObject(j);
-      writer.print(item.getString("title"));
-      writer.print(item.getString("printISSN"));
-      writer.print(item.getString("onlineISSN"));
-      writer.print(item.getString("ISBN"));
-      if (groupByPublicationYear) {
-        writer.print(item.getString("publicationYear"));
-      }
-      if (periodOfUse) {
-        writer.print(item.getString("periodOfUse"));
-      }
-      writer.print(item.getString("accessType"));
-      writer.print(item.getString("metricType"));
-      writer.print(item.getLong("accessCountTotal"));
-      JsonArray accessCountsByPeriod = item.getJsonArray("accessCountsByPeriod");
-      for (int i = 0; i < accessCountsByPeriod.size(); i++) {
-        writer.print(accessCountsByPeriod.getLong(i));
-      }
-      writer.println();
+    if (periodOfUse) {
+      writer.print(item.getString("periodOfUse"));
+    }
+    writer.print(item.getString("accessType"));
+    writer.print(item.getString("metricType"));
+    writer.print(item.getLong("accessCountTotal"));
+    JsonArray accessCountsByPeriod = item.getJsonArray("accessCountsByPeriod");
+    for (int i = 0; i < accessCountsByPeriod.size(); i++) {
+      writer.print(accessCountsByPeriod.getLong(i));
     }
+    writer.println();
   }
 
   private static void getUseTotalsCsv(JsonObject json, boolean groupByPublicationYear,
@@ -115,14 +142,32 @@ public final class CsvReports {
     StringWriter stringWriter = new StringWriter();
     try {
       CSVPrinter writer = new CSVPrinter(stringWriter, CSV_FORMAT);
-      getCostPerUse2Csv(json, writer);
+      getCostPerUseHeadCsv(json, writer);
+      JsonArray items = json.getJsonArray("items");
+      if (items != null) {
+        for (int i = 0; i < items.size(); i++) {
+          getCostPerUseItemCsv(items.getJsonObject(i), writer);
+        }
+      }
     } catch (IOException e) {
       throw new UncheckedIOException(e);
     }
     return stringWriter.toString();
   }
 
-  private static void getCostPerUse2Csv(JsonObject json, CSVPrinter writer) throws IOException {
+  /**
+   * Write cost per use report as CSV in chunks.
+   * @param stream stream such as a chunked HTTP response.
+   * @param json report.
+   * @return future that completes when the stream has been ended.
+   */
+  static Future<Void> writeCostPerUse2Csv(WriteStream<Buffer> stream, JsonObject json) {
+    return CsvReportWriter.write(stream, json,
+        (writer, report) -> getCostPerUseHeadCsv(report, writer),
+        (writer, item) -> getCostPerUseItemCsv(item, writer));
+  }
+
+  private static void getCostPerUseHeadCsv(JsonObject json, CSVPrinter writer) throws IOException {
     writer.print("Agreement line");
     writer.print("Derived Title");
     writer.print("Print ISSN");
@@ -173,30 +218,31 @@ public final class CsvReports {
     writer.print(uniqueItemRequests == 0 || amountPaidTotal == null ? null
         : formatCost(amountPaidTotal / uniqueItemRequests));
     writer.println();
+  }
 
-    for (int i = 0; i < items.size(); i++) {
-      JsonObject item = items.getJsonObject(i);
-      writer.print(item.getString("title"));
-      writer.print(Boolean.TRUE.equals(item.getBoolean("derivedTitle")) ? "Y" : "N");
-      writer.print(item.getString("printISSN"));
-      writer.print(item.getString("onlineISSN"));
-      writer.print(item.getString("ISBN"));
-      writer.print(item.getString("publicationYear"));
-      writer.print(item.getString("orderType"));
-      writer.print(orderLinesToString(item.getJsonArray("poLineIDs")));
-      writer.print(orderLinesToString(item.getJsonArray("invoiceNumbers")));
-      writer.print(item.getString("fiscalDateStart"));
-      writer.print(item.getString("fiscalDateEnd"));
-      writer.print(item.getString("subscriptionDateStart"));
-      writer.print(item.getString("subscriptionDateEnd"));
-      writer.print(item.getString("amountEncumbered"));
-      writer.print(item.getString("amountPaid"));
-      writer.print(item.getLong("totalItemRequests"));
-      writer.print(item.getLong("uniqueItemRequests"));
-      writer.print(item.getDouble("costPerTotalRequest"));
-      writer.print(item.getDouble("costPerUniqueRequest"));
-      writer.println();
-    }
+  private static void getCostPerUseItemCsv(JsonObject item, CSVPrinter writer)
+      throws IOException {
+
+    writer.print(item.getString("title"));
+    writer.print(Boolean.TRUE.equals(item.getBoolean("derivedTitle")) ? "Y" : "N");
+    writer.print(item.getString("printISSN"));
+    writer.print(item.getString("onlineISSN"));
+    writer.print(item.getString("ISBN"));
+    writer.print(item.getString("publicationYear"));
+    writer.print(item.getString("orderType"));
+    writer.print(orderLinesToString(item.getJsonArray("poLineIDs")));
+    writer.print(orderLinesToString(item.getJsonArray("invoiceNumbers")));
+    writer.print(item.getString("fiscalDateStart"));
+    writer.print(item.getString("fiscalDateEnd"));
+    writer.print(item.getString("subscriptionDateStart"));
+    writer.print(item.getString("subscriptionDateEnd"));
+    writer.print(item.getString("amountEncumbered"));
+    writer.print(item.getString("amountPaid"));
+    writer.print(item.getLong("totalItemRequests"));
+    writer.print(item.getLong("uniqueItemRequests"));
+    writer.print(item.getDouble("costPerTotalRequest"));
+    writer.print(item.getDouble("costPerUniqueRequest"));
+    writer.println();
   }
 
   private static long getTotalInLongArray(JsonArray ar, String key) {
@@ -0,0 +1,100 @@
+package org.folio.eusage.reports.api;
+
+import io.vertx.sqlclient.Row;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Pass rows on to handler, skipping rows that are equal to an earlier row, like UNION does.
+ *
+ * <p>Rows must be ordered by the ORDER BY columns given. Equal rows then have the same
+ * ORDER BY values, so only the rows of the current group of ORDER BY values are kept.
+ * Each ORDER BY term must be a column name of the rows, optionally followed by ASC or DESC
+ * and NULLS FIRST or NULLS LAST; other terms, such as expressions or qualified names, are
+ * rejected.
+ */
+final class DistinctRows implements Consumer<Row> {
+  private static final Pattern ORDER_BY_TERM = Pattern.compile(
+      "([a-z_][a-z0-9_]*)(\\s+(asc|desc))?(\\s+nulls\\s+(first|last))?");
+
+  private final String[] orderByColumns;
+  private final int columns;
+  private final Consumer<Row> handler;
+  private final Set<List<Object>> groupRows = new HashSet<>();
+  private List<Object> groupKey;
+
+  /**
+   * Create filter.
+   * @param orderBy ORDER BY clause: comma separated column names.
+   * @param handler called for each distinct row.
+   */
+  DistinctRows(String orderBy, Consumer<Row> handler) {
+    this(orderBy, Integer.MAX_VALUE, handler);
+  }
+
+  /**
+   * Create filter that compares the first columns of rows only.
+   * @param orderBy ORDER BY clause: comma separated column names.
+   * @param columns number of leading columns that make rows equal; ORDER BY columns must be
+   *     among them.
+   * @param handler called for the first row of rows with equal leading columns.
+   * @throws IllegalArgumentException if an ORDER BY term is not supported.
+   */
+  DistinctRows(String orderBy, int columns, Consumer<Row> handler) {
+    this.orderByColumns = orderByColumns(orderBy);
+    this.columns = columns;
+    this.handler = handler;
+  }
+
+  /**
+   * Column names of ORDER BY clause.
+   * @param orderBy ORDER BY clause.
+   * @return lower case column names.
+   * @throws IllegalArgumentException if a term is not a column name with optional ordering.
+   */
+  static String[] orderByColumns(String orderBy) {
+    String[] terms = orderBy.trim().toLowerCase(Locale.ROOT).split("\\s*,\\s*", -1);
+    String[] names = new String[terms.length];
+    for (int i = 0; i < terms.length; i++) {
+      Matcher matcher = ORDER_BY_TERM.matcher(terms[i]);
+      if (!matcher.matches()) {
+        throw new IllegalArgumentException("Unsupported ORDER BY term: " + terms[i]);
+      }
+      names[i] = matcher.group(1);
+    }
+    return names;
+  }
+
+  @Override
+  public void accept(Row row) {
+    if (groupKey == null) {
+      for (String column : orderByColumns) {
+        if (row.getColumnIndex(column) == -1) {
+          throw new IllegalArgumentException("ORDER BY column not in row: " + column);
+        }
+      }
+    }
+    List<Object> key = new ArrayList<>(orderByColumns.length);
+    for (String column : orderByColumns) {
+      key.add(row.getValue(column));
+    }
+    if (!key.equals(groupKey)) {
+      groupKey = key;
+      groupRows.clear();
+    }
+    int size = Math.min(columns, row.size());
+    List<Object> values = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      values.add(row.getValue(i));
+    }
+    if (groupRows.add(values)) {
+      handler.accept(row);
+    }
+  }
+}
@@ -10,12 +10,15 @@ import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.parsetools.JsonEventType;
 import io.vertx.core.parsetools.JsonParser;
+import io.vertx.core.streams.ReadStream;
+import io.vertx.core.streams.WriteStream;
 import io.vertx.ext.web.Router;
 import io.vertx.ext.web.RoutingContext;
 import io.vertx.ext.web.client.HttpRequest;
 import io.vertx.ext.web.client.HttpResponse;
 import io.vertx.ext.web.client.WebClient;
 import io.vertx.ext.web.codec.BodyCodec;
+import io.vertx.ext.web.handler.HttpException;
 import io.vertx.ext.web.openapi.RouterBuilder;
 import io.vertx.ext.web.validation.RequestParameter;
 import io.vertx.ext.web.validation.RequestParameters;
@@ -30,13 +33,28 @@ import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.folio.okapi.common.GenericCompositeFuture;
@@ -61,10 +79,121 @@ public class EusageReportsApi implements RouterCreator, TenantInitHooks {
 
   static final String LIMIT_ALL = "?limit=2147483647";
 
+  static final int ERM_PAGE_SIZE = 100;
+
+  static final int BATCH_SIZE = 1000;
+
+  /** Rows fetched at a time when streaming report rows. */
+  static final int REPORT_FETCH_SIZE = 1000;
+
+  static final long POPULATE_LEASE_MINUTES = 60;
+
+  static final long POPULATE_POLL_MILLIS = 1000;
+
+  /** How often the status of a population in progress is renewed, so its lease is kept. */
+  static final long POPULATE_RENEW_MILLIS = POPULATE_LEASE_MINUTES * 60000L / 4;
+
+  /** How long to wait for a population by another module instance before failing. */
+  static final long POPULATE_WAIT_MILLIS = POPULATE_LEASE_MINUTES * 60000L;
+
+  private int ermPrefetch = 1;
+
+  private int refreshConcurrency = 4;
+
+  private boolean aggregateInSql;
+
+  /** Populations in progress for schema/agreementId. */
+  private final Map<String, Future<Integer>> populating = new ConcurrentHashMap<>();
+
+  private ReportCache<Function<ItemPage, JsonObject>> reportCache = new ReportCache<>(100, 300);
+
+  private ReportWorkers reportWorkers = new ReportWorkers(4, 100);
+
+  /** Metrics of report workers last logged. */
+  private JsonObject loggedReportMetrics;
+
   public EusageReportsApi(WebClient webClient) {
     this.webClient = webClient;
   }
 
+  /**
+   * Set number of ERM pages to request concurrently when fetching collections.
+   * @param ermPrefetch number of pages; 1 for sequential fetching (the default).
+   * @return this
+   */
+  public EusageReportsApi setErmPrefetch(int ermPrefetch) {
+    if (ermPrefetch < 1) {
+      throw new IllegalArgumentException("ermPrefetch must be 1 or higher: " + ermPrefetch);
+    }
+    this.ermPrefetch = ermPrefetch;
+    return this;
+  }
+
+  /**
+   * Set whether stored reports sum usage by period in the database.
+   * @param aggregateInSql true: rows are summed by Postgres; false: all usage rows are
+   *     fetched and summed by the module (the default).
+   * @return this
+   */
+  public EusageReportsApi setAggregateInSql(boolean aggregateInSql) {
+    this.aggregateInSql = aggregateInSql;
+    return this;
+  }
+
+  /**
+   * Set limits of the cache of stored reports.
+   * @param maxSize maximum number of reports cached; 0 disables the cache. 100 is the default.
+   * @param ttlSeconds seconds a report is cached; 300 is the default.
+   * @return this
+   */
+  public EusageReportsApi setReportCache(int maxSize, long ttlSeconds) {
+    this.reportCache = new ReportCache<>(maxSize, ttlSeconds);
+    return this;
+  }
+
+  /**
+   * Set worker threads that make reports from fetched rows.
+   * @param poolSize number of threads; 4 is the default; 0 makes reports on the event loop.
+   * @param maxReports reports that may be made at a time; 100 is the default.
+   * @return this
+   */
+  public EusageReportsApi setReportWorkers(int poolSize, int maxReports) {
+    this.reportWorkers = new ReportWorkers(poolSize, maxReports);
+    return this;
+  }
+
+  /**
+   * Log metrics of the report workers at info level, if changed since last logged.
+   *
+   * <p>Metrics are number of threads and maximum number of reports, reports being made and
+   * tasks queued and running now, and tasks completed, reports rejected and nanoseconds
+   * waited in the queue since start.
+   * @return whether metrics were logged.
+   */
+  public synchronized boolean logReportMetrics() {
+    JsonObject metrics = reportWorkers.metrics();
+    if (metrics.equals(loggedReportMetrics)) {
+      return false;
+    }
+    log.info("Report workers: {}", metrics.encode());
+    loggedReportMetrics = metrics;
+    return true;
+  }
+
+  /**
+   * Set number of agreements to populate concurrently when refreshing all agreements.
+   * @param refreshConcurrency number of agreements; 4 is the default.
+   * @return this
+   */
+  public EusageReportsApi setRefreshConcurrency(int refreshConcurrency) {
+    if (refreshConcurrency < 1) {
+      throw new IllegalArgumentException("refreshConcurrency must be 1 or higher: "
+          + refreshConcurrency);
+    }
+    this.refreshConcurrency = refreshConcurrency;
+    return this;
+  }
+
   static String titleEntriesTable(TenantPgPool pool) {
     return pool.getSchema() + ".title_entries";
   }
@@ -77,10 +206,22 @@ public class EusageReportsApi implements RouterCreator, TenantInitHooks {
     return pool.getSchema() + ".title_data";
   }
 
+  static String titleDataMonthsTable(TenantPgPool pool) {
+    return pool.getSchema() + ".title_data_months";
+  }
+
   static String agreementEntriesTable(TenantPgPool pool) {
     return pool.getSchema() + ".agreement_entries";
   }
 
+  static String agreementTitlesTable(TenantPgPool pool) {
+    return pool.getSchema() + ".agreement_titles";
+  }
+
+  static String reportVersionsTable(TenantPgPool pool) {
+    return pool.getSchema() + ".report_versions";
+  }
+
   static String statusTable(TenantPgPool pool) {
     return pool.getSchema() + ".status";
   }
@@ -347,6 +488,7 @@ public class EusageReportsApi implements RouterCreator, TenantInitHooks {
 
   Future<Void> postReportTitles(Vertx vertx, RoutingContext ctx) {
     TenantPgPool pool = TenantPgPool.pool(vertx, TenantUtil.tenant(ctx));
+    Set<UUID> changedAgreements = new HashSet<>();
     return pool.getConnection()
         .compose(sqlConnection -> {
           Future<Void> future = Future.succeededFuture();
@@ -357,24 +499,33 @@ public class EusageReportsApi implements RouterCreator, TenantInitHooks {
             String kbTitleName = titleEntry.getString("kbTitleName");
             String kbTitleIdStr = titleEntry.getString("kbTitleId");
             Boolean kbManualMatch = titleEntry.getBoolean("kbManualMatch", true);
-            future = future.compose(x ->
-                sqlConnection.preparedQuery("UPDATE " + titleEntriesTable(pool)
-                        + " SET"
-                        + " kbTitleName = $2,"
-                        + " kbTitleId = $3,"
-                        + " kbManualMatch = $4"
-                        + " WHERE id = $1")
-                    .execute(Tuple.of(id, kbTitleName, kbTitleIdStr == null
-                        ? null : UUID.fromString(kbTitleIdStr), kbManualMatch))
-                    .compose(rowSet -> {
-                      if (rowSet.rowCount() == 0) {
-                        return Future.failedFuture("title " + id + " matches nothing");
-                      }
-                      return Future.succeededFuture();
-                    }));
+            // agreements with the title before and after the update get a new data version
+            String touchSql = touchReportVersionsSql(pool, titleEntryAgreementsSql(pool));
+            future = future
+                .compose(x -> sqlConnection.preparedQuery(touchSql).execute(Tuple.of(id)))
+                .compose(rowSet -> {
+                  addAgreementIds(rowSet, changedAgreements);
+                  return sqlConnection.preparedQuery("UPDATE " + titleEntriesTable(pool)
+                          + " SET"
+                          + " kbTitleName = $2,"
+                          + " kbTitleId = $3,"
+                          + " kbManualMatch = $4"
+                          + " WHERE id = $1")
+                      .execute(Tuple.of(id, kbTitleName, kbTitleIdStr == null
+                          ? null : UUID.fromString(kbTitleIdStr), kbManualMatch));
+                })
+                .compose(rowSet -> {
+                  if (rowSet.rowCount() == 0) {
+                    return Future.failedFuture("title " + id + " matches nothing");
+                  }
+                  return sqlConnection.preparedQuery(touchSql).execute(Tuple.of(id));
+                })
+                .onSuccess(rowSet -> addAgreementIds(rowSet, changedAgreements))
+                .mapEmpty();
           }
           return future
               .eventually(x -> sqlConnection.close())
+              .onComplete(x -> reportCache.invalidate(pool.getSchema(), changedAgreements))
               .onFailure(x -> log.error(x.getMessage(), x));
         })
         .compose(x -> {
@@ -512,35 +663,62 @@ public class EusageReportsApi implements RouterCreator, TenantInitHooks {
   Future<List<UUID>> ermPackageContentLookup(RoutingContext ctx, UUID id) {
     // example: /erm/packages/dfb61870-1252-4ece-8f75-db02faf4ab82/content
     String uri = "/erm/packages/" + id + "/content";
-    return ermFetch(ctx, uri)
-        .map(ar -> {
-          List<UUID> list = new ArrayList<>();
-          for (int i = 0; i < ar.size(); i++) {
-            JsonObject pti = ar.getJsonObject(i).getJsonObject("pti");
-            JsonObject titleInstance = pti.getJsonObject("titleInstance");
-            UUID kbTitleId = UUID.fromString(titleInstance.getString("id"));
-            list.add(kbTitleId);
-          }
-          return list;
+    List<UUID> list = new ArrayList<>();
+    return ermFetch(ctx, uri, ar -> {
+      for (int i = 0; i < ar.size(); i++) {
+        JsonObject pti = ar.getJsonObject(i).getJsonObject("pti");
+        JsonObject titleInstance = pti.getJsonObject("titleInstance");
+        UUID kbTitleId = UUID.fromString(titleInstance.getString("id"));
+        list.add(kbTitleId);
+      }
+      return Future.succeededFuture();
+    }).map(list);
+  }
+
+  /**
+   * Fetch all pages of an ERM collection, passing each page to handler as it arrives.
+   *
+   * <p>Up to ermPrefetch pages are requested at the same time. Pages are passed to the
+   * handler in order, and the next page is not passed until the future returned by the
+   * handler completes, so at most ermPrefetch pages are held in memory.
+   *
+   * <p>Pages requested after the last page, or after a failure, are not handled; their
+   * failures are logged.
+   * @param ctx routing context.
+   * @param uri ERM URI without perPage and page parameters.
+   * @param handler page handler.
+   * @return future that completes when all pages have been handled.
+   */
+  Future<Void> ermFetch(RoutingContext ctx, String uri,
+      Function<JsonArray, Future<Void>> handler) {
+    Deque<Future<JsonArray>> prefetched = new ArrayDeque<>();
+    return ermFetch(ctx, uri, 1, prefetched, handler)
+        .onComplete(x -> {
+          prefetched.forEach(page -> page.onFailure(e ->
+              log.warn("Prefetched page of {} failed: {}", uri, e.getMessage())));
+          prefetched.clear();
         });
   }
 
-  Future<JsonArray> ermFetch(RoutingContext ctx, String uri) {
-    return ermFetch(ctx, uri, 1, new JsonArray());
+  private Future<Void> ermFetch(RoutingContext ctx, String uri, int page,
+      Deque<Future<JsonArray>> prefetched, Function<JsonArray, Future<Void>> handler) {
+    while (prefetched.size() < ermPrefetch) {
+      prefetched.add(ermFetchPage(ctx, uri, page + prefetched.size()));
+    }
+    return prefetched.remove().compose(ar -> {
+      if (ar.isEmpty()) {
+        return Future.succeededFuture();
+      }
+      return handler.apply(ar)
+          .compose(x -> ermFetch(ctx, uri, page + 1, prefetched, handler));
+    });
   }
 
-  Future<JsonArray> ermFetch(RoutingContext ctx, String uri, int page, JsonArray result) {
+  Future<JsonArray> ermFetchPage(RoutingContext ctx, String uri, int page) {
     char sep = uri.contains("?") ? '&' : '?';
-    final String pageUri = uri + sep + "perPage=100&page=" + page;
+    final String pageUri = uri + sep + "perPage=" + ERM_PAGE_SIZE + "&page=" + page;
     return getRequestSend(ctx, pageUri)
-        .compose(res -> {
-          JsonArray ar = res.bodyAsJsonArray();
-          if (ar.isEmpty()) {
-            return Future.succeededFuture(result);
-          }
-          result.addAll(ar);
-          return ermFetch(ctx, uri, page + 1, result);
-        });
+        .map(HttpResponse::bodyAsJsonArray);
   }
 
   Future<UUID> updateTitleEntryByKbTitle(TenantPgPool pool, SqlConnection con, UUID kbTitleId,
@@ -646,87 +824,303 @@ public class EusageReportsApi implements RouterCreator, TenantInitHooks {
         });
   }
 
-  Future<Void> createTitleFromAgreement(TenantPgPool pool, SqlConnection con,
-      UUID kbTitleId, RoutingContext ctx) {
+  /**
+   * Determine which KB titles must be created or updated in title_entries.
+   * @param pool Postgres pool; a connection is only held while reading title_entries.
+   * @param plan agreement plan that receives title entries.
+   * @param kbTitleIds KB titles.
+   * @param ctx routing context.
+   * @return future result.
+   */
+  Future<Void> planTitlesFromAgreement(TenantPgPool pool, AgreementPlan plan,
+      List<UUID> kbTitleIds, RoutingContext ctx) {
 
-    if (kbTitleId == null) {
+    List<UUID> newIds = new ArrayList<>();
+    for (UUID kbTitleId : kbTitleIds) {
+      if (kbTitleId != null && plan.kbTitleIds.add(kbTitleId)) {
+        newIds.add(kbTitleId);
+      }
+    }
+    if (newIds.isEmpty()) {
       return Future.succeededFuture();
     }
-    return con.preparedQuery("SELECT * FROM " + titleEntriesTable(pool)
-            + " WHERE kbTitleId = $1")
-        .execute(Tuple.of(kbTitleId))
+    return pool.execute("SELECT id, kbTitleId, publicationType FROM " + titleEntriesTable(pool)
+            + " WHERE kbTitleId = ANY($1)",
+            Tuple.tuple().addArrayOfUUID(newIds.toArray(new UUID[0])))
         .compose(res -> {
-          Row row = res.iterator().hasNext() ? res.iterator().next() : null;
-          if (row != null && row.getString("publicationtype") != null) {
-            return Future.succeededFuture();
-          }
-          final UUID id = row != null ? row.getUUID("id") : null;
-          return ermTitleLookup(ctx, kbTitleId).compose(erm -> {
-            String kbTitleName = erm.getString(1);
-            String publicationType = erm.getString(2);
-            if (id == null) {
-              return con.preparedQuery("INSERT INTO " + titleEntriesTable(pool)
-                      + "(id, kbTitleName, kbTitleId, kbManualMatch, publicationType)"
-                      + " VALUES ($1, $2, $3, $4, $5)")
-                  .execute(Tuple.of(UUID.randomUUID(), kbTitleName, kbTitleId, false,
-                      publicationType))
-                  .mapEmpty();
-            } else {
-              return con.preparedQuery("UPDATE " + titleEntriesTable(pool)
-                      + " SET publicationType = $2 WHERE id = $1")
-                  .execute(Tuple.of(id, publicationType))
-                  .mapEmpty();
+          Map<UUID, UUID> existing = new HashMap<>();
+          Set<UUID> complete = new HashSet<>();
+          res.forEach(row -> {
+            UUID kbTitleId = row.getUUID("kbtitleid");
+            existing.putIfAbsent(kbTitleId, row.getUUID("id"));
+            if (row.getString("publicationtype") != null) {
+              complete.add(kbTitleId);
             }
           });
+          Future<Void> future = Future.succeededFuture();
+          for (UUID kbTitleId : newIds) {
+            if (!complete.contains(kbTitleId)) {
+              UUID existingId = existing.get(kbTitleId);
+              // agreements populated together share the identifier of a new title entry
+              UUID id = existingId != null ? existingId : plan.cache.newTitleEntryId(kbTitleId);
+              future = future
+                  .compose(x -> LookupCache.get(plan.cache.ermTitles, kbTitleId,
+                      () -> ermTitleLookup(ctx, kbTitleId)))
+                  .map(erm -> {
+                    plan.titleEntries.put(kbTitleId, Tuple.of(id, erm.getString(1),
+                        erm.getString(2), existingId == null));
+                    return null;
+                  });
+            }
+          }
+          return future;
         });
   }
 
-  Future<Void> createPackageFromAgreement(TenantPgPool pool, SqlConnection con, UUID kbPackageId,
+  Future<Void> planPackageFromAgreement(TenantPgPool pool, AgreementPlan plan, UUID kbPackageId,
       String kbPackageName, RoutingContext ctx) {
 
-    return ermPackageContentLookup(ctx, kbPackageId)
+    if (plan.containsPackage(kbPackageId)) {
+      return Future.succeededFuture();
+    }
+    Future<List<UUID>> content = LookupCache.get(plan.cache.packageContent, kbPackageId,
+        () -> ermPackageContentLookup(ctx, kbPackageId));
+    return content
         .compose(list -> {
-          Future<Void> future = con.preparedQuery("DELETE FROM " + packageEntriesTable(pool)
-              + " WHERE kbPackageId = $1").execute(Tuple.of(kbPackageId)).mapEmpty();
-          for (UUID kbTitleId : list) {
-            future = future.compose(x -> createTitleFromAgreement(pool, con, kbTitleId, ctx));
-            future = future.compose(x ->
-                con.preparedQuery("INSERT INTO " + packageEntriesTable(pool)
-                        + "(kbPackageId, kbPackageName, kbTitleId)"
-                        + "VALUES ($1, $2, $3)")
-                    .execute(Tuple.of(kbPackageId, kbPackageName, kbTitleId))
-                    .mapEmpty()
-            );
-          }
-          return future;
+          plan.addPackage(kbPackageId, kbPackageName, list);
+          return planTitlesFromAgreement(pool, plan, list, ctx);
         });
   }
 
-  static Future<Void> clearTdEntry(TenantPgPool pool, SqlConnection con, UUID counterReportId) {
-    return con.preparedQuery("DELETE FROM " + titleDataTable(pool)
-            + " WHERE counterReportId = $1")
-        .execute(Tuple.of(counterReportId))
+  /**
+   * Execute statement for each tuple with batches of up to BATCH_SIZE tuples.
+   * @param con connection.
+   * @param sql prepared statement.
+   * @param tuples arguments; may be empty.
+   * @return future result.
+   */
+  static Future<Void> executeBatch(SqlConnection con, String sql, List<Tuple> tuples) {
+    Future<Void> future = Future.succeededFuture();
+    for (int i = 0; i < tuples.size(); i += BATCH_SIZE) {
+      List<Tuple> batch = tuples.subList(i, Math.min(i + BATCH_SIZE, tuples.size()));
+      future = future.compose(x -> con.preparedQuery(sql).executeBatch(batch).mapEmpty());
+    }
+    return future;
+  }
+
+  static Future<Void> writeTitleEntries(TenantPgPool pool, SqlConnection con,
+      AgreementPlan plan) {
+
+    List<Tuple> inserts = new ArrayList<>();
+    List<Tuple> updates = new ArrayList<>();
+    for (Map.Entry<UUID, Tuple> entry : plan.titleEntries.entrySet()) {
+      UUID kbTitleId = entry.getKey();
+      UUID id = entry.getValue().getUUID(0);
+      String kbTitleName = entry.getValue().getString(1);
+      String publicationType = entry.getValue().getString(2);
+      if (Boolean.TRUE.equals(entry.getValue().getBoolean(3))) {
+        inserts.add(Tuple.of(id, kbTitleName, kbTitleId, false, publicationType));
+      } else {
+        updates.add(Tuple.of(id, publicationType));
+      }
+    }
+    // rows are written in id order, so that concurrent transactions lock them in same order
+    Comparator<Tuple> byId = Comparator.comparing(t -> t.getUUID(0));
+    inserts.sort(byId);
+    updates.sort(byId);
+    // kbTitleId is not unique, as counter reports may match several entries to a KB title,
+    // so agreements populated at the same time take turns to insert the entry of a title;
+    // the insert, a statement after the lock, sees an entry inserted by an earlier turn
+    return lockKeys(pool, con, "title_entries",
+            inserts.stream().map(t -> t.getUUID(2)).collect(Collectors.toList()))
+        .compose(x -> executeBatch(con, "INSERT INTO " + titleEntriesTable(pool)
+            + "(id, kbTitleName, kbTitleId, kbManualMatch, publicationType)"
+            + " SELECT $1::uuid, $2::text, $3::uuid, $4::boolean, $5::text"
+            + " WHERE NOT EXISTS (SELECT 1 FROM "
+            + titleEntriesTable(pool) + " WHERE kbTitleId = $3)", inserts))
+        .compose(x -> executeBatch(con, "UPDATE " + titleEntriesTable(pool)
+            + " SET publicationType = $2 WHERE id = $1", updates));
+  }
+
+  /**
+   * Lock keys with transaction level advisory locks, so that the rows of a key are written
+   * by one transaction at a time.
+   *
+   * <p>Keys are locked in hash order, so that transactions locking keys of the same name do
+   * not deadlock. Transactions that lock keys of several names lock them in the same order
+   * of names: title entries, then package entries.
+   * @param pool Postgres pool.
+   * @param con connection with transaction.
+   * @param name name of the kind of key, such as the table written.
+   * @param keys keys to lock; may be empty.
+   * @return async result when all keys are locked.
+   */
+  static Future<Void> lockKeys(TenantPgPool pool, SqlConnection con, String name,
+      Collection<UUID> keys) {
+
+    if (keys.isEmpty()) {
+      return Future.succeededFuture();
+    }
+    return con.preparedQuery("SELECT pg_advisory_xact_lock(hashtext($1), h)::text"
+            + " FROM (SELECT DISTINCT hashtext(k::text) AS h FROM unnest($2::uuid[]) AS k"
+            + " ORDER BY h) AS t")
+        .execute(Tuple.of(pool.getSchema() + "." + name, keys.toArray(new UUID[0])))
         .mapEmpty();
   }
 
-  static Future<Void> insertTdEntry(TenantPgPool pool, SqlConnection con, UUID titleEntryId,
-      UUID counterReportId, String counterReportTitle,
+  static Future<Void> writePackageEntries(TenantPgPool pool, SqlConnection con,
+      AgreementPlan plan) {
+
+    List<Tuple> deletes = new ArrayList<>();
+    List<Tuple> inserts = new ArrayList<>();
+    for (Map.Entry<UUID, List<UUID>> entry : plan.packageContent.entrySet()) {
+      UUID kbPackageId = entry.getKey();
+      String kbPackageName = plan.packageNames.get(kbPackageId);
+      deletes.add(Tuple.of(kbPackageId));
+      for (UUID kbTitleId : entry.getValue()) {
+        inserts.add(Tuple.of(kbPackageId, kbPackageName, kbTitleId));
+      }
+    }
+    // packages are written in kbPackageId order, so that agreements sharing packages lock
+    // rows in the same order when populated at the same time
+    deletes.sort(Comparator.comparing(t -> t.getUUID(0)));
+    inserts.sort(Comparator.<Tuple, UUID>comparing(t -> t.getUUID(0))
+        .thenComparing(t -> t.getUUID(2)));
+    // agreements sharing a package take turns to rewrite its content; otherwise both could
+    // delete before either inserts and the content would be inserted twice
+    return lockKeys(pool, con, "package_entries", plan.packageContent.keySet())
+        .compose(x -> executeBatch(con, "DELETE FROM " + packageEntriesTable(pool)
+            + " WHERE kbPackageId = $1", deletes))
+        .compose(x -> executeBatch(con, "INSERT INTO " + packageEntriesTable(pool)
+            + "(kbPackageId, kbPackageName, kbTitleId)"
+            + " VALUES ($1, $2, $3)", inserts));
+  }
+
+  static Future<Void> clearTdEntry(CounterReportContext context, SqlConnection con,
+      UUID counterReportId) {
+    return con.preparedQuery("DELETE FROM " + titleDataTable(context.pool)
+            + " WHERE counterReportId = $1 RETURNING titleEntryId, lower(usageDateRange)")
+        .execute(Tuple.of(counterReportId))
+        .map(rowSet -> {
+          rowSet.forEach(row -> addTitleDataMonth(context, row));
+          return null;
+        });
+  }
+
+  static Future<Void> insertTdEntry(CounterReportContext context, SqlConnection con,
+      UUID titleEntryId, UUID counterReportId, String counterReportTitle,
       UUID providerId, LocalDate publicationDate,
       String usageDateRange,
       int uniqueAccessCount, int totalAccessCount, boolean openAccess) {
-    return con.preparedQuery("INSERT INTO " + titleDataTable(pool)
+    return con.preparedQuery("INSERT INTO " + titleDataTable(context.pool)
             + "(id, titleEntryId,"
             + " counterReportId, counterReportTitle, providerId,"
             + " publicationDate, usageDateRange,"
             + " uniqueAccessCount, totalAccessCount, openAccess)"
-            + " VALUES ($1, $2, $3, $4, $5, $6, $7, $8, $9, $10)")
+            + " VALUES ($1, $2, $3, $4, $5, $6, $7, $8, $9, $10)"
+            + " RETURNING titleEntryId, lower(usageDateRange)")
         .execute(Tuple.of(UUID.randomUUID(), titleEntryId,
             counterReportId, counterReportTitle, providerId,
             publicationDate, usageDateRange,
             uniqueAccessCount, totalAccessCount, openAccess))
+        .map(rowSet -> {
+          rowSet.forEach(row -> addTitleDataMonth(context, row));
+          return null;
+        });
+  }
+
+  private static void addTitleDataMonth(CounterReportContext context, Row row) {
+    if (row.getUUID(0) != null && row.getLocalDate(1) != null) {
+      context.addTitleDataMonth(row.getUUID(0), row.getLocalDate(1));
+    }
+  }
+
+  /**
+   * Compute title_data_months of the months whose title_data changed.
+   *
+   * <p>Each title entry month is computed once, however many title_data rows of it
+   * the counter report cleared or inserted. Agreements with the title entries then get
+   * one new data version and are added to the changed agreements of the context.
+   * @param context counter report context with the changed months.
+   * @param con connection.
+   * @return async result.
+   */
+  static Future<Void> updateTitleDataMonths(CounterReportContext context, SqlConnection con) {
+    List<Tuple> tuples = context.takeTitleDataMonths();
+    if (tuples.isEmpty()) {
+      return Future.succeededFuture();
+    }
+    UUID[] titleEntryIds = tuples.stream().map(tuple -> tuple.getUUID(0)).distinct()
+        .toArray(UUID[]::new);
+    return executeBatch(con, "SELECT " + updateTitleDataMonthsFunction(context.pool)
+            + "($1, $2)", tuples)
+        .compose(x -> con.preparedQuery(touchReportVersionsSql(context.pool,
+                "SELECT DISTINCT agreementId FROM " + agreementTitlesTable(context.pool)
+                    + " JOIN " + titleEntriesTable(context.pool)
+                    + " ON title_entries.kbTitleId = agreement_titles.kbTitleId"
+                    + " WHERE title_entries.id = ANY($1)"))
+            .execute(Tuple.of(titleEntryIds)))
+        .onSuccess(rowSet -> addAgreementIds(rowSet, context.changedAgreements))
         .mapEmpty();
   }
 
+  static String updateTitleDataMonthsFunction(TenantPgPool pool) {
+    return pool.getSchema() + ".update_title_data_months";
+  }
+
+  /**
+   * SQL that computes title_data_months rows from title_data.
+   *
+   * <p>Usage is summed by title entry, month, publication date and access type.
+   * Equal title_data rows, such as the same usage in overlapping counter reports, are only
+   * counted once like the reports did when they read title_data.
+   * @param pool Postgres pool.
+   * @param where conditions on title_data, each starting with AND; may be empty.
+   * @return SELECT statement.
+   */
+  static String titleDataMonthsSql(TenantPgPool pool, String where) {
+    return "SELECT titleEntryId, usageMonth, publicationDate, openAccess,"
+        + " sum(uniqueAccessCount), sum(totalAccessCount)"
+        + " FROM (SELECT DISTINCT titleEntryId,"
+        + " date_trunc('month', lower(usageDateRange))::date"
+        + " AS usageMonth, publicationDate, usageDateRange,"
+        + " uniqueAccessCount, totalAccessCount, openAccess"
+        + " FROM " + titleDataTable(pool)
+        + " WHERE lower(usageDateRange) IS NOT NULL" + where + ") AS d"
+        + " GROUP BY titleEntryId, usageMonth, publicationDate, openAccess";
+  }
+
+  /**
+   * SQL that gives agreements a new data version.
+   * @param pool Postgres pool.
+   * @param agreementIds SELECT of distinct agreementId column.
+   * @return INSERT statement that returns agreementId of each agreement.
+   */
+  static String touchReportVersionsSql(TenantPgPool pool, String agreementIds) {
+    // rows are locked in agreementId order to avoid deadlocks between concurrent writers
+    return "INSERT INTO " + reportVersionsTable(pool) + " (agreementId, version, lastModified)"
+        + " SELECT agreementId, nextval('" + pool.getSchema() + ".report_version_seq'),"
+        + " clock_timestamp() FROM (" + agreementIds + ") AS a ORDER BY agreementId"
+        + " ON CONFLICT (agreementId) DO UPDATE"
+        + " SET version = EXCLUDED.version, lastModified = EXCLUDED.lastModified"
+        + " RETURNING agreementId";
+  }
+
+  static void addAgreementIds(RowSet<Row> rowSet, Set<UUID> agreementIds) {
+    rowSet.forEach(row -> agreementIds.add(row.getUUID("agreementId")));
+  }
+
+  /** SELECT of agreements with title entry $1. */
+  static String titleEntryAgreementsSql(TenantPgPool pool) {
+    return "SELECT DISTINCT agreementId FROM " + agreementTitlesTable(pool)
+        + " JOIN " + titleEntriesTable(pool)
+        + " ON title_entries.kbTitleId = agreement_titles.kbTitleId"
+        + " WHERE title_entries.id = $1";
+  }
+
+  static final String TITLE_DATA_MONTHS_COLUMNS = " (titleEntryId, usageMonth, publicationDate,"
+      + " openAccess, uniqueAccessCount, totalAccessCount) ";
+
   static int getTotalCount(JsonObject reportItem, String type) {
     int count = 0;
     JsonArray itemPerformances = reportItem.getJsonArray(altKey(reportItem,
@@ -837,7 +1231,7 @@ public class EusageReportsApi implements RouterCreator, TenantInitHooks {
     final boolean openAccess = "OA_Gold".equals(accessType);
     return upsertTitleEntryCounterReport(pool, con, ctx, context,
         counterReportTitle, printIssn, onlineIssn, isbn, doi)
-        .compose(titleEntryId -> insertTdEntry(pool, con, titleEntryId, counterReportId,
+        .compose(titleEntryId -> insertTdEntry(context, con, titleEntryId, counterReportId,
             counterReportTitle, providerId, pubdate, usageDateRange,
             uniqueAccessCount, totalAccessCount, openAccess));
   }
@@ -887,7 +1281,9 @@ public class EusageReportsApi implements RouterCreator, TenantInitHooks {
       return Future.failedFuture("Missing " + XOkapiHeaders.URL);
     }
     TenantPgPool pool = TenantPgPool.pool(vertx, TenantUtil.tenant(ctx));
-    return populateCounterReportTitles(new CounterReportContext(ctx, pool), id, providerId,0);
+    CounterReportContext context = new CounterReportContext(ctx, pool);
+    return populateCounterReportTitles(context, id, providerId,0)
+        .onComplete(x -> reportCache.invalidate(pool.getSchema(), context.changedAgreements));
   }
 
   private Future<Boolean> populateCounterReportTitles(CounterReportContext context, String id,
@@ -926,7 +1322,10 @@ public class EusageReportsApi implements RouterCreator, TenantInitHooks {
               return Future.failedFuture("GET " + uri + " returned status code "
                   + res.statusCode());
             }
-            return promise.future().map(true);
+            // also after a failure, so that months match the title_data written
+            return promise.future()
+                .eventually(x -> updateTitleDataMonths(context, con))
+                .map(true);
           })
           .eventually(x -> con.close())
           .compose(res -> {
@@ -969,7 +1368,7 @@ public class EusageReportsApi implements RouterCreator, TenantInitHooks {
           if ("id".equals(f)) {
             reportObj.put("id", event.stringValue());
             futures.add(
-                clearTdEntry(context.pool, con, UUID.fromString(reportObj.getString("id")))
+                clearTdEntry(context, con, UUID.fromString(reportObj.getString("id")))
             );
           }
           if ("providerId".equals(f)) {
@@ -1178,7 +1577,9 @@ public class EusageReportsApi implements RouterCreator, TenantInitHooks {
     return future;
   }
 
-  Future<Void> getAllFiscalYears(JsonObject poLine, JsonObject result, RoutingContext ctx) {
+  Future<Void> getAllFiscalYears(JsonObject poLine, JsonObject result, LookupCache cache,
+      RoutingContext ctx) {
+
     Future<Void> future = Future.succeededFuture();
     JsonArray fundDistribution = poLine.getJsonArray("fundDistribution");
     JsonArray fiscalYears = new JsonArray();
@@ -1196,11 +1597,14 @@ public class EusageReportsApi implements RouterCreator, TenantInitHooks {
           JsonObject budget = budgets.getJsonObject(j);
           // fiscalYearId is a required property
           UUID fiscalYearId = UUID.fromString(budget.getString("fiscalYearId"));
-          future1 = future1.compose(x -> lookupFiscalYear(fiscalYearId, ctx).map(fiscalYear -> {
-            // periodStart, periodEnd are required properties
-            fiscalYears.add(getRange(fiscalYear, "periodStart", "periodEnd"));
-            return null;
-          }));
+          future1 = future1
+              .compose(x -> LookupCache.get(cache.fiscalYears, fiscalYearId,
+                  () -> lookupFiscalYear(fiscalYearId, ctx)))
+              .map(fiscalYear -> {
+                // periodStart, periodEnd are required properties
+                fiscalYears.add(getRange(fiscalYear, "periodStart", "periodEnd"));
+                return null;
+              });
         }
         return future1;
       });
@@ -1230,7 +1634,7 @@ public class EusageReportsApi implements RouterCreator, TenantInitHooks {
     });
   }
 
-  Future<JsonObject> parsePoLine(JsonObject poLine, RoutingContext ctx) {
+  Future<JsonObject> parsePoLine(JsonObject poLine, LookupCache cache, RoutingContext ctx) {
     JsonObject result = new JsonObject();
     result.put("invoicedCost", 0.0);
     JsonArray subscriptionPeriods = new JsonArray();
@@ -1248,7 +1652,7 @@ public class EusageReportsApi implements RouterCreator, TenantInitHooks {
       result.put("currency", cost.getString("currency"));
       return getOrderType(orderLine, ctx, result)
           .compose(x -> getEncumbrance(orderLine.getJsonArray("fundDistribution"), result, ctx))
-          .compose(x -> getAllFiscalYears(orderLine, result, ctx))
+          .compose(x -> getAllFiscalYears(orderLine, result, cache, ctx))
           .compose(x -> lookupInvoiceLines(poLineId, ctx))
           .compose(invoiceResponse -> {
             JsonArray invoices = invoiceResponse.getJsonArray("invoiceLines");
@@ -1317,8 +1721,8 @@ public class EusageReportsApi implements RouterCreator, TenantInitHooks {
         .mapEmpty();
   }
 
-  Future<Void> populateAgreementLine(TenantPgPool pool, SqlConnection con,
-      JsonObject agreementLine, UUID agreementId, RoutingContext ctx) {
+  Future<Void> populateAgreementLine(TenantPgPool pool, AgreementPlan plan,
+      JsonObject agreementLine, RoutingContext ctx) {
 
     try {
       final UUID agreementLineId = UUID.fromString(agreementLine.getString("id"));
@@ -1340,22 +1744,23 @@ public class EusageReportsApi implements RouterCreator, TenantInitHooks {
           ? UUID.fromString(resourceObject.getString("id")) : null;
       String kbPackageName = titleInstance == null
           ? resourceObject.getString("name") : null;
-      Future<Void> future = createTitleFromAgreement(pool, con, kbTitleId, ctx);
+      Future<Void> future = planTitlesFromAgreement(pool, plan,
+          Collections.singletonList(kbTitleId), ctx);
       if (kbPackageId != null) {
-        future = future.compose(x -> createPackageFromAgreement(pool, con, kbPackageId,
+        future = future.compose(x -> planPackageFromAgreement(pool, plan, kbPackageId,
             kbPackageName, ctx));
       }
       JsonArray poLines = agreementLine.getJsonArray("poLines");
       JsonObject currencyObj = new JsonObject();
       if (poLines.isEmpty()) {
-        return future.compose(x -> insertAgreementLine(pool, con, agreementId, agreementLineId,
-          coverageDateRanges, type, kbTitleId, kbPackageId));
+        return future.onSuccess(x -> plan.addAgreementEntry(kbTitleId, kbPackageId, type,
+            agreementLineId, null, null, null, null, null, coverageDateRanges, null, null, null));
       }
       for (int i = 0; i < poLines.size(); i++) {
         JsonObject poLine = poLines.getJsonObject(i);
         UUID poLineId = UUID.fromString(poLine.getString("poLineId"));
         future = future
-            .compose(x -> parsePoLine(poLine, ctx))
+            .compose(x -> parsePoLine(poLine, plan.cache, ctx))
             .compose(poResult -> {
               String currency = currencyObj.getString("currency");
               String newCurrency = poResult.getString("currency");
@@ -1364,8 +1769,9 @@ public class EusageReportsApi implements RouterCreator, TenantInitHooks {
                     + ") in PO lines " + poLine.encodePrettily());
               }
               currencyObj.put("currency", newCurrency);
-              return populateParsedPoLine(pool, con, agreementId, agreementLineId,
-                  coverageDateRanges, type, kbTitleId, kbPackageId, poLineId, poResult);
+              populateParsedPoLine(plan, agreementLineId, coverageDateRanges, type,
+                  kbTitleId, kbPackageId, poLineId, poResult);
+              return Future.succeededFuture();
             });
       }
       return future;
@@ -1375,71 +1781,125 @@ public class EusageReportsApi implements RouterCreator, TenantInitHooks {
     }
   }
 
-  private Future<Void> populateParsedPoLine(TenantPgPool pool, SqlConnection con, UUID agreementId,
-      UUID agreementLineId, String coverageDateRanges, String type, UUID kbTitleId,
-      UUID kbPackageId, UUID poLineId, JsonObject poResult) {
+  private static void populateParsedPoLine(AgreementPlan plan, UUID agreementLineId,
+      String coverageDateRanges, String type, UUID kbTitleId, UUID kbPackageId,
+      UUID poLineId, JsonObject poResult) {
 
     JsonArray fiscalYears = poResult.getJsonArray("fiscalYear");
     JsonArray subscriptionPeriods = poResult.getJsonArray("subscriptionPeriods");
     JsonArray invoicedPeriods = poResult.getJsonArray("invoicedPeriods");
     JsonArray invoiceNumbers = poResult.getJsonArray("invoiceNumber");
+    String orderType = poResult.getString("orderType");
+    Double encumberedCost = poResult.getDouble("encumberedCost");
+    String poLineNumber = poResult.getString("poLineNumber");
     if (subscriptionPeriods.isEmpty()) {
-      return insertAgreementLine(pool, con, agreementId, agreementLineId,
-          coverageDateRanges, type, kbTitleId, kbPackageId, poLineId, poResult,
-          null, null, null, null);
+      plan.addAgreementEntry(kbTitleId, kbPackageId, type, agreementLineId, poLineId,
+          encumberedCost, null, null, null, coverageDateRanges, orderType, null, poLineNumber);
+      return;
     }
-    Future<Void> future = Future.succeededFuture();
     for (int i = 0; i < subscriptionPeriods.size(); i++) {
-      String subscriptionDateRange = subscriptionPeriods.getString(i);
-      String fiscalYear = fiscalYears.getString(i);
-      Double invoicedCost = invoicedPeriods.getDouble(i);
-      String invoiceNumber = invoiceNumbers.getString(i);
-      future = future.compose(x -> insertAgreementLine(pool, con, agreementId, agreementLineId,
-          coverageDateRanges, type, kbTitleId, kbPackageId, poLineId, poResult,
-          invoicedCost, invoiceNumber, fiscalYear, subscriptionDateRange));
+      plan.addAgreementEntry(kbTitleId, kbPackageId, type, agreementLineId, poLineId,
+          encumberedCost, invoicedPeriods.getDouble(i), fiscalYears.getString(i),
+          subscriptionPeriods.getString(i), coverageDateRanges, orderType,
+          invoiceNumbers.getString(i), poLineNumber);
     }
-    return future;
   }
 
-  private Future<Void> insertAgreementLine(TenantPgPool pool, SqlConnection con, UUID agreementId,
-      UUID agreementLineId, String coverageDateRanges, String type, UUID kbTitleId,
-      UUID kbPackageId) {
+  static Future<Void> writeAgreementEntries(TenantPgPool pool, SqlConnection con,
+      AgreementPlan plan) {
 
-    UUID id = UUID.randomUUID();
-    return con.preparedQuery(
-            "INSERT INTO " + agreementEntriesTable(pool)
-                + "(id, kbTitleId, kbPackageId, type, agreementId, agreementLineId,"
-                + " coverageDateRanges)"
-                + " VALUES($1, $2, $3, $4, $5, $6, $7)")
-        .execute(Tuple.of(id, kbTitleId, kbPackageId, type, agreementId, agreementLineId,
-            coverageDateRanges))
-        .mapEmpty();
+    return executeBatch(con, "INSERT INTO " + agreementEntriesTable(pool)
+        + "(id, kbTitleId, kbPackageId, type,"
+        + " agreementId, agreementLineId, poLineId,"
+        + " encumberedCost, invoicedCost,"
+        + " fiscalYearRange, subscriptionDateRange,"
+        + " coverageDateRanges, orderType,"
+        + " invoiceNumber,poLineNumber) VALUES"
+        + " ($1, $2, $3, $4, $5, $6, $7, $8, $9,"
+        + " $10, $11, $12, $13, $14, $15)", plan.agreementEntries);
   }
 
-  private Future<Void> insertAgreementLine(TenantPgPool pool, SqlConnection con, UUID agreementId,
-      UUID agreementLineId, String coverageDateRanges, String type, UUID kbTitleId,
-      UUID kbPackageId, UUID poLineId, JsonObject poResult, Number invoicedCost,
-      String invoiceNumber, String fiscalYearRange, String subscriptionDateRange) {
+  /** Columns of agreement_titles in the order of agreementTitlesSql. */
+  static final String AGREEMENT_TITLES_COLUMNS =
+      " (agreementId, agreementEntryId, kbPackageId, kbPackageName, kbTitleId) ";
 
-    UUID id = UUID.randomUUID();
-    String orderType = poResult.getString("orderType");
-    Double encumberedCost = poResult.getDouble("encumberedCost");
-    String poLineNumber = poResult.getString("poLineNumber");
-    return con.preparedQuery(
-                    "INSERT INTO " + agreementEntriesTable(pool)
-                        + "(id, kbTitleId, kbPackageId, type,"
-                        + " agreementId, agreementLineId, poLineId,"
-                        + " encumberedCost, invoicedCost,"
-                        + " fiscalYearRange, subscriptionDateRange,"
-                        + " coverageDateRanges, orderType,"
-                        + " invoiceNumber,poLineNumber) VALUES"
-                        + " ($1, $2, $3, $4, $5, $6, $7, $8, $9,"
-                        + " $10, $11, $12, $13, $14, $15)")
-                .execute(Tuple.of(id, kbTitleId, kbPackageId, type,
-                    agreementId, agreementLineId, poLineId, encumberedCost, invoicedCost,
-                    fiscalYearRange, subscriptionDateRange, coverageDateRanges, orderType,
-                    invoiceNumber, poLineNumber))
-                .mapEmpty();
+  /**
+   * Get titles of agreements resolved to kbTitleId.
+   *
+   * <p>An agreement entry is for the title kbTitleId or for all titles of package kbPackageId.
+   * Reports join title_entries with the result on kbTitleId.
+   * @param pool Postgres pool.
+   * @return SELECT statement with WHERE clause, so that more conditions can be added with AND.
+   */
+  static String agreementTitlesSql(TenantPgPool pool) {
+    return "SELECT DISTINCT agreementId, agreement_entries.id, kbPackageId, kbPackageName,"
+        + " t.kbTitleId"
+        + " FROM " + agreementEntriesTable(pool)
+        + " LEFT JOIN " + packageEntriesTable(pool) + " USING (kbPackageId)"
+        + " CROSS JOIN LATERAL"
+        + " (VALUES (agreement_entries.kbTitleId), (package_entries.kbTitleId)) AS t(kbTitleId)"
+        + " WHERE t.kbTitleId IS NOT NULL";
+  }
+
+  /**
+   * Update agreement_titles for agreement of plan.
+   *
+   * <p>Agreements that share packages with the plan are updated as well, because the
+   * package content has just been written again. All of them get a new data version and
+   * are added to the changed agreements of the plan.
+   * @param pool Postgres pool.
+   * @param con connection with transaction.
+   * @param plan agreement plan that has been written.
+   * @return future result.
+   */
+  static Future<Void> writeAgreementTitles(TenantPgPool pool, SqlConnection con,
+      AgreementPlan plan) {
+
+    Tuple tuple = Tuple.of(plan.agreementId,
+        plan.packageContent.keySet().stream().sorted().toArray(UUID[]::new));
+    String where = "(agreementId = $1 OR kbPackageId = ANY($2))";
+    // rows are locked in a fixed order before they are deleted, so that agreements that
+    // share packages do not deadlock when populated at the same time
+    return con.preparedQuery("DELETE FROM " + agreementTitlesTable(pool)
+            + " WHERE ctid = ANY(ARRAY(SELECT ctid FROM " + agreementTitlesTable(pool)
+            + " WHERE " + where + " ORDER BY agreementId, kbPackageId, kbTitleId,"
+            + " agreementEntryId FOR UPDATE))")
+        .execute(tuple)
+        .compose(x -> con.preparedQuery("INSERT INTO " + agreementTitlesTable(pool)
+                + AGREEMENT_TITLES_COLUMNS + agreementTitlesSql(pool) + " AND " + where)
+            .execute(tuple))
+        .compose(x -> con.preparedQuery(touchReportVersionsSql(pool,
+                "SELECT $1::uuid AS agreementId UNION SELECT agreementId FROM "
+                + agreementTitlesTable(pool) + " WHERE kbPackageId = ANY($2)"))
+            .execute(tuple))
+        .onSuccess(rowSet -> addAgreementIds(rowSet, plan.changedAgreements))
+        .mapEmpty();
+  }
+
+  /**
+   * Write agreement plan in one transaction.
+   * @param pool Postgres pool.
+   * @param plan agreement plan.
+   * @return future result.
+   */
+  static Future<Void> writeAgreementPlan(TenantPgPool pool, AgreementPlan plan) {
+    long t1 = System.nanoTime();
+    return pool.getConnection().compose(con -> con.begin()
+        .compose(tx -> clearAgreement(pool, con, plan.agreementId)
+            .compose(x -> writeTitleEntries(pool, con, plan))
+            .compose(x -> writePackageEntries(pool, con, plan))
+            .compose(x -> writeAgreementEntries(pool, con, plan))
+            .compose(x -> writeAgreementTitles(pool, con, plan))
+            .compose(x -> tx.commit()))
+        .eventually(x -> con.close()))
+        .onSuccess(x -> {
+          long t2 = System.nanoTime();
+          plan.statistics
+              .put("rowCount", plan.agreementEntries.size())
+              .put("writeMillis", (t2 - t1) / 1000000L);
+          log.info("Agreement {}: wrote {} rows in {} ms", plan.agreementId,
+              plan.agreementEntries.size(), (t2 - t1) / 1000000L);
+        });
   }
 
   Future<Integer> populateAgreement(Vertx vertx, RoutingContext ctx) {
@@ -1449,152 +1909,597 @@ public class EusageReportsApi implements RouterCreator, TenantInitHooks {
     }
     final UUID agreementId = UUID.fromString(agreementIdStr);
     TenantPgPool pool = TenantPgPool.pool(vertx, TenantUtil.tenant(ctx));
-    return pool.getConnection().compose(con -> con.begin()
-        .compose(tx ->
-            agreementExists(ctx, agreementId)
-                .compose(exists -> {
-                  if (!exists) {
-                    return Future.succeededFuture(null);
-                  }
-                  // expand agreement to get agreement lines, now that we know the ID is good.
-                  // the call below returns 500 with a stacktrace if agreement ID is no good.
-                  // example: /erm/entitlements?filters=owner%3D3b6623de-de39-4b43-abbc-998bed892025
-                  String uri = "/erm/entitlements?filters=owner%3D" + agreementId;
-                  return populateStatus(pool, agreementId, true)
-                      .compose(x -> clearAgreement(pool, con, agreementId))
-                      .compose(x -> ermFetch(ctx, uri))
-                      .compose(items -> {
-                        Future<Void> future = Future.succeededFuture();
-                        for (int i = 0; i < items.size(); i++) {
-                          JsonObject agreementLine = items.getJsonObject(i);
-                          future = future.compose(v ->
-                              populateAgreementLine(pool, con, agreementLine, agreementId, ctx));
-                        }
-                        return future.compose(x -> tx.commit()).map(items.size());
-                      })
-                      .eventually(x -> populateStatus(pool, agreementId, false));
-                })
-        )
-        .eventually(x -> con.close())
-    );
+    return populateAgreement(pool, agreementId, new LookupCache(), ctx);
   }
 
-  Future<Void> populateStatus(TenantPgPool pool, UUID agreementId, boolean active) {
-    log.info("populateStatus begin");
-    JsonObject status = new JsonObject()
-        .put("id", agreementId.toString())
-        .put("lastUpdated", LocalDateTime.now(ZoneOffset.UTC).toString())
-        .put("active", active);
-    return pool.execute("INSERT INTO " + statusTable(pool)
-            + "(id, status) VALUES($1, $2) ON CONFLICT(id) DO UPDATE SET status = $2",
-        Tuple.of(agreementId, status)).mapEmpty();
+  /**
+   * Populate agreement.
+   *
+   * <p>A request for an agreement that is already being populated by this module instance
+   * gets the result of the population in progress.
+   * @param pool Postgres pool.
+   * @param agreementId agreement identifier.
+   * @param cache lookups shared with other agreements.
+   * @param ctx routing context.
+   * @return number of agreement lines; null if agreement is not found.
+   */
+  Future<Integer> populateAgreement(TenantPgPool pool, UUID agreementId, LookupCache cache,
+      RoutingContext ctx) {
+    String key = pool.getSchema() + "/" + agreementId;
+    Promise<Integer> promise = Promise.promise();
+    Future<Integer> running = populating.putIfAbsent(key, promise.future());
+    if (running != null) {
+      log.info("Agreement {} is already being populated", agreementId);
+      return running;
+    }
+    populateAgreementData(pool, agreementId, cache, ctx).onComplete(res -> {
+      populating.remove(key);
+      // also when another module instance populated it
+      reportCache.invalidate(pool.getSchema(), List.of(agreementId));
+      promise.handle(res);
+    });
+    return promise.future();
   }
 
-  Future<Void> postFromAgreement(Vertx vertx, RoutingContext ctx) {
-    return populateAgreement(vertx, ctx)
-        .compose(linesCreated -> {
-          if (linesCreated == null) {
-            failHandler(404, ctx, "Not found");
-            return Future.succeededFuture();
-          }
-          ctx.response().setStatusCode(200);
-          ctx.response().putHeader("Content-Type", "application/json");
-          ctx.response().end(new JsonObject().put("reportLinesCreated", linesCreated).encode());
-          return Future.succeededFuture();
-        });
+  /**
+   * Claim agreement for population by marking its status active.
+   *
+   * <p>The status is read and written while holding a transaction level advisory lock for
+   * the agreement, so only one module instance can claim it. An active status that has not
+   * been updated for POPULATE_LEASE_MINUTES is left over from an instance that stopped
+   * and can be claimed.
+   * @param pool Postgres pool.
+   * @param agreementId agreement identifier.
+   * @return null if claimed; status of the population in progress otherwise.
+   */
+  static Future<JsonObject> claimAgreement(TenantPgPool pool, UUID agreementId) {
+    return pool.getConnection().compose(con -> con.begin()
+        .compose(tx -> con.preparedQuery("SELECT pg_advisory_xact_lock(hashtext($1),"
+                + " hashtext($2))::text")
+            .execute(Tuple.of(pool.getSchema(), agreementId.toString()))
+            .compose(x -> con.preparedQuery("SELECT status FROM " + statusTable(pool)
+                + " WHERE id = $1").execute(Tuple.of(agreementId)))
+            .compose(rowSet -> {
+              RowIterator<Row> iterator = rowSet.iterator();
+              JsonObject status = iterator.hasNext()
+                  ? iterator.next().getJsonObject("status") : null;
+              if (isActive(status)) {
+                return Future.succeededFuture(status);
+              }
+              if (status != null && status.getBoolean("active", false)) {
+                log.warn("Agreement {} has stale active status", agreementId);
+              }
+              return con.preparedQuery(upsertStatusSql(pool))
+                  .execute(Tuple.of(agreementId, statusRecord(agreementId, true, new JsonObject())))
+                  .map(x -> (JsonObject) null);
+            })
+            .compose(other -> tx.commit().map(other)))
+        .eventually(x -> con.close()));
   }
 
-  Boolean getJournalFromFormat(RoutingContext ctx, String def) {
-    String format = ctx.request().params().get("format");
-    if (format == null) {
-      format = def;
-    }
-    switch (format) {
-      case "JOURNAL":
-        return Boolean.TRUE;
-      case "BOOK":
-        return Boolean.FALSE;
-      case "ALL":
-        return null;
-      default:
-        throw new IllegalArgumentException("format = " + format);
-    }
+  static boolean isActive(JsonObject status) {
+    return status != null && status.getBoolean("active", false)
+        && LocalDateTime.parse(status.getString("lastUpdated"))
+        .isAfter(LocalDateTime.now(ZoneOffset.UTC).minusMinutes(POPULATE_LEASE_MINUTES));
   }
 
-  Future<Void> getUseOverTime(Vertx vertx, RoutingContext ctx) {
-    TenantPgPool pool = TenantPgPool.pool(vertx, TenantUtil.tenant(ctx));
-    Boolean isJournal = getJournalFromFormat(ctx, "ALL");
-    boolean csv = "true".equalsIgnoreCase(ctx.request().params().get("csv"));
-    boolean full = !"false".equalsIgnoreCase(ctx.request().params().get("full"));
-    String agreementId = ctx.request().params().get("agreementId");
-    String accessCountPeriod = ctx.request().params().get("accessCountPeriod");
-    String start = ctx.request().params().get("startDate");
-    String end = ctx.request().params().get("endDate");
-    boolean includeOA = "true".equalsIgnoreCase(ctx.request().params().get("includeOA"));
-
-    return getUseOverTime(pool, isJournal, includeOA, agreementId, accessCountPeriod,
-        start, end, csv, full)
-        .map(res -> {
-          ctx.response().setStatusCode(200);
-          ctx.response().putHeader("Content-Type", csv ? "text/csv" : "application/json");
-          ctx.response().end(res);
-          return null;
-        });
+  /**
+   * Wait until population of agreement by another module instance is no longer active.
+   * @param vertx Vert.x handle.
+   * @param pool Postgres pool.
+   * @param agreementId agreement identifier.
+   * @return status after population; failed if still active after POPULATE_WAIT_MILLIS.
+   */
+  static Future<JsonObject> waitForAgreement(Vertx vertx, TenantPgPool pool, UUID agreementId) {
+    return waitForAgreement(vertx, pool, agreementId,
+        System.nanoTime() + POPULATE_WAIT_MILLIS * 1000000L);
   }
 
-  Future<String> getUseOverTime(TenantPgPool pool, Boolean isJournal, boolean includeOA,
-      String agreementId, String accessCountPeriod, String start, String end, boolean csv,
-      boolean full) {
+  /**
+   * Wait until population of agreement by another module instance is no longer active.
+   * @param vertx Vert.x handle.
+   * @param pool Postgres pool.
+   * @param agreementId agreement identifier.
+   * @param deadline System.nanoTime() value when waiting fails.
+   * @return status after population; failed if still active at deadline.
+   */
+  static Future<JsonObject> waitForAgreement(Vertx vertx, TenantPgPool pool, UUID agreementId,
+      long deadline) {
 
-    return getUseOverTime(pool, isJournal, includeOA, agreementId,
-        accessCountPeriod, start, end)
-        .map(json -> {
-          if (!full) {
-            json.remove("items");
+    Promise<Void> promise = Promise.promise();
+    vertx.setTimer(POPULATE_POLL_MILLIS, x -> promise.complete());
+    return promise.future()
+        .compose(x -> getStatus(pool, agreementId))
+        .compose(status -> {
+          if (!isActive(status)) {
+            return Future.succeededFuture(status);
           }
-          if (!csv) {
-            return json.encodePrettily();
+          if (System.nanoTime() - deadline >= 0) {
+            return Future.failedFuture("Timed out waiting for population of agreement "
+                + agreementId + " by another instance");
           }
-          return CsvReports.getUseOverTime2Csv(json, false, false);
+          return waitForAgreement(vertx, pool, agreementId, deadline);
         });
   }
 
-  Future<JsonObject> getUseOverTime(TenantPgPool pool, Boolean isJournal, boolean includeOA,
-      String agreementId, String accessCountPeriod, String start, String end) {
-
-    Periods periods = new Periods(start, end, accessCountPeriod);
-    long t1 = System.nanoTime();
-    return getTitles(pool, isJournal, includeOA, agreementId, periods,
-        "title, publicationDate, openAccess")
-        .map(rowSet -> {
-          long t2 = System.nanoTime();
-          JsonObject res = UseOverTime.titlesToJsonObject(rowSet, agreementId, periods);
-          long t3 = System.nanoTime();
-          res.put("execution", new JsonObject()
-              .put("getTitles", t2 - t1)
-              .put("parseTitles", t3 - t2)
-          );
-          return res;
-        });
-  }
+  /**
+   * Fetch agreement data and write it.
+   *
+   * <p>All data is first fetched from other modules into an {@link AgreementPlan} without
+   * holding a database connection. The plan is then written in one short transaction.
+   * @param pool Postgres pool.
+   * @param agreementId agreement identifier.
+   * @param cache lookups shared with other agreements.
+   * @param ctx routing context.
+   * @return number of agreement lines; null if agreement is not found.
+   */
+  Future<Integer> populateAgreementData(TenantPgPool pool, UUID agreementId, LookupCache cache,
+      RoutingContext ctx) {
+    return agreementExists(ctx, agreementId)
+        .compose(exists -> {
+          if (!exists) {
+            return Future.succeededFuture(null);
+          }
+          return claimAgreement(pool, agreementId).compose(other -> {
+            if (other == null) {
+              return populateClaimedAgreement(pool, agreementId, cache, ctx);
+            }
+            log.info("Agreement {} is being populated elsewhere; waiting", agreementId);
+            return waitForAgreement(ctx.vertx(), pool, agreementId).compose(status -> {
+              if (status != null && status.containsKey("agreementLines")
+                  && !status.getString("lastUpdated").equals(other.getString("lastUpdated"))) {
+                return Future.succeededFuture(status.getInteger("agreementLines"));
+              }
+              // the other population failed; try again
+              return populateAgreementData(pool, agreementId, cache, ctx);
+            });
+          });
+        });
+  }
 
-  Future<String> getReqsByDateOfUse(TenantPgPool pool, Boolean isJournal, boolean includeOA,
-      String agreementId, String accessCountPeriod,
-      String start, String end, String yopInterval, boolean csv, boolean full) {
+  Future<Integer> populateClaimedAgreement(TenantPgPool pool, UUID agreementId,
+      LookupCache cache, RoutingContext ctx) {
+    // expand agreement to get agreement lines, now that we know the ID is good.
+    // the call below returns 500 with a stacktrace if agreement ID is no good.
+    // example: /erm/entitlements?filters=owner%3D3b6623de-de39-4b43-abbc-998bed892025
+    String uri = "/erm/entitlements?filters=owner%3D" + agreementId;
+    AgreementPlan plan = new AgreementPlan(agreementId, cache);
+    long t1 = System.nanoTime();
+    // renew the lease of the claim while populating, so no other instance takes it over
+    long renewTimer = ctx.vertx().setPeriodic(POPULATE_RENEW_MILLIS, id ->
+        renewPopulateStatus(pool, agreementId)
+            .onFailure(e -> log.warn("Renewing status of agreement {} failed: {}",
+                agreementId, e.getMessage())));
+    return ermFetch(ctx, uri, items -> {
+      Future<Void> future = Future.succeededFuture();
+      for (int i = 0; i < items.size(); i++) {
+        JsonObject agreementLine = items.getJsonObject(i);
+        future = future.compose(v -> populateAgreementLine(pool, plan, agreementLine, ctx));
+      }
+      plan.agreementLines += items.size();
+      return future;
+    })
+        .compose(x -> {
+          plan.statistics.put("fetchMillis", (System.nanoTime() - t1) / 1000000L);
+          return writeAgreementPlan(pool, plan)
+              // agreements that share packages with this one may have changed as well
+              .onSuccess(y -> reportCache.invalidate(pool.getSchema(), plan.changedAgreements));
+        })
+        .map(x -> {
+          plan.statistics.put("agreementLines", plan.agreementLines);
+          return plan.agreementLines;
+        })
+        .eventually(x -> {
+          ctx.vertx().cancelTimer(renewTimer);
+          return populateStatus(pool, agreementId, false, plan.statistics);
+        });
+  }
 
-    return getReqsByDateOfUse(pool, isJournal, includeOA, agreementId,
-        accessCountPeriod, start, end, yopInterval)
-        .map(json -> {
-          if (!full) {
-            json.remove("items");
+  /**
+   * Populate all agreements that have a status record.
+   *
+   * <p>Up to refreshConcurrency agreements are populated at the same time, sharing
+   * lookups of packages, titles and fiscal years. A failure for one agreement is logged
+   * and does not stop the others.
+   * @param vertx Vert.x handle.
+   * @param ctx routing context.
+   * @return counts of agreements and report lines created.
+   */
+  Future<JsonObject> populateAgreements(Vertx vertx, RoutingContext ctx) {
+    TenantPgPool pool = TenantPgPool.pool(vertx, TenantUtil.tenant(ctx));
+    LookupCache cache = new LookupCache();
+    JsonObject result = new JsonObject()
+        .put("agreements", 0)
+        .put("agreementsNotFound", 0)
+        .put("agreementsFailed", 0)
+        .put("reportLinesCreated", 0);
+    return pool.execute("SELECT id FROM " + statusTable(pool) + " ORDER BY id")
+        .compose(rowSet -> {
+          Deque<UUID> agreementIds = new ArrayDeque<>();
+          rowSet.forEach(row -> agreementIds.add(row.getUUID("id")));
+          log.info("Populating {} agreements", agreementIds.size());
+          List<Future<Void>> futures = new ArrayList<>();
+          for (int i = 0; i < refreshConcurrency; i++) {
+            futures.add(populateAgreements(pool, agreementIds, cache, result, ctx));
           }
-          if (!csv) {
-            return json.encodePrettily();
+          return GenericCompositeFuture.all(futures);
+        })
+        .map(result);
+  }
+
+  private Future<Void> populateAgreements(TenantPgPool pool, Deque<UUID> agreementIds,
+      LookupCache cache, JsonObject result, RoutingContext ctx) {
+    UUID agreementId = agreementIds.poll();
+    if (agreementId == null) {
+      return Future.succeededFuture();
+    }
+    return populateAgreement(pool, agreementId, cache, ctx)
+        .transform(ar -> {
+          if (ar.failed()) {
+            log.warn("Populating agreement {} failed: {}", agreementId,
+                ar.cause().getMessage(), ar.cause());
+            increment(result, "agreementsFailed", 1);
+          } else if (ar.result() == null) {
+            increment(result, "agreementsNotFound", 1);
+          } else {
+            increment(result, "agreements", 1);
+            increment(result, "reportLinesCreated", ar.result());
           }
-          return CsvReports.getUseOverTime2Csv(json, true, false);
+          return populateAgreements(pool, agreementIds, cache, result, ctx);
         });
   }
 
+  private static void increment(JsonObject result, String key, int n) {
+    result.put(key, result.getInteger(key) + n);
+  }
+
+  Future<Void> populateStatus(TenantPgPool pool, UUID agreementId, boolean active,
+      JsonObject statistics) {
+    log.info("populateStatus begin");
+    return pool.execute(upsertStatusSql(pool),
+        Tuple.of(agreementId, statusRecord(agreementId, active, statistics))).mapEmpty();
+  }
+
+  /**
+   * Update lastUpdated of active status, so that its lease does not expire.
+   *
+   * <p>Status that is no longer active is left alone, so a renewal that comes after the
+   * population has ended does not make it active again.
+   * @param pool Postgres pool.
+   * @param agreementId agreement identifier.
+   * @return future result.
+   */
+  static Future<Void> renewPopulateStatus(TenantPgPool pool, UUID agreementId) {
+    return pool.execute("UPDATE " + statusTable(pool) + " SET status = $2"
+            + " WHERE id = $1 AND (status->>'active')::boolean",
+        Tuple.of(agreementId, statusRecord(agreementId, true, new JsonObject()))).mapEmpty();
+  }
+
+  static String upsertStatusSql(TenantPgPool pool) {
+    return "INSERT INTO " + statusTable(pool)
+        + "(id, status) VALUES($1, $2) ON CONFLICT(id) DO UPDATE SET status = $2";
+  }
+
+  static JsonObject statusRecord(UUID agreementId, boolean active, JsonObject statistics) {
+    return statistics.copy()
+        .put("id", agreementId.toString())
+        .put("lastUpdated", LocalDateTime.now(ZoneOffset.UTC).toString())
+        .put("active", active);
+  }
+
+  Future<Void> postFromAgreement(Vertx vertx, RoutingContext ctx) {
+    return populateAgreement(vertx, ctx)
+        .compose(linesCreated -> {
+          if (linesCreated == null) {
+            failHandler(404, ctx, "Not found");
+            return Future.succeededFuture();
+          }
+          ctx.response().setStatusCode(200);
+          ctx.response().putHeader("Content-Type", "application/json");
+          ctx.response().end(new JsonObject().put("reportLinesCreated", linesCreated).encode());
+          return Future.succeededFuture();
+        });
+  }
+
+  Future<Void> postFromAgreements(Vertx vertx, RoutingContext ctx) {
+    return populateAgreements(vertx, ctx)
+        .compose(result -> {
+          ctx.response().setStatusCode(200);
+          ctx.response().putHeader("Content-Type", "application/json");
+          ctx.response().end(result.encode());
+          return Future.succeededFuture();
+        });
+  }
+
+  Boolean getJournalFromFormat(RoutingContext ctx, String def) {
+    String format = ctx.request().params().get("format");
+    if (format == null) {
+      format = def;
+    }
+    switch (format) {
+      case "JOURNAL":
+        return Boolean.TRUE;
+      case "BOOK":
+        return Boolean.FALSE;
+      case "ALL":
+        return null;
+      default:
+        throw new IllegalArgumentException("format = " + format);
+    }
+  }
+
+  /**
+   * Get data version of agreement.
+   *
+   * <p>For several agreements this is the latest version of them; versions are taken from
+   * one sequence, so it changes whenever one of the agreements changes.
+   * @param pool Postgres pool.
+   * @param agreementId agreement identifier, or comma separated identifiers.
+   * @return row with version and lastModified; null if there is no version for agreement.
+   */
+  static Future<Row> getReportVersion(TenantPgPool pool, String agreementId) {
+    if (agreementId == null) {
+      return Future.succeededFuture(null);
+    }
+    Object agreements = agreementsParam(agreementId);
+    String sql = agreements instanceof UUID[]
+        ? "SELECT max(version) AS version, max(lastModified) AS lastModified"
+        : "SELECT version, lastModified";
+    return pool.preparedQuery(sql + " FROM " + reportVersionsTable(pool)
+            + agreementsWhere("agreementId", agreements))
+        .execute(Tuple.of(agreements))
+        .map(rowSet -> {
+          RowIterator<Row> iterator = rowSet.iterator();
+          Row row = iterator.hasNext() ? iterator.next() : null;
+          return row == null || row.getValue("version") == null ? null : row;
+        });
+  }
+
+  /**
+   * Check whether If-None-Match header value matches entity tag, using weak comparison.
+   * @param ifNoneMatch header value: * or comma separated entity tags; null if missing.
+   * @param etag entity tag.
+   * @return true if matched.
+   */
+  static boolean matchesEtag(String ifNoneMatch, String etag) {
+    if (ifNoneMatch == null) {
+      return false;
+    }
+    String opaqueTag = etag.startsWith("W/") ? etag.substring(2) : etag;
+    for (String tag : ifNoneMatch.split(",")) {
+      tag = tag.trim();
+      if ("*".equals(tag) || opaqueTag.equals(tag.startsWith("W/") ? tag.substring(2) : tag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Send stored report.
+   *
+   * <p>ETag and Last-Modified are given by the data version of the agreement, which is
+   * updated whenever the agreement or usage of its titles is written. If the request has
+   * If-None-Match with the current ETag, status 304 is returned without making the report.
+   * The caller checks the report parameters first, so that invalid ones are not answered
+   * with 304.
+   *
+   * <p>JSON is written in chunks with {@link JsonReportWriter}, and CSV with
+   * {@link CsvReportWriter}.
+   * @param ctx routing context.
+   * @param pool Postgres pool.
+   * @param agreementId agreement identifier.
+   * @param key report name and parameters for the report cache; not the page of items, so
+   *     that all pages share the cached report.
+   * @param report makes the report from rows.
+   * @param page items to return.
+   * @param full whether to include items.
+   * @param csv writes report as CSV; null for JSON.
+   * @return future result.
+   */
+  Future<Void> sendReport(RoutingContext ctx, TenantPgPool pool, String agreementId,
+      List<Object> key, Supplier<Future<Function<ItemPage, JsonObject>>> report, ItemPage page,
+      boolean full, BiFunction<WriteStream<Buffer>, JsonObject, Future<Void>> csv) {
+
+    // the parameters of the report and of its representation
+    List<Object> variant = new ArrayList<>(key);
+    variant.add(page);
+    variant.add(full);
+    variant.add(csv != null);
+    return getReportVersion(pool, agreementId).compose(version -> {
+      List<Object> versionKey = new ArrayList<>(key);
+      if (version != null) {
+        if (matchesEtag(ctx.request().getHeader("If-None-Match"), etag(version, variant))) {
+          ctx.response().setStatusCode(304);
+          putVersionHeaders(ctx, version, variant);
+          ctx.response().end();
+          return Future.succeededFuture();
+        }
+        versionKey.add(version.getLong("version"));
+      }
+      return reportJson(() -> reportCache.get(pool.getSchema(),
+              reportAgreementIds(agreementId), versionKey, report), page)
+          .compose(json -> {
+            ctx.response().setStatusCode(200);
+            // only a report that has been made gets the version headers
+            if (version != null) {
+              putVersionHeaders(ctx, version, variant);
+            }
+            ctx.response().putHeader("Content-Type", csv != null ? "text/csv" : "application/json");
+            ctx.response().setChunked(true);
+            JsonObject sent = full ? json : withoutItems(json);
+            Future<Void> written = csv != null
+                ? csv.apply(ctx.response(), sent)
+                : JsonReportWriter.write(ctx.response(), sent, full);
+            return written
+                // the response has been started, so it cannot be changed to an error
+                .recover(e -> {
+                  log.warn("Sending report failed: {}", e.getMessage());
+                  return Future.succeededFuture();
+                });
+          });
+    });
+  }
+
+  /**
+   * Weak ETag of report.
+   *
+   * <p>Reports of different parameters, formats and pages of the same agreements have
+   * different tags, so that caches that key on the tag alone do not mix them up.
+   * @param version data version of the agreements.
+   * @param variant parameters of the report and of its representation; their string form
+   *     must be the same for equal parameters.
+   * @return ETag value.
+   */
+  static String etag(Row version, List<Object> variant) {
+    return "W/\"" + version.getLong("version") + "-"
+        + Integer.toHexString(variant.toString().hashCode()) + "\"";
+  }
+
+  static void putVersionHeaders(RoutingContext ctx, Row version, List<Object> variant) {
+    ctx.response().putHeader("ETag", etag(version, variant));
+    ctx.response().putHeader("Last-Modified", DateTimeFormatter.RFC_1123_DATE_TIME.format(
+        version.getOffsetDateTime("lastmodified").atZoneSameInstant(ZoneOffset.UTC)));
+  }
+
+  /**
+   * Items of stored report to return.
+   * @param ctx routing context with offset, limit and sort parameters.
+   * @return page of items.
+   */
+  static ItemPage itemPage(RoutingContext ctx) {
+    return ItemPage.of(ctx.request().params().get("offset"),
+        ctx.request().params().get("limit"), ctx.request().params().get("sort"));
+  }
+
+  /**
+   * Report that includes timings of its execution.
+   * @param report makes JSON of a page of items of the report.
+   * @param getTitles nanoseconds spent reading the rows of the report.
+   * @return report that also times the conversion to JSON.
+   */
+  static Function<ItemPage, JsonObject> withExecution(Function<ItemPage, JsonObject> report,
+      long getTitles) {
+    return page -> {
+      long t1 = System.nanoTime();
+      JsonObject json = report.apply(page);
+      return json.put("execution", new JsonObject()
+          .put("getTitles", getTitles)
+          .put("parseTitles", System.nanoTime() - t1));
+    };
+  }
+
+  /**
+   * Make JSON of a page of items of report on the report workers.
+   *
+   * <p>The report may be cached and converted for several requests at the same time, so
+   * converting it does not modify it.
+   * @param report report made from rows.
+   * @param page items to return.
+   * @return report.
+   */
+  Future<JsonObject> reportJson(Function<ItemPage, JsonObject> report, ItemPage page) {
+    long t1 = System.nanoTime();
+    return reportWorkers.execute(() -> {
+      long queued = System.nanoTime() - t1;
+      JsonObject json = report.apply(page);
+      JsonObject execution = json.getJsonObject("execution");
+      if (execution != null) {
+        execution.put("queued", queued);
+      }
+      return json;
+    });
+  }
+
+  /**
+   * Make report and JSON of a page of its items, if the report workers admit another report.
+   *
+   * <p>Admission is before the rows of the report are fetched, so an admitted report is not
+   * rejected part-way.
+   * @param report makes or gets cached report.
+   * @param page items to return.
+   * @return report; failed with status 503 if too many reports are being made.
+   */
+  Future<JsonObject> reportJson(Supplier<Future<Function<ItemPage, JsonObject>>> report,
+      ItemPage page) {
+
+    return reportWorkers.admit(() -> report.get().compose(made -> reportJson(made, page)));
+  }
+
+  /**
+   * Copy of report without items.
+   * @param json report; items are also removed from each report in agreements and from
+   *     each report of a dashboard.
+   * @return shallow copy without items.
+   */
+  static JsonObject withoutItems(JsonObject json) {
+    JsonObject res = new JsonObject();
+    json.forEach(e -> {
+      if ("agreements".equals(e.getKey()) && e.getValue() instanceof JsonArray) {
+        JsonArray agreements = new JsonArray();
+        ((JsonArray) e.getValue()).forEach(agreement ->
+            agreements.add(withoutItems((JsonObject) agreement)));
+        res.put(e.getKey(), agreements);
+      } else if (e.getValue() instanceof JsonObject
+          && ((JsonObject) e.getValue()).containsKey("items")) {
+        res.put(e.getKey(), withoutItems((JsonObject) e.getValue()));
+      } else if (!"items".equals(e.getKey())) {
+        res.put(e.getKey(), e.getValue());
+      }
+    });
+    return res;
+  }
+
+  Future<Void> getUseOverTime(Vertx vertx, RoutingContext ctx) {
+    TenantPgPool pool = TenantPgPool.pool(vertx, TenantUtil.tenant(ctx));
+    Boolean isJournal = getJournalFromFormat(ctx, "ALL");
+    boolean csv = "true".equalsIgnoreCase(ctx.request().params().get("csv"));
+    boolean full = !"false".equalsIgnoreCase(ctx.request().params().get("full"));
+    String agreementId = ctx.request().params().get("agreementId");
+    String accessCountPeriod = ctx.request().params().get("accessCountPeriod");
+    String start = ctx.request().params().get("startDate");
+    String end = ctx.request().params().get("endDate");
+    boolean includeOA = "true".equalsIgnoreCase(ctx.request().params().get("includeOA"));
+
+    ItemPage page = itemPage(ctx);
+    // parameters are checked before the ETag, so that invalid ones are not answered with 304
+    Periods periods = new Periods(start, end, accessCountPeriod);
+
+    List<Object> key = Arrays.asList("use-over-time", isJournal, includeOA, agreementId,
+        accessCountPeriod, start, end);
+    return sendReport(ctx, pool, agreementId, key, () -> useOverTimeReport(pool, isJournal,
+            includeOA, agreementId, periods), page, full,
+        csv ? (stream, json) -> CsvReports.writeUseOverTime2Csv(stream, json, false, false) : null);
+  }
+
+  Future<JsonObject> getUseOverTime(TenantPgPool pool, Boolean isJournal, boolean includeOA,
+      String agreementId, String accessCountPeriod, String start, String end) {
+
+    return getUseOverTime(pool, isJournal, includeOA, agreementId, accessCountPeriod,
+        start, end, ItemPage.ALL);
+  }
+
+  Future<JsonObject> getUseOverTime(TenantPgPool pool, Boolean isJournal, boolean includeOA,
+      String agreementId, String accessCountPeriod, String start, String end, ItemPage page) {
+
+    Periods periods = new Periods(start, end, accessCountPeriod);
+    return reportJson(() -> useOverTimeReport(pool, isJournal, includeOA, agreementId,
+        periods), page);
+  }
+
+  Future<Function<ItemPage, JsonObject>> useOverTimeReport(TenantPgPool pool,
+      Boolean isJournal, boolean includeOA, String agreementId, Periods periods) {
+
+    String orderBy = "title, publicationDate, openAccess";
+    Supplier<ReportAggregator> aggregator = () -> reportAggregator(agreementId, orderBy,
+        id -> new UseOverTime.Aggregator(id, periods));
+    long t1 = System.nanoTime();
+    return getTitles(pool, isJournal, includeOA, aggregateInSql, agreementId, periods,
+        orderBy, partitionedReports(orderBy, aggregator))
+        .compose(parts -> merged(parts, aggregator))
+        .map(report -> withExecution(report::toJson, System.nanoTime() - t1));
+  }
+
   Future<Void> getReqsByDateOfUse(Vertx vertx, RoutingContext ctx) {
     TenantPgPool pool = TenantPgPool.pool(vertx, TenantUtil.tenant(ctx));
     boolean csv = "true".equalsIgnoreCase(ctx.request().params().get("csv"));
@@ -1607,26 +2512,46 @@ public class EusageReportsApi implements RouterCreator, TenantInitHooks {
     String yopInterval = ctx.request().params().get("yopInterval");
     boolean includeOA = "true".equalsIgnoreCase(ctx.request().params().get("includeOA"));
 
-    return getReqsByDateOfUse(pool, isJournal, includeOA, agreementId,
-        accessCountPeriod, start, end, yopInterval, csv, full)
-        .map(res -> {
-          ctx.response().setStatusCode(200);
-          ctx.response().putHeader("Content-Type", csv ? "text/csv" : "application/json");
-          ctx.response().end(res);
-          return null;
-        });
+    ItemPage page = itemPage(ctx);
+    // parameters are checked before the ETag, so that invalid ones are not answered with 304
+    Periods usePeriods = new Periods(start, end, accessCountPeriod);
+    int pubPeriodInMonths = pubPeriodInMonths(yopInterval);
+
+    List<Object> key = Arrays.asList("reqs-by-date-of-use", isJournal, includeOA, agreementId,
+        accessCountPeriod, start, end, yopInterval);
+    return sendReport(ctx, pool, agreementId, key, () -> reqsByDateOfUseReport(pool, isJournal,
+            includeOA, agreementId, usePeriods, pubPeriodInMonths), page, full,
+        csv ? (stream, json) -> CsvReports.writeUseOverTime2Csv(stream, json, true, false) : null);
   }
 
   Future<JsonObject> getReqsByDateOfUse(TenantPgPool pool, Boolean isJournal, boolean includeOA,
       String agreementId, String accessCountPeriod, String start, String end, String yopInterval) {
 
+    return getReqsByDateOfUse(pool, isJournal, includeOA, agreementId, accessCountPeriod,
+        start, end, yopInterval, ItemPage.ALL);
+  }
+
+  Future<JsonObject> getReqsByDateOfUse(TenantPgPool pool, Boolean isJournal, boolean includeOA,
+      String agreementId, String accessCountPeriod, String start, String end, String yopInterval,
+      ItemPage page) {
+
     Periods usePeriods = new Periods(start, end, accessCountPeriod);
-    int pubPeriodsInMonths = yopInterval == null || "auto".equals(yopInterval)
-        ? 12 : Periods.getPeriodInMonths(yopInterval);
-    return getTitles(pool, isJournal, includeOA, agreementId, usePeriods,
-        "title, publicationDate, openAccess")
-        .map(rowSet -> ReqsByDateOfUse.titlesToJsonObject(rowSet, agreementId,
-            usePeriods, pubPeriodsInMonths));
+    int pubPeriodInMonths = pubPeriodInMonths(yopInterval);
+    return reportJson(() -> reqsByDateOfUseReport(pool, isJournal, includeOA, agreementId,
+        usePeriods, pubPeriodInMonths), page);
+  }
+
+  Future<Function<ItemPage, JsonObject>> reqsByDateOfUseReport(TenantPgPool pool,
+      Boolean isJournal, boolean includeOA, String agreementId, Periods usePeriods,
+      int pubPeriodInMonths) {
+
+    String orderBy = "title, publicationDate, openAccess";
+    Supplier<ReportAggregator> aggregator = () -> reportAggregator(agreementId, orderBy,
+        id -> new ReqsByDateOfUse.Aggregator(id, usePeriods, pubPeriodInMonths));
+    return getTitles(pool, isJournal, includeOA, aggregateInSql, agreementId, usePeriods,
+        orderBy, partitionedReports(orderBy, aggregator))
+        .compose(parts -> merged(parts, aggregator))
+        .map(report -> report::toJson);
   }
 
   Future<Void> getReqsByPubYear(Vertx vertx, RoutingContext ctx) {
@@ -1641,77 +2566,277 @@ public class EusageReportsApi implements RouterCreator, TenantInitHooks {
     String end = ctx.request().params().get("endDate");
     String periodOfUse = ctx.request().params().get("periodOfUse");
 
-    return getReqsByPubYear(pool, isJournal, includeOA, agreementId,
-        accessCountPeriod, start, end, periodOfUse, csv, full)
-        .map(res -> {
-          ctx.response().setStatusCode(200);
-          ctx.response().putHeader("Content-Type", csv ? "text/csv" : "application/json");
-          ctx.response().end(res);
-          return null;
-        });
+    ItemPage page = itemPage(ctx);
+    // parameters are checked before the ETag, so that invalid ones are not answered with 304
+    Periods usePeriods = new Periods(start, end, periodOfUse);
+    int pubPeriodInMonths = pubPeriodInMonths(accessCountPeriod);
+
+    List<Object> key = Arrays.asList("reqs-by-pub-year", isJournal, includeOA, agreementId,
+        accessCountPeriod, start, end, periodOfUse);
+    return sendReport(ctx, pool, agreementId, key, () -> reqsByPubYearReport(pool, isJournal,
+            includeOA, agreementId, usePeriods, pubPeriodInMonths), page, full,
+        csv ? (stream, json) -> CsvReports.writeUseOverTime2Csv(stream, json, false, true) : null);
   }
 
-  Future<String> getReqsByPubYear(TenantPgPool pool, Boolean isJournal, boolean includeOA,
-      String agreementId, String accessCountPeriod, String start, String end,
-      String periodOfUse, boolean csv, boolean full) {
+  Future<JsonObject> getReqsByPubYear(TenantPgPool pool, Boolean isJournal, boolean includeOA,
+      String agreementId, String accessCountPeriod, String start, String end, String periodOfUse) {
 
-    return getReqsByPubYear(pool, isJournal, includeOA, agreementId,
-        accessCountPeriod, start, end, periodOfUse)
-        .map(json -> {
-          if (!full) {
-            json.remove("items");
-          }
-          if (!csv) {
-            return json.encodePrettily();
-          }
-          return CsvReports.getUseOverTime2Csv(json, false, true);
-        });
+    return getReqsByPubYear(pool, isJournal, includeOA, agreementId, accessCountPeriod,
+        start, end, periodOfUse, ItemPage.ALL);
   }
 
   Future<JsonObject> getReqsByPubYear(TenantPgPool pool, Boolean isJournal, boolean includeOA,
-      String agreementId, String accessCountPeriod, String start, String end, String periodOfUse) {
+      String agreementId, String accessCountPeriod, String start, String end, String periodOfUse,
+      ItemPage page) {
 
     Periods usePeriods = new Periods(start, end, periodOfUse);
-    int pubPeriodsInMonths = accessCountPeriod == null || "auto".equals(accessCountPeriod)
-        ? 12 : Periods.getPeriodInMonths(accessCountPeriod);
+    int pubPeriodInMonths = pubPeriodInMonths(accessCountPeriod);
+    return reportJson(() -> reqsByPubYearReport(pool, isJournal, includeOA, agreementId,
+        usePeriods, pubPeriodInMonths), page);
+  }
 
-    return getTitles(pool, isJournal, includeOA, agreementId, usePeriods,
-        "title, usageDateRange, openAccess")
-        .map(rowSet -> ReqsByPubYear.titlesToJsonObject(rowSet, agreementId,
-            usePeriods, pubPeriodsInMonths));
+  Future<Function<ItemPage, JsonObject>> reqsByPubYearReport(TenantPgPool pool,
+      Boolean isJournal, boolean includeOA, String agreementId, Periods usePeriods,
+      int pubPeriodInMonths) {
+
+    String orderBy = "title, usageDateRange, openAccess";
+    Supplier<ReportAggregator> aggregator = () -> reportAggregator(agreementId, orderBy,
+        id -> new ReqsByPubYear.Aggregator(id, usePeriods, pubPeriodInMonths));
+    return getTitles(pool, isJournal, includeOA, aggregateInSql, agreementId, usePeriods,
+        orderBy, partitionedReports(orderBy, aggregator))
+        .compose(parts -> merged(parts, aggregator))
+        .map(report -> report::toJson);
   }
 
-  static Future<RowSet<Row>> getTitles(TenantPgPool pool, Boolean isJournal, boolean includeOA,
-      String agreementId, Periods usePeriods, String orderBy) {
+  /**
+   * Get titles of agreement with their usage.
+   *
+   * <p>Usage is read from title_data_months, which is kept up to date when usage is
+   * ingested. Without aggregation there is one row for each title_data_months row, so
+   * usageDateRange is a month. With aggregation the usage is summed in the database and
+   * there is one row for each title, publication date, access type and period of
+   * usePeriods; usageDateRange is then the range of the period.
+   * usageStart is the first day of usageDateRange, so reports need not parse the range.
+   * The reports sum usage by period, so they give the same result for both.
+   *
+   * <p>For several agreements, rows have agreementId as last column.
+   *
+   * <p>Rows may have duplicates; the partitions must remove them, see
+   * {@link #partitionedReports}.
+   * @param pool Postgres pool.
+   * @param isJournal true: journals only; false: books only; null: all.
+   * @param includeOA whether to include open access usage.
+   * @param aggregate whether to sum usage by period in the database.
+   * @param agreementId agreement identifier, or comma separated identifiers.
+   * @param usePeriods usage periods.
+   * @param orderBy ORDER BY clause.
+   * @param rows partitions that rows are passed to as they are fetched.
+   * @param <P> partial report of a partition.
+   * @return partial reports when all rows are handled.
+   */
+  static <P> Future<List<P>> getTitles(TenantPgPool pool, Boolean isJournal,
+      boolean includeOA, boolean aggregate, String agreementId, Periods usePeriods,
+      String orderBy, PartitionedRows<P> rows) {
 
-    String sql = "SELECT title_entries.kbTitleId AS kbId, kbTitleName AS title,"
+    Object agreements = agreementsParam(agreementId);
+    String agreementColumn = agreements instanceof UUID[] ? ", agreementId" : "";
+    String usageSql = "SELECT title_entries.kbTitleId AS kbId, kbTitleName AS title,"
         + " kbPackageId, kbPackageName, printISSN, onlineISSN, ISBN,"
-        + " NULL AS publicationDate, NULL AS usageDateRange,"
-        + " NULL AS uniqueAccessCount, NULL AS totalAccessCount, TRUE AS openAccess"
-        + " FROM " + agreementEntriesTable(pool)
-        + " LEFT JOIN " + packageEntriesTable(pool) + " USING (kbPackageId)"
-        + " JOIN " + titleEntriesTable(pool) + " ON"
-        + " title_entries.kbTitleId = agreement_entries.kbTitleId OR"
-        + " title_entries.kbTitleId = package_entries.kbTitleId"
-        + " WHERE agreementId = $1"
+        + " publicationDate, " + USAGE_MONTH_RANGE + " AS usageDateRange,"
+        + " usageMonth AS usageStart, uniqueAccessCount, totalAccessCount, openAccess"
+        + agreementColumn
+        + " FROM " + agreementTitlesTable(pool)
+        + " JOIN " + titleEntriesTable(pool)
+        + " ON title_entries.kbTitleId = agreement_titles.kbTitleId"
+        + " JOIN " + titleDataMonthsTable(pool) + " ON titleEntryId = title_entries.id"
+        + agreementsWhere("agreementId", agreements)
         + limitJournal(isJournal)
-        + " UNION "
-        + "SELECT title_entries.kbTitleId AS kbId, kbTitleName AS title,"
+        + "   AND usageMonth >= $2 AND usageMonth < $3"
+        +  (includeOA ? "" : " AND NOT openAccess");
+    Tuple tuple = Tuple.of(agreements, usePeriods.startDate, usePeriods.endDate);
+    if (aggregate) {
+      // DISTINCT: same duplicate removal as DistinctRows does for rows that are not summed
+      String periodStart = pool.getSchema() + ".floor_months(usageStart, $4)";
+      usageSql = "SELECT kbId, title, kbPackageId, kbPackageName, printISSN, onlineISSN, ISBN,"
+          + " publicationDate,"
+          + " daterange(" + periodStart + ", (" + periodStart
+          + " + make_interval(months => $4))::date) AS usageDateRange,"
+          + " " + periodStart + " AS usageStart,"
+          + " sum(uniqueAccessCount) AS uniqueAccessCount,"
+          + " sum(totalAccessCount) AS totalAccessCount, openAccess" + agreementColumn
+          + " FROM (" + usageSql.replaceFirst("SELECT", "SELECT DISTINCT") + ") AS u"
+          + " GROUP BY kbId, title, kbPackageId, kbPackageName, printISSN, onlineISSN, ISBN,"
+          + " publicationDate, openAccess, " + periodStart + agreementColumn;
+      tuple.addInteger(usePeriods.getMonths());
+    }
+    String sql = "SELECT title_entries.kbTitleId AS kbId, kbTitleName AS title,"
         + " kbPackageId, kbPackageName, printISSN, onlineISSN, ISBN,"
-        + " publicationDate, usageDateRange, uniqueAccessCount, totalAccessCount, openAccess"
-        + " FROM " + agreementEntriesTable(pool)
-        + " LEFT JOIN " + packageEntriesTable(pool) + " USING (kbPackageId)"
-        + " JOIN " + titleEntriesTable(pool) + " ON"
-        + " title_entries.kbTitleId = agreement_entries.kbTitleId OR"
-        + " title_entries.kbTitleId = package_entries.kbTitleId"
-        + " JOIN " + titleDataTable(pool) + " ON titleEntryId = title_entries.id"
-        + " WHERE agreementId = $1"
+        + " NULL AS publicationDate, NULL AS usageDateRange, NULL AS usageStart,"
+        + " NULL AS uniqueAccessCount, NULL AS totalAccessCount, TRUE AS openAccess"
+        + agreementColumn
+        + " FROM " + agreementTitlesTable(pool)
+        + " JOIN " + titleEntriesTable(pool)
+        + " ON title_entries.kbTitleId = agreement_titles.kbTitleId"
+        + agreementsWhere("agreementId", agreements)
         + limitJournal(isJournal)
-        + "   AND daterange($2, $3) @> lower(usageDateRange)"
-        +  (includeOA ? "" : " AND NOT openAccess")
+        + " UNION ALL "
+        + usageSql
         + " ORDER BY " + orderBy;
 
-    return pool.execute(sql, Tuple.of(agreementId, usePeriods.startDate, usePeriods.endDate));
+    // duplicates are removed while streaming rather than by a UNION over all rows
+    return streamPartitioned(pool, sql, tuple, rows);
+  }
+
+  /**
+   * Rows partitioned by title, each partition added to its own partial report with
+   * duplicates removed by a {@link DistinctRows} of the partition.
+   * @param orderBy ORDER BY clause of query.
+   * @param aggregator makes empty report.
+   * @return partitions for the report workers.
+   */
+  PartitionedRows<ReportAggregator> partitionedReports(String orderBy,
+      Supplier<ReportAggregator> aggregator) {
+
+    return new PartitionedRows<>(reportWorkers, reportWorkers.partitions(), aggregator,
+        (partial, seq) -> new DistinctRows(orderBy, row -> partial.add(row, seq.getAsLong())));
+  }
+
+  /**
+   * Merge partial reports on the report workers.
+   * @param parts partial report of each partition.
+   * @param aggregator makes empty report of the same kind.
+   * @return report of all rows.
+   */
+  Future<ReportAggregator> merged(List<ReportAggregator> parts,
+      Supplier<ReportAggregator> aggregator) {
+
+    return reportWorkers.execute(() -> ReportAggregator.merged(parts, aggregator));
+  }
+
+  /**
+   * Pass rows of query to handler as they are fetched with a cursor.
+   *
+   * <p>Only {@link #REPORT_FETCH_SIZE} rows are held in memory at a time. A handler that
+   * throws stops the query and fails the returned future.
+   * @param pool Postgres pool.
+   * @param sql query.
+   * @param tuple query parameters.
+   * @param handler called for each row.
+   * @return future that completes when all rows are handled.
+   */
+  static Future<Void> streamRows(TenantPgPool pool, String sql, Tuple tuple,
+      Consumer<Row> handler) {
+
+    return streamRows(pool, sql, tuple, handler, stream -> { });
+  }
+
+  private static Future<Void> streamRows(TenantPgPool pool, String sql, Tuple tuple,
+      Consumer<Row> handler, Consumer<ReadStream<Row>> onStream) {
+
+    return pool.getConnection()
+        .compose(sqlConnection -> sqlConnection.begin()
+            .compose(tx -> sqlConnection.prepare(sql)
+                .compose(pq -> {
+                  Promise<Void> promise = Promise.promise();
+                  RowStream<Row> stream = pq.createStream(REPORT_FETCH_SIZE, tuple);
+                  stream.exceptionHandler(promise::tryFail);
+                  stream.endHandler(end -> promise.tryComplete());
+                  stream.handler(row -> {
+                    try {
+                      handler.accept(row);
+                    } catch (Exception e) {
+                      stream.close();
+                      promise.tryFail(e);
+                    }
+                  });
+                  onStream.accept(stream);
+                  return promise.future();
+                })
+                // nothing is written; the transaction only keeps the cursor open
+                .eventually(x -> tx.rollback().otherwiseEmpty()))
+            .eventually(x -> sqlConnection.close()));
+  }
+
+  /**
+   * Pass rows of query to partitions as they are fetched with a cursor.
+   *
+   * <p>Fetching is paused while the partitions have too many rows waiting for a worker.
+   * @param pool Postgres pool.
+   * @param sql query.
+   * @param tuple query parameters.
+   * @param rows partitions of the rows.
+   * @param <P> partial report of a partition.
+   * @return partial reports when all rows are handled.
+   */
+  static <P> Future<List<P>> streamPartitioned(TenantPgPool pool, String sql, Tuple tuple,
+      PartitionedRows<P> rows) {
+
+    return streamRows(pool, sql, tuple, rows, rows::flowControl)
+        .compose(x -> rows.end());
+  }
+
+  /** usageDateRange of title_data_months row. */
+  static final String USAGE_MONTH_RANGE =
+      "daterange(usageMonth, (usageMonth + interval '1 month')::date)";
+
+  /**
+   * Parse agreementId parameter of stored reports.
+   * @param agreementId agreement identifier, or comma separated identifiers.
+   * @return distinct identifiers in the order given; null if there is no comma.
+   * @throws IllegalArgumentException if an identifier is not a UUID.
+   */
+  static List<UUID> agreementIds(String agreementId) {
+    if (agreementId == null || !agreementId.contains(",")) {
+      return null;
+    }
+    Set<UUID> ids = new LinkedHashSet<>();
+    for (String id : agreementId.split(",")) {
+      ids.add(UUID.fromString(id.trim()));
+    }
+    return new ArrayList<>(ids);
+  }
+
+  /**
+   * Agreements of stored report.
+   * @param agreementId agreement identifier, or comma separated identifiers.
+   * @return agreement identifiers; null for reports of all agreements.
+   */
+  static List<UUID> reportAgreementIds(String agreementId) {
+    if (agreementId == null) {
+      return null;
+    }
+    List<UUID> ids = agreementIds(agreementId);
+    return ids != null ? ids : List.of(UUID.fromString(agreementId));
+  }
+
+  /**
+   * Query parameter for agreementId parameter of stored reports.
+   * @param agreementId agreement identifier, or comma separated identifiers.
+   * @return agreementId; UUID array for comma separated identifiers.
+   */
+  static Object agreementsParam(String agreementId) {
+    List<UUID> ids = agreementIds(agreementId);
+    return ids == null ? agreementId : ids.toArray(new UUID[0]);
+  }
+
+  static String agreementsWhere(String column, Object agreements) {
+    return " WHERE " + column + (agreements instanceof UUID[] ? " = ANY($1)" : " = $1");
+  }
+
+  /**
+   * Aggregator of stored report for one or several agreements.
+   * @param agreementId agreement identifier, or comma separated identifiers.
+   * @param orderBy ORDER BY clause of query.
+   * @param factory makes aggregator for agreement identifier.
+   * @return aggregator; for several agreements the report of all agreements with the
+   *     report of each agreement in agreements.
+   */
+  static ReportAggregator reportAggregator(String agreementId, String orderBy,
+      Function<String, ReportAggregator> factory) {
+
+    List<UUID> ids = agreementIds(agreementId);
+    return ids == null ? factory.apply(agreementId)
+        : new AgreementsAggregator(orderBy, ids, factory);
   }
 
   static String limitJournal(Boolean isJournal) {
@@ -1722,79 +2847,97 @@ public class EusageReportsApi implements RouterCreator, TenantInitHooks {
         : " AND publicationType = 'monograph'";
   }
 
-  static Future<RowSet<Row>> getTitlesCost(TenantPgPool pool, Boolean isJournal, boolean includeOA,
-      String agreementId, Periods usePeriods) {
+  /** ORDER BY of titlesCostSql. */
+  static final String TITLES_COST_ORDER_BY = "title, publicationDate, openAccess, usageDateRange";
+
+  /** Leading columns of titlesCostSql that are the columns of getTitles rows. */
+  static final int TITLES_COLUMNS = 13;
+
+  /**
+   * Query for titles of agreement with their usage and cost.
+   *
+   * <p>Parameters are agreementId, start date and end date (exclusive) of usage.
+   * @param pool Postgres pool.
+   * @param isJournal true for journals only; false for books only; null for all.
+   * @param includeOA whether to include open access usage.
+   * @param byAgreement whether agreementId is an array and rows have agreementId as last
+   *     column.
+   * @return SQL without ORDER BY.
+   */
+  static String titlesCostSql(TenantPgPool pool, Boolean isJournal, boolean includeOA,
+      boolean byAgreement) {
 
-    String sql = "SELECT "
+    String agreementColumn = byAgreement ? ", agreement_titles.agreementId" : "";
+    String agreementWhere = " WHERE agreement_titles.agreementId = "
+        + (byAgreement ? "ANY($1)" : "$1");
+    return "SELECT "
         + " title_entries.kbTitleId AS kbId, kbTitleName AS title,"
-        + " kbPackageId, kbPackageName, printISSN, onlineISSN, ISBN,"
-        + " NULL AS publicationDate, NULL AS usageDateRange,"
+        + " agreement_titles.kbPackageId, kbPackageName, printISSN, onlineISSN, ISBN,"
+        + " NULL AS publicationDate, NULL AS usageDateRange, NULL AS usageStart,"
         + " NULL AS uniqueAccessCount, NULL AS totalAccessCount, TRUE AS openAccess,"
         + " orderType, poLineNumber, invoiceNumber,"
         + " fiscalYearRange, subscriptionDateRange,"
-        + " encumberedCost, invoicedCost"
-        + " FROM " + agreementEntriesTable(pool)
-        + " LEFT JOIN " + packageEntriesTable(pool) + " USING (kbPackageId)"
-        + " JOIN " + titleEntriesTable(pool) + " ON"
-        + " title_entries.kbTitleId = agreement_entries.kbTitleId OR"
-        + " title_entries.kbTitleId = package_entries.kbTitleId"
-        + " WHERE agreementId = $1"
+        + " encumberedCost, invoicedCost" + agreementColumn
+        + " FROM " + agreementTitlesTable(pool)
+        + " JOIN " + agreementEntriesTable(pool) + " ON agreement_entries.id = agreementEntryId"
+        + " JOIN " + titleEntriesTable(pool)
+        + " ON title_entries.kbTitleId = agreement_titles.kbTitleId"
+        + agreementWhere
         + limitJournal(isJournal)
-        + " UNION"
+        + " UNION ALL"
         + " SELECT "
         + " title_entries.kbTitleId AS kbId, kbTitleName AS title,"
-        + " kbPackageId, kbPackageName, printISSN, onlineISSN, ISBN,"
-        + " publicationDate, usageDateRange, uniqueAccessCount, totalAccessCount, openAccess,"
+        + " agreement_titles.kbPackageId, kbPackageName, printISSN, onlineISSN, ISBN,"
+        + " publicationDate, " + USAGE_MONTH_RANGE + " AS usageDateRange,"
+        + " usageMonth AS usageStart, uniqueAccessCount, totalAccessCount, openAccess,"
         + " orderType, poLineNumber, invoiceNumber,"
         + " fiscalYearRange, subscriptionDateRange,"
-        + " encumberedCost, invoicedCost"
-        + " FROM " + agreementEntriesTable(pool)
-        + " LEFT JOIN " + packageEntriesTable(pool) + " USING (kbPackageId)"
-        + " JOIN " + titleEntriesTable(pool) + " ON"
-        + " title_entries.kbTitleId = agreement_entries.kbTitleId OR"
-        + " title_entries.kbTitleId = package_entries.kbTitleId"
-        + " JOIN " + titleDataTable(pool) + " ON titleEntryId = title_entries.id"
-        + " WHERE agreementId = $1"
+        + " encumberedCost, invoicedCost" + agreementColumn
+        + " FROM " + agreementTitlesTable(pool)
+        + " JOIN " + agreementEntriesTable(pool) + " ON agreement_entries.id = agreementEntryId"
+        + " JOIN " + titleEntriesTable(pool)
+        + " ON title_entries.kbTitleId = agreement_titles.kbTitleId"
+        + " JOIN " + titleDataMonthsTable(pool) + " ON titleEntryId = title_entries.id"
+        + agreementWhere
         + limitJournal(isJournal)
-        + "   AND daterange($2, $3) @> lower(usageDateRange)"
+        + "   AND usageMonth >= $2 AND usageMonth < $3"
         +  (includeOA ? "" : " AND NOT openAccess");
+  }
+
+  static <P> Future<List<P>> getTitlesCost(TenantPgPool pool, Boolean isJournal,
+      boolean includeOA, String agreementId, Periods usePeriods, PartitionedRows<P> rows) {
 
-    return pool.execute(sql + " ORDER BY title, publicationDate, openAccess, usageDateRange",
-            Tuple.of(agreementId, usePeriods.startDate, usePeriods.endDate));
+    Object agreements = agreementsParam(agreementId);
+    return streamPartitioned(pool, titlesCostSql(pool, isJournal, includeOA,
+            agreements instanceof UUID[]) + " ORDER BY " + TITLES_COST_ORDER_BY,
+        Tuple.of(agreements, usePeriods.startDate, usePeriods.endDate), rows);
   }
 
   Future<JsonObject> costPerUse(TenantPgPool pool, Boolean isJournal, boolean includeOA,
       String agreementId, String accessCountPeriod, String start, String end) {
 
+    return costPerUse(pool, isJournal, includeOA, agreementId, accessCountPeriod, start, end,
+        ItemPage.ALL);
+  }
+
+  Future<JsonObject> costPerUse(TenantPgPool pool, Boolean isJournal, boolean includeOA,
+      String agreementId, String accessCountPeriod, String start, String end, ItemPage page) {
+
     Periods periods = new Periods(start, end, accessCountPeriod);
-    long t1 = System.nanoTime();
-    return getTitlesCost(pool, isJournal, includeOA, agreementId, periods)
-        .map(rowSet -> {
-          long t2 = System.nanoTime();
-          JsonObject res = CostPerUse.titlesToJsonObject(rowSet, periods);
-          long t3 = System.nanoTime();
-          res.put("execution", new JsonObject()
-              .put("getTitles", t2 - t1)
-              .put("parseTitles", t3 - t2)
-          );
-          return res;
-        });
+    return reportJson(() -> costPerUseReport(pool, isJournal, includeOA, agreementId,
+        periods), page);
   }
 
-  Future<String> getCostPerUse(TenantPgPool pool, Boolean isJournal, boolean includeOA,
-      String agreementId, String accessCountPeriod, String start, String end,
-      boolean csv, boolean full) {
+  Future<Function<ItemPage, JsonObject>> costPerUseReport(TenantPgPool pool, Boolean isJournal,
+      boolean includeOA, String agreementId, Periods periods) {
 
-    return costPerUse(pool, isJournal, includeOA, agreementId, accessCountPeriod, start, end)
-        .map(json -> {
-          if (!full) {
-            json.remove("items");
-          }
-          if (!csv) {
-            return json.encodePrettily();
-          }
-          return CsvReports.getCostPerUse2Csv(json);
-        });
+    Supplier<ReportAggregator> aggregator = () -> reportAggregator(agreementId,
+        TITLES_COST_ORDER_BY, id -> new CostPerUse.Aggregator(periods));
+    long t1 = System.nanoTime();
+    return getTitlesCost(pool, isJournal, includeOA, agreementId, periods,
+        partitionedReports(TITLES_COST_ORDER_BY, aggregator))
+        .compose(parts -> merged(parts, aggregator))
+        .map(report -> withExecution(report::toJson, System.nanoTime() - t1));
   }
 
   Future<Void> getCostPerUse(Vertx vertx, RoutingContext ctx) {
@@ -1808,13 +2951,192 @@ public class EusageReportsApi implements RouterCreator, TenantInitHooks {
     String start = ctx.request().params().get("startDate");
     String end = ctx.request().params().get("endDate");
 
-    return getCostPerUse(pool, isJournal, includeOA, agreementId, accessCountPeriod,
-        start, end, csv, full)
-        .map(res -> {
-          ctx.response().setStatusCode(200);
-          ctx.response().putHeader("Content-Type", csv ? "text/csv" : "application/json");
-          ctx.response().end(res);
-          return null;
+    ItemPage page = itemPage(ctx);
+    // parameters are checked before the ETag, so that invalid ones are not answered with 304
+    Periods periods = new Periods(start, end, accessCountPeriod);
+
+    List<Object> key = Arrays.asList("cost-per-use", isJournal, includeOA, agreementId,
+        accessCountPeriod, start, end);
+    return sendReport(ctx, pool, agreementId, key, () -> costPerUseReport(pool, isJournal,
+            includeOA, agreementId, periods), page, full,
+        csv ? CsvReports::writeCostPerUse2Csv : null);
+  }
+
+  /**
+   * Length of publication periods.
+   * @param period NY or NM; null or "auto" for 1 year.
+   * @return number of months.
+   */
+  static int pubPeriodInMonths(String period) {
+    return period == null || "auto".equals(period) ? 12 : Periods.getPeriodInMonths(period);
+  }
+
+  /**
+   * Pass rows with usage in periods, and rows without usage, to handler.
+   * @param periods periods of report.
+   * @param handler called for rows of report.
+   * @return row handler.
+   */
+  static Consumer<Row> inPeriods(Periods periods, Consumer<Row> handler) {
+    return row -> {
+      LocalDate usageStart = row.getLocalDate("usagestart");
+      if (usageStart == null || (!usageStart.isBefore(periods.startDate)
+          && usageStart.isBefore(periods.endDate))) {
+        handler.accept(row);
+      }
+    };
+  }
+
+  /**
+   * Make use over time, requests by date of use, requests by publication year and cost per
+   * use reports from one query.
+   *
+   * <p>The rows of {@link #titlesCostSql} cover the usage of all reports. Each report gets
+   * the rows of its periods, with duplicates removed as its own query does: on all columns
+   * for cost per use and on the columns of {@link #getTitles} for the others. Reports are the
+   * same as those made one by one, except that requests by publication year items of a title
+   * may come in another order.
+   * @param pool Postgres pool.
+   * @param isJournal true for journals only; false for books only; null for all.
+   * @param includeOA whether to include open access usage.
+   * @param agreementId agreement identifier.
+   * @param accessCountPeriod usage period length of most reports and publication period
+   *     length of requests by publication year.
+   * @param start start date of usage.
+   * @param end end date of usage.
+   * @param yopInterval publication period length of requests by date of use.
+   * @param periodOfUse usage period length of requests by publication year.
+   * @return reports by name.
+   */
+  Future<JsonObject> getDashboard(TenantPgPool pool, Boolean isJournal, boolean includeOA,
+      String agreementId, String accessCountPeriod, String start, String end,
+      String yopInterval, String periodOfUse) {
+
+    return getDashboard(pool, isJournal, includeOA, agreementId, accessCountPeriod, start, end,
+        yopInterval, periodOfUse, ItemPage.ALL);
+  }
+
+  /**
+   * Make dashboard with page of items of each report.
+   * @param pool Postgres pool.
+   * @param isJournal true for journals only; false for books only; null for all.
+   * @param includeOA whether to include open access usage.
+   * @param agreementId agreement identifier.
+   * @param accessCountPeriod usage period length of most reports and publication period
+   *     length of requests by publication year.
+   * @param start start date of usage.
+   * @param end end date of usage.
+   * @param yopInterval publication period length of requests by date of use.
+   * @param periodOfUse usage period length of requests by publication year.
+   * @param page items of each report.
+   * @return reports by name.
+   */
+  Future<JsonObject> getDashboard(TenantPgPool pool, Boolean isJournal, boolean includeOA,
+      String agreementId, String accessCountPeriod, String start, String end,
+      String yopInterval, String periodOfUse, ItemPage page) {
+
+    Periods usePeriods = new Periods(start, end, accessCountPeriod);
+    Periods pubYearPeriods = new Periods(start, end, periodOfUse);
+    int yopMonths = pubPeriodInMonths(yopInterval);
+    int pubYearMonths = pubPeriodInMonths(accessCountPeriod);
+    return reportJson(() -> dashboardReport(pool, isJournal, includeOA, agreementId,
+        usePeriods, pubYearPeriods, yopMonths, pubYearMonths), page);
+  }
+
+  Future<Void> getDashboard(Vertx vertx, RoutingContext ctx) {
+    TenantPgPool pool = TenantPgPool.pool(vertx, TenantUtil.tenant(ctx));
+    Boolean isJournal = getJournalFromFormat(ctx, "ALL");
+    boolean full = !"false".equalsIgnoreCase(ctx.request().params().get("full"));
+    boolean includeOA = "true".equalsIgnoreCase(ctx.request().params().get("includeOA"));
+    String agreementId = ctx.request().params().get("agreementId");
+    String accessCountPeriod = ctx.request().params().get("accessCountPeriod");
+    String start = ctx.request().params().get("startDate");
+    String end = ctx.request().params().get("endDate");
+    String yopInterval = ctx.request().params().get("yopInterval");
+    String periodOfUse = ctx.request().params().get("periodOfUse");
+
+    ItemPage page = itemPage(ctx);
+    // parameters are checked before the ETag, so that invalid ones are not answered with 304
+    Periods usePeriods = new Periods(start, end, accessCountPeriod);
+    Periods pubYearPeriods = new Periods(start, end, periodOfUse);
+    int yopMonths = pubPeriodInMonths(yopInterval);
+    int pubYearMonths = pubPeriodInMonths(accessCountPeriod);
+
+    List<Object> key = Arrays.asList("dashboard", isJournal, includeOA, agreementId,
+        accessCountPeriod, start, end, yopInterval, periodOfUse);
+    return sendReport(ctx, pool, agreementId, key, () -> dashboardReport(pool, isJournal,
+            includeOA, agreementId, usePeriods, pubYearPeriods, yopMonths, pubYearMonths),
+        page, full, null);
+  }
+
+  /**
+   * Make dashboard from checked parameters.
+   * @param pool Postgres pool.
+   * @param isJournal true for journals only; false for books only; null for all.
+   * @param includeOA whether to include open access usage.
+   * @param agreementId agreement identifier.
+   * @param usePeriods usage periods of all reports but requests by publication year.
+   * @param pubYearPeriods usage periods of requests by publication year.
+   * @param yopMonths publication period length of requests by date of use.
+   * @param pubYearMonths publication period length of requests by publication year.
+   * @return dashboard of a page of items of each report.
+   */
+  Future<Function<ItemPage, JsonObject>> dashboardReport(TenantPgPool pool, Boolean isJournal,
+      boolean includeOA, String agreementId, Periods usePeriods, Periods pubYearPeriods,
+      int yopMonths, int pubYearMonths) {
+
+    // useOverTime, reqsByDateOfUse, reqsByPubYear and costPerUse
+    List<Supplier<ReportAggregator>> reports = List.of(
+        () -> new UseOverTime.Aggregator(agreementId, usePeriods),
+        () -> new ReqsByDateOfUse.Aggregator(agreementId, usePeriods, yopMonths),
+        () -> new ReqsByPubYear.Aggregator(agreementId, pubYearPeriods, pubYearMonths),
+        () -> new CostPerUse.Aggregator(usePeriods));
+    PartitionedRows<List<ReportAggregator>> rows = new PartitionedRows<>(reportWorkers,
+        reportWorkers.partitions(),
+        () -> reports.stream().map(Supplier::get).collect(Collectors.toList()),
+        (partial, seq) -> {
+          List<Consumer<Row>> handlers = List.of(
+              inPeriods(usePeriods, new DistinctRows(TITLES_COST_ORDER_BY, TITLES_COLUMNS,
+                  row -> {
+                    partial.get(0).add(row, seq.getAsLong());
+                    partial.get(1).add(row, seq.getAsLong());
+                  })),
+              inPeriods(pubYearPeriods, new DistinctRows(TITLES_COST_ORDER_BY, TITLES_COLUMNS,
+                  row -> partial.get(2).add(row, seq.getAsLong()))),
+              inPeriods(usePeriods, new DistinctRows(TITLES_COST_ORDER_BY,
+                  row -> partial.get(3).add(row, seq.getAsLong()))));
+          return row -> handlers.forEach(handler -> handler.accept(row));
+        });
+    LocalDate startDate = usePeriods.startDate.isBefore(pubYearPeriods.startDate)
+        ? usePeriods.startDate : pubYearPeriods.startDate;
+    LocalDate endDate = usePeriods.endDate.isAfter(pubYearPeriods.endDate)
+        ? usePeriods.endDate : pubYearPeriods.endDate;
+    long t1 = System.nanoTime();
+    return streamPartitioned(pool, titlesCostSql(pool, isJournal, includeOA, false)
+            + " ORDER BY " + TITLES_COST_ORDER_BY,
+        Tuple.of(agreementId, startDate, endDate), rows)
+        .compose(parts -> reportWorkers.execute(() -> {
+          List<ReportAggregator> merged = new ArrayList<>();
+          for (int i = 0; i < reports.size(); i++) {
+            int idx = i;
+            merged.add(ReportAggregator.merged(parts.stream().map(part -> part.get(idx))
+                .collect(Collectors.toList()), reports.get(i)));
+          }
+          return merged;
+        }))
+        .map(merged -> withExecution(page -> new JsonObject()
+            .put("useOverTime", merged.get(0).toJson(page))
+            .put("reqsByDateOfUse", merged.get(1).toJson(page))
+            .put("reqsByPubYear", merged.get(2).toJson(page))
+            .put("costPerUse", merged.get(3).toJson(page)), System.nanoTime() - t1));
+  }
+
+  static Future<JsonObject> getStatus(TenantPgPool pool, UUID agreementId) {
+    return pool.execute("SELECT status from " + statusTable(pool) + " WHERE id = $1",
+            Tuple.of(agreementId))
+        .map(rowSet -> {
+          RowIterator<Row> iterator = rowSet.iterator();
+          return iterator.hasNext() ? iterator.next().getJsonObject("status") : null;
         });
   }
 
@@ -1845,7 +3167,8 @@ public class EusageReportsApi implements RouterCreator, TenantInitHooks {
         .handler(ctx -> {
           try {
             function.apply(ctx)
-                .onFailure(cause -> failHandler(400, ctx, cause));
+                .onFailure(cause -> failHandler(cause instanceof HttpException
+                    ? ((HttpException) cause).getStatusCode() : 400, ctx, cause));
           } catch (Throwable t) {
             failHandler(400, ctx, t);
           }
@@ -1863,10 +3186,12 @@ public class EusageReportsApi implements RouterCreator, TenantInitHooks {
           add(routerBuilder, "getTitleData", ctx -> getTitleData(vertx, ctx));
           add(routerBuilder, "getReportData", ctx -> getReportData(vertx, ctx));
           add(routerBuilder, "postFromAgreement", ctx -> postFromAgreement(vertx, ctx));
+          add(routerBuilder, "postFromAgreements", ctx -> postFromAgreements(vertx, ctx));
           add(routerBuilder, "getUseOverTime", ctx -> getUseOverTime(vertx, ctx));
           add(routerBuilder, "getReqsByDateOfUse", ctx -> getReqsByDateOfUse(vertx, ctx));
           add(routerBuilder, "getReqsByPubYear", ctx -> getReqsByPubYear(vertx, ctx));
           add(routerBuilder, "getCostPerUse", ctx -> getCostPerUse(vertx, ctx));
+          add(routerBuilder, "getDashboard", ctx -> getDashboard(vertx, ctx));
           add(routerBuilder, "getReportStatus", ctx -> getReportStatus(vertx, ctx));
           return routerBuilder.createRouter();
         });
@@ -1929,6 +3254,44 @@ public class EusageReportsApi implements RouterCreator, TenantInitHooks {
             + titleDataTable(pool) + " USING btree(counterReportId)",
         "CREATE INDEX IF NOT EXISTS title_data_entries_providerId ON "
             + titleDataTable(pool) + " USING btree(providerId)",
+        // reports read title_data_months, so title_data needs no stored start of usage;
+        // dropping a column does not rewrite the table
+        "DROP INDEX IF EXISTS " + pool.getSchema()
+            + ".title_data_entries_titleEntryId_usageStart",
+        "ALTER TABLE " + titleDataTable(pool) + " DROP COLUMN IF EXISTS usageStart",
+        "CREATE TABLE IF NOT EXISTS " + titleDataMonthsTable(pool) + " ( "
+            + "titleEntryId UUID NOT NULL, "
+            + "usageMonth date NOT NULL, "
+            + "publicationDate date, "
+            + "openAccess boolean NOT NULL, "
+            + "uniqueAccessCount bigint, "
+            + "totalAccessCount bigint"
+            + ")",
+        "CREATE INDEX IF NOT EXISTS title_data_months_titleEntryId_usageMonth ON "
+            + titleDataMonthsTable(pool) + " USING btree(titleEntryId, usageMonth)",
+        // fill for usage ingested before the table existed
+        "INSERT INTO " + titleDataMonthsTable(pool) + TITLE_DATA_MONTHS_COLUMNS
+            + titleDataMonthsSql(pool, " AND NOT EXISTS (SELECT 1 FROM "
+            + titleDataMonthsTable(pool) + ")"),
+        "CREATE OR REPLACE FUNCTION " + updateTitleDataMonthsFunction(pool) + "(uuid, date)"
+            + " RETURNS void AS $$\n"
+            + "-- update_title_data_months(titleEntryId, date) computes title_data_months\n"
+            + "-- of the title entry for the month that date belongs to.\n"
+            + "-- The title entry is locked, so that each statement below sees the title_data\n"
+            + "-- of concurrent updates of the same title entry that have completed.\n"
+            + "-- The caller gives the agreements of the title entry a new data version.\n"
+            + "DECLARE\n"
+            + "  first_day date := date_trunc('month', $2)::date;\n"
+            + "BEGIN\n"
+            + "  PERFORM 1 FROM " + titleEntriesTable(pool) + " WHERE id = $1 FOR UPDATE;\n"
+            + "  DELETE FROM " + titleDataMonthsTable(pool)
+            + " WHERE titleEntryId = $1 AND usageMonth = first_day;\n"
+            + "  INSERT INTO " + titleDataMonthsTable(pool) + TITLE_DATA_MONTHS_COLUMNS
+            + titleDataMonthsSql(pool, " AND titleEntryId = $1"
+            + " AND lower(usageDateRange) >= first_day"
+            + " AND lower(usageDateRange) < first_day + interval '1 month'") + ";\n"
+            + "END\n"
+            + "$$ LANGUAGE plpgsql STRICT",
         "CREATE TABLE IF NOT EXISTS " + agreementEntriesTable(pool) + " ( "
             + "id UUID PRIMARY KEY, "
             + "kbTitleId UUID, "
@@ -1952,6 +3315,32 @@ public class EusageReportsApi implements RouterCreator, TenantInitHooks {
             + agreementEntriesTable(pool) + " USING btree(kbTitleId)",
         "CREATE INDEX IF NOT EXISTS agreement_entries_kbPackageId ON "
             + agreementEntriesTable(pool) + " USING btree(kbPackageId)",
+        "CREATE TABLE IF NOT EXISTS " + agreementTitlesTable(pool) + " ( "
+            + "agreementId UUID, "
+            + "agreementEntryId UUID, "
+            + "kbPackageId UUID, "
+            + "kbPackageName text, "
+            + "kbTitleId UUID"
+            + ")",
+        "CREATE INDEX IF NOT EXISTS agreement_titles_agreementId ON "
+            + agreementTitlesTable(pool) + " USING btree(agreementId)",
+        "CREATE INDEX IF NOT EXISTS agreement_titles_kbPackageId ON "
+            + agreementTitlesTable(pool) + " USING btree(kbPackageId)",
+        "CREATE INDEX IF NOT EXISTS agreement_titles_kbTitleId ON "
+            + agreementTitlesTable(pool) + " USING btree(kbTitleId)",
+        // fill for agreements populated before the table existed
+        "INSERT INTO " + agreementTitlesTable(pool) + AGREEMENT_TITLES_COLUMNS
+            + agreementTitlesSql(pool)
+            + " AND NOT EXISTS (SELECT 1 FROM " + agreementTitlesTable(pool) + ")",
+        "CREATE SEQUENCE IF NOT EXISTS " + pool.getSchema() + ".report_version_seq",
+        "CREATE TABLE IF NOT EXISTS " + reportVersionsTable(pool) + " ( "
+            + "agreementId UUID PRIMARY KEY, "
+            + "version bigint NOT NULL, "
+            + "lastModified timestamptz NOT NULL"
+            + ")",
+        // reports may be different after upgrade
+        "UPDATE " + reportVersionsTable(pool) + " SET version = nextval('"
+            + pool.getSchema() + ".report_version_seq'), lastModified = now()",
         "CREATE TABLE IF NOT EXISTS " + statusTable(pool) + " ( "
             + "id UUID PRIMARY KEY, "
             + "status json"
@@ -1966,6 +3355,6 @@ public class EusageReportsApi implements RouterCreator, TenantInitHooks {
             + "  FROM (SELECT ((12 * extract(year FROM $1)::integer\n"
             + "                 + extract(month FROM $1)::integer - 1) / $2) * $2) AS x(m)\n"
             + "$$ LANGUAGE SQL IMMUTABLE STRICT"
-    ));
+    )).onComplete(x -> reportCache.invalidate(pool.getSchema()));
   }
 }
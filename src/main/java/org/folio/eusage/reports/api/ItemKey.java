@@ -0,0 +1,46 @@
+package org.folio.eusage.reports.api;
+
+import java.util.UUID;
+
+/**
+ * Key of report item: title, period index and access type.
+ *
+ * <p>Used for map lookups for every row, so it is made from the UUID bits without
+ * building strings.
+ */
+final class ItemKey {
+  private final long mostSigBits;
+  private final long leastSigBits;
+  private final int index;
+
+  /**
+   * Create key.
+   * @param kbId title identifier.
+   * @param period period index; 0 if items are not split by period.
+   * @param openAccess access type.
+   */
+  ItemKey(UUID kbId, int period, boolean openAccess) {
+    mostSigBits = kbId.getMostSignificantBits();
+    leastSigBits = kbId.getLeastSignificantBits();
+    index = 2 * period + (openAccess ? 1 : 0);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof ItemKey)) {
+      return false;
+    }
+    ItemKey other = (ItemKey) o;
+    return mostSigBits == other.mostSigBits && leastSigBits == other.leastSigBits
+        && index == other.index;
+  }
+
+  @Override
+  public int hashCode() {
+    long h = mostSigBits ^ leastSigBits;
+    return 31 * (int) (h ^ (h >>> 32)) + index;
+  }
+}
@@ -0,0 +1,132 @@
+package org.folio.eusage.reports.api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.function.ToLongFunction;
+
+/**
+ * Items of a report to return: offset and limit in report order or by requests.
+ *
+ * <p>Only the selected items are converted to JSON. In report order the items are a
+ * sub list; by requests the highest offset + limit items are kept in a bounded heap, so
+ * the items are not sorted.
+ */
+final class ItemPage {
+  /** All items in report order. */
+  static final ItemPage ALL = new ItemPage(0, -1, false);
+
+  private final int offset;
+  private final int limit;
+  private final boolean byRequests;
+
+  /**
+   * Create page.
+   * @param offset number of items to skip.
+   * @param limit maximum number of items; -1 for no limit.
+   * @param byRequests whether items are ordered by requests, highest first.
+   */
+  ItemPage(int offset, int limit, boolean byRequests) {
+    if (offset < 0) {
+      throw new IllegalArgumentException("offset must be 0 or higher: " + offset);
+    }
+    if (limit < -1) {
+      throw new IllegalArgumentException("limit must be 0 or higher: " + limit);
+    }
+    this.offset = offset;
+    this.limit = limit;
+    this.byRequests = byRequests;
+  }
+
+  /**
+   * Parse page from query parameters.
+   * @param offset number of items to skip; null for 0.
+   * @param limit maximum number of items; null for no limit.
+   * @param sort title (report order) or requests; null for title.
+   * @return page.
+   * @throws IllegalArgumentException for invalid values.
+   */
+  static ItemPage of(String offset, String limit, String sort) {
+    if (offset == null && limit == null && sort == null) {
+      return ALL;
+    }
+    boolean byRequests;
+    if (sort == null || "title".equals(sort)) {
+      byRequests = false;
+    } else if ("requests".equals(sort)) {
+      byRequests = true;
+    } else {
+      throw new IllegalArgumentException("sort = " + sort);
+    }
+    int limitValue = limit == null ? -1 : Integer.parseInt(limit);
+    if (limitValue < 0 && limit != null) {
+      throw new IllegalArgumentException("limit must be 0 or higher: " + limit);
+    }
+    return new ItemPage(offset == null ? 0 : Integer.parseInt(offset), limitValue, byRequests);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof ItemPage)) {
+      return false;
+    }
+    ItemPage page = (ItemPage) o;
+    return offset == page.offset && limit == page.limit && byRequests == page.byRequests;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(offset, limit, byRequests);
+  }
+
+  @Override
+  public String toString() {
+    return "offset=" + offset + "&limit=" + limit + "&sort=" + (byRequests ? "requests" : "title");
+  }
+
+  boolean isAll() {
+    return offset == 0 && limit == -1 && !byRequests;
+  }
+
+  /**
+   * Select items of page.
+   *
+   * <p>Items with the same number of requests keep their report order.
+   * @param items items in report order.
+   * @param requests number of requests of item; only used when ordered by requests.
+   * @param <T> item type.
+   * @return items of page.
+   */
+  <T> List<T> select(List<T> items, ToLongFunction<T> requests) {
+    int end = limit == -1 || (long) offset + limit > items.size() ? items.size() : offset + limit;
+    if (offset >= end) {
+      return Collections.emptyList();
+    }
+    if (!byRequests) {
+      return items.subList(offset, end);
+    }
+    long[] keys = new long[items.size()];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = requests.applyAsLong(items.get(i));
+    }
+    // head is the item that comes last: fewest requests, latest in report order
+    Comparator<Integer> last = Comparator.<Integer>comparingLong(i -> keys[i])
+        .thenComparing(Comparator.reverseOrder());
+    PriorityQueue<Integer> heap = new PriorityQueue<>(end + 1, last);
+    for (int i = 0; i < keys.length; i++) {
+      heap.add(i);
+      if (heap.size() > end) {
+        heap.poll();
+      }
+    }
+    List<T> selected = new ArrayList<>(end - offset);
+    while (heap.size() > offset) {
+      selected.add(items.get(heap.poll()));
+    }
+    Collections.reverse(selected);
+    return selected;
+  }
+}
@@ -0,0 +1,105 @@
+package org.folio.eusage.reports.api;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.streams.WriteStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Write report as compact JSON in chunks.
+ *
+ * <p>Fields are encoded one at a time, and the items array one item at a time, so the
+ * report is never held as one string. Writing pauses while the write queue of the stream
+ * is full.
+ */
+final class JsonReportWriter {
+  /** Bytes collected before they are written to the stream. */
+  static final int CHUNK_SIZE = 65536;
+
+  private final WriteStream<Buffer> stream;
+  private final List<Map.Entry<String, Object>> fields = new ArrayList<>();
+  private final Promise<Void> promise = Promise.promise();
+  private Buffer buffer = Buffer.buffer();
+  private int fieldIdx;
+  /** Next item of items array being written; -1 if not writing items. */
+  private int itemIdx = -1;
+
+  private JsonReportWriter(WriteStream<Buffer> stream, JsonObject json, boolean full) {
+    this.stream = stream;
+    for (Map.Entry<String, Object> field : json) {
+      if (full || !"items".equals(field.getKey())) {
+        fields.add(field);
+      }
+    }
+  }
+
+  /**
+   * Write report and end stream.
+   * @param stream stream such as a chunked HTTP response.
+   * @param json report.
+   * @param full whether to write the items array.
+   * @return future that completes when the stream has been ended.
+   */
+  static Future<Void> write(WriteStream<Buffer> stream, JsonObject json, boolean full) {
+    JsonReportWriter writer = new JsonReportWriter(stream, json, full);
+    stream.exceptionHandler(writer.promise::tryFail);
+    writer.buffer.appendString("{");
+    writer.pump();
+    return writer.promise.future();
+  }
+
+  private void pump() {
+    while (fieldIdx < fields.size()) {
+      if (stream.writeQueueFull()) {
+        stream.drainHandler(x -> pump());
+        return;
+      }
+      Map.Entry<String, Object> field = fields.get(fieldIdx);
+      if (itemIdx == -1) {
+        if (fieldIdx > 0) {
+          buffer.appendString(",");
+        }
+        buffer.appendString(Json.encode(field.getKey())).appendString(":");
+        if ("items".equals(field.getKey()) && field.getValue() instanceof JsonArray) {
+          buffer.appendString("[");
+          itemIdx = 0;
+        } else {
+          buffer.appendString(Json.encode(field.getValue()));
+          fieldIdx++;
+        }
+      }
+      if (itemIdx != -1) {
+        writeItems((JsonArray) field.getValue());
+      }
+      if (buffer.length() >= CHUNK_SIZE) {
+        stream.write(buffer);
+        buffer = Buffer.buffer();
+      }
+    }
+    buffer.appendString("}");
+    // like end(String) of a response, the write is not awaited; errors go to exceptionHandler
+    stream.end(buffer);
+    promise.tryComplete();
+  }
+
+  private void writeItems(JsonArray items) {
+    while (itemIdx < items.size() && buffer.length() < CHUNK_SIZE) {
+      if (itemIdx > 0) {
+        buffer.appendString(",");
+      }
+      buffer.appendString(Json.encode(items.getValue(itemIdx)));
+      itemIdx++;
+    }
+    if (itemIdx == items.size()) {
+      buffer.appendString("]");
+      itemIdx = -1;
+      fieldIdx++;
+    }
+  }
+}
@@ -0,0 +1,84 @@
+package org.folio.eusage.reports.api;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts by period label, such as publication year or period of use.
+ *
+ * <p>Labels are kept in the order of the rows that first counted them, with the position
+ * of that row, so counts made from partitions of the rows can be merged into the counts
+ * made from all rows, in the same order.
+ */
+final class LabelCounts {
+  private final Map<String, Long> counts = new LinkedHashMap<>();
+  private final Map<String, Long> firstSeqs = new HashMap<>();
+
+  /**
+   * Add to count of label.
+   * @param label period label.
+   * @param count count to add.
+   * @param seq position of row; higher than that of earlier rows.
+   */
+  void add(String label, long count, long seq) {
+    Long old = counts.get(label);
+    if (old == null) {
+      firstSeqs.put(label, seq);
+      counts.put(label, count);
+    } else {
+      counts.put(label, old + count);
+    }
+  }
+
+  /**
+   * Add counts made from other rows, labels ordered by the position of their first row.
+   * @param parts counts made from different rows.
+   */
+  void merge(List<LabelCounts> parts) {
+    Map<String, Long> seqs = new HashMap<>(firstSeqs);
+    for (LabelCounts part : parts) {
+      part.firstSeqs.forEach((label, seq) -> seqs.merge(label, seq, Math::min));
+    }
+    List<String> labels = new ArrayList<>(seqs.keySet());
+    labels.sort(Comparator.comparingLong(seqs::get));
+    Map<String, Long> merged = new LinkedHashMap<>();
+    for (String label : labels) {
+      long count = counts.getOrDefault(label, 0L);
+      for (LabelCounts part : parts) {
+        count += part.counts.getOrDefault(label, 0L);
+      }
+      merged.put(label, count);
+    }
+    counts.clear();
+    counts.putAll(merged);
+    firstSeqs.clear();
+    firstSeqs.putAll(seqs);
+  }
+
+  /**
+   * Counts as JSON.
+   * @return new JSON object with count of each label.
+   */
+  JsonObject toJson() {
+    JsonObject json = new JsonObject();
+    counts.forEach(json::put);
+    return json;
+  }
+
+  /**
+   * Counts of each period as JSON.
+   * @param countsByPeriod counts of each period.
+   * @return JSON array with a JSON object for each period.
+   */
+  static JsonArray toJsonArray(List<LabelCounts> countsByPeriod) {
+    JsonArray array = new JsonArray();
+    countsByPeriod.forEach(counts -> array.add(counts.toJson()));
+    return array;
+  }
+}
@@ -0,0 +1,44 @@
+package org.folio.eusage.reports.api;
+
+import io.vertx.core.Future;
+import io.vertx.core.json.JsonObject;
+import io.vertx.sqlclient.Tuple;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * Lookups in other modules that may be shared between agreements populated together.
+ *
+ * <p>Results are cached as futures, so agreements populated at the same time share one
+ * request per key. Failed lookups are not cached.
+ */
+public class LookupCache {
+  /** Package content (list of kbTitleId) for each kbPackageId. */
+  final Map<UUID, Future<List<UUID>>> packageContent = new HashMap<>();
+
+  /** ERM title lookup result for each kbTitleId. */
+  final Map<UUID, Future<Tuple>> ermTitles = new HashMap<>();
+
+  /** Fiscal year object for each fiscal year ID. */
+  final Map<UUID, Future<JsonObject>> fiscalYears = new HashMap<>();
+
+  /** Identifier for title entries that do not exist yet, for each kbTitleId. */
+  final Map<UUID, UUID> newTitleEntryIds = new HashMap<>();
+
+  static <T> Future<T> get(Map<UUID, Future<T>> map, UUID key, Supplier<Future<T>> lookup) {
+    Future<T> future = map.get(key);
+    if (future == null) {
+      future = lookup.get();
+      map.put(key, future);
+      future.onFailure(e -> map.remove(key));
+    }
+    return future;
+  }
+
+  UUID newTitleEntryId(UUID kbTitleId) {
+    return newTitleEntryIds.computeIfAbsent(kbTitleId, x -> UUID.randomUUID());
+  }
+}
@@ -0,0 +1,70 @@
+package org.folio.eusage.reports.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Items of a report in the order of the rows that made them.
+ *
+ * <p>Each item has the position in the query of the row that made it, so the items of
+ * reports made from partitions of the rows can be merged into the order they have when
+ * the report is made from all rows.
+ * @param <T> item type.
+ */
+final class OrderedItems<T> {
+  private final List<T> items = new ArrayList<>();
+  private long[] seqs = new long[16];
+
+  /**
+   * Add item.
+   * @param item new item.
+   * @param seq position of the row that made item; higher than that of earlier items.
+   */
+  void add(T item, long seq) {
+    if (items.size() == seqs.length) {
+      seqs = Arrays.copyOf(seqs, 2 * seqs.length);
+    }
+    seqs[items.size()] = seq;
+    items.add(item);
+  }
+
+  /**
+   * Items in the order they were added.
+   * @return unmodifiable list.
+   */
+  List<T> getItems() {
+    return Collections.unmodifiableList(items);
+  }
+
+  int size() {
+    return items.size();
+  }
+
+  /**
+   * Add items of other lists in the order of the positions of their rows.
+   * @param parts lists made from different rows.
+   */
+  void merge(List<OrderedItems<T>> parts) {
+    int[] next = new int[parts.size()];
+    // head is the part whose next item has the lowest position
+    PriorityQueue<Integer> heads = new PriorityQueue<>(Math.max(1, parts.size()),
+        Comparator.comparingLong(i -> parts.get(i).seqs[next[i]]));
+    for (int i = 0; i < parts.size(); i++) {
+      if (parts.get(i).size() > 0) {
+        heads.add(i);
+      }
+    }
+    while (!heads.isEmpty()) {
+      int i = heads.poll();
+      OrderedItems<T> part = parts.get(i);
+      add(part.items.get(next[i]), part.seqs[next[i]]);
+      if (++next[i] < part.size()) {
+        heads.add(i);
+      }
+    }
+  }
+}
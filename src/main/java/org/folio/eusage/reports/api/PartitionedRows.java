@@ -0,0 +1,151 @@
+package org.folio.eusage.reports.api;
+
+import io.vertx.core.Future;
+import io.vertx.core.streams.ReadStream;
+import io.vertx.sqlclient.Row;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Rows of a report partitioned by title, so that partial reports are made by several
+ * report workers at the same time.
+ *
+ * <p>A row goes to the partition of the hash of its kbId, so all rows of a title, and all
+ * report items of it, are in one partition. Rows are handed to the workers in batches. The
+ * batches of a partition are handled one at a time in the order of the query, so each
+ * partition sees its rows in query order and can remove duplicates with its own
+ * {@link DistinctRows}. The position of each row in the query is passed on, so that the
+ * partial reports can be merged in the order of the rows.
+ *
+ * <p>The stream of rows is paused while too many batches wait for a worker.
+ * @param <P> partial report of a partition.
+ */
+final class PartitionedRows<P> implements Consumer<Row> {
+  /** Rows handed to a worker at a time. */
+  static final int BATCH_SIZE = 1000;
+
+  private final ReportWorkers workers;
+  private final int batchSize;
+  private final int maxPending;
+  private final List<Partition<P>> partitions = new ArrayList<>();
+  private long rows;
+  private int pending;
+  private ReadStream<Row> stream;
+  private Throwable failure;
+
+  private static final class Partition<P> {
+    final P partial;
+    final Consumer<Row> handler;
+    /** Position of the row being handled. */
+    long seq;
+    List<Row> batch = new ArrayList<>();
+    long[] batchSeqs;
+    Future<Void> done = Future.succeededFuture();
+
+    Partition(P partial, BiFunction<P, LongSupplier, Consumer<Row>> handler, int batchSize) {
+      this.partial = partial;
+      this.handler = handler.apply(partial, () -> seq);
+      this.batchSeqs = new long[batchSize];
+    }
+  }
+
+  /**
+   * Create partitions.
+   * @param workers workers that handle the rows.
+   * @param partitions number of partitions.
+   * @param partial makes the empty partial report of a partition.
+   * @param handler makes the row handler of a partition from its partial report and the
+   *     position of the row being handled.
+   */
+  PartitionedRows(ReportWorkers workers, int partitions, Supplier<P> partial,
+      BiFunction<P, LongSupplier, Consumer<Row>> handler) {
+    this(workers, partitions, BATCH_SIZE, partial, handler);
+  }
+
+  PartitionedRows(ReportWorkers workers, int partitions, int batchSize, Supplier<P> partial,
+      BiFunction<P, LongSupplier, Consumer<Row>> handler) {
+    if (partitions < 1) {
+      throw new IllegalArgumentException("partitions must be 1 or higher: " + partitions);
+    }
+    this.workers = workers;
+    this.batchSize = batchSize;
+    this.maxPending = 2 * partitions;
+    for (int i = 0; i < partitions; i++) {
+      this.partitions.add(new Partition<>(partial.get(), handler, batchSize));
+    }
+  }
+
+  /**
+   * Pause stream while too many batches wait for a worker.
+   * @param stream stream of the rows.
+   */
+  void flowControl(ReadStream<Row> stream) {
+    this.stream = stream;
+  }
+
+  @Override
+  public void accept(Row row) {
+    if (failure != null) {
+      // stops the stream
+      throw new IllegalStateException(failure.getMessage(), failure);
+    }
+    Partition<P> partition = partitions.get(
+        Math.floorMod(Objects.hashCode(row.getUUID("kbid")), partitions.size()));
+    partition.batchSeqs[partition.batch.size()] = rows++;
+    partition.batch.add(row);
+    if (partition.batch.size() == batchSize) {
+      submit(partition);
+    }
+  }
+
+  private void submit(Partition<P> partition) {
+    final List<Row> batch = partition.batch;
+    final long[] seqs = partition.batchSeqs;
+    partition.batch = new ArrayList<>();
+    partition.batchSeqs = new long[batchSize];
+    if (++pending >= maxPending && stream != null) {
+      stream.pause();
+    }
+    partition.done = partition.done
+        .compose(x -> workers.execute(() -> {
+          for (int i = 0; i < batch.size(); i++) {
+            partition.seq = seqs[i];
+            partition.handler.accept(batch.get(i));
+          }
+          return null;
+        }))
+        .<Void>mapEmpty()
+        .onComplete(res -> {
+          if (res.failed() && failure == null) {
+            failure = res.cause();
+          }
+          if (--pending < maxPending && stream != null) {
+            stream.resume();
+          }
+        });
+  }
+
+  /**
+   * Handle the remaining rows after all rows have been accepted.
+   * @return partial report of each partition.
+   */
+  Future<List<P>> end() {
+    // the stream has ended
+    stream = null;
+    List<Future<Void>> done = new ArrayList<>();
+    List<P> partials = new ArrayList<>();
+    for (Partition<P> partition : partitions) {
+      if (!partition.batch.isEmpty()) {
+        submit(partition);
+      }
+      done.add(partition.done);
+      partials.add(partition.partial);
+    }
+    return Future.all(done).map(x -> partials);
+  }
+}
@@ -5,6 +5,12 @@ import java.time.LocalDate;
 import java.time.Period;
 
 public class Periods {
+  /**
+   * Maximum number of periods: 100 years of months. Items only keep counts of periods with
+   * usage, so the size of a report grows little with the number of periods.
+   */
+  static final int MAX_PERIODS = 1200;
+
   private final int periodInMonths;
   private final JsonArray accessCountPeriods = new JsonArray();
   final Period period;
@@ -39,16 +45,17 @@ public class Periods {
     startDate = floorMonths(LocalDate.parse(start), periodInMonths);
     endDate   = floorMonths(LocalDate.parse(end), periodInMonths).plus(period);
 
+    int size = getPeriodEntry(endDate);
+    if (size > MAX_PERIODS) {
+      throw new IllegalArgumentException(
+          "Too many periods " + size + " (max is " + MAX_PERIODS + ") for startDate="
+              + start + ", endDate= " + end + " " + periodOfUse);
+    }
     LocalDate date = startDate;
     do {
       accessCountPeriods.add(periodLabel(date));
       date = date.plus(period);
     } while (date.isBefore(endDate));
-    if (accessCountPeriods.size() > 100) {
-      throw new IllegalArgumentException(
-          "Too many periods " + accessCountPeriods.size() + " (max is 100) for startDate="
-              + start + ", endDate= " + end + " " + periodOfUse);
-    }
   }
 
   /**
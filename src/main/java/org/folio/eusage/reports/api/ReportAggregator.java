@@ -0,0 +1,111 @@
+package org.folio.eusage.reports.api;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.sqlclient.Row;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Report computed from rows that are added one at a time as they are streamed from the
+ * database. Memory use depends on the number of report items, not on the number of rows.
+ *
+ * <p>A report may be made from partitions of the rows by title, see {@link PartitionedRows},
+ * and the partial reports merged. Items and labels are ordered by the position of the row
+ * that first had them, so the merged report is the same as the report of all rows.
+ */
+interface ReportAggregator {
+  /**
+   * Add row to report.
+   * @param row row in the order of the query.
+   * @param seq position of row in the query; higher than that of earlier rows.
+   */
+  void add(Row row, long seq);
+
+  /**
+   * Add partial reports after all rows have been added to them.
+   *
+   * <p>Rows may not be added afterwards.
+   * @param parts reports of the same kind and parameters as this one, made from rows of
+   *     other titles.
+   */
+  void merge(List<ReportAggregator> parts);
+
+  /**
+   * Make report after all rows have been added.
+   * @return report with all items.
+   */
+  default JsonObject toJson() {
+    return toJson(ItemPage.ALL);
+  }
+
+  /**
+   * Make report after all rows have been added.
+   *
+   * <p>Totals are for all items; only the items of the page are converted to JSON.
+   * @param page items to return.
+   * @return report.
+   */
+  JsonObject toJson(ItemPage page);
+
+  /**
+   * Put number of items of report, unless all items are returned.
+   * @param json report.
+   * @param page items returned.
+   * @param itemsTotal number of items of report.
+   */
+  static void putItemsTotal(JsonObject json, ItemPage page, int itemsTotal) {
+    if (!page.isAll()) {
+      json.put("itemsTotal", itemsTotal);
+    }
+  }
+
+  /**
+   * Convert items to JSON array.
+   * @param items items of page.
+   * @param toJson converts one item.
+   * @param <T> item type.
+   * @return JSON array with converted items in the same order.
+   */
+  static <T> JsonArray toJsonArray(List<T> items, Function<T, Object> toJson) {
+    List<Object> list = new ArrayList<>(items.size());
+    for (T item : items) {
+      list.add(toJson.apply(item));
+    }
+    return new JsonArray(list);
+  }
+
+  /**
+   * Merge partial reports.
+   * @param parts partial reports of partitions.
+   * @param aggregator makes empty report of the same kind and parameters.
+   * @return the only partial report, or new report with all of them.
+   */
+  static ReportAggregator merged(List<ReportAggregator> parts,
+      Supplier<ReportAggregator> aggregator) {
+    if (parts.size() == 1) {
+      return parts.get(0);
+    }
+    ReportAggregator report = aggregator.get();
+    report.merge(parts);
+    return report;
+  }
+
+  /**
+   * Cast partial reports to the kind of report that merges them.
+   * @param parts partial reports.
+   * @param type aggregator class.
+   * @param <A> aggregator type.
+   * @return partial reports.
+   */
+  static <A extends ReportAggregator> List<A> parts(List<ReportAggregator> parts,
+      Class<A> type) {
+    List<A> list = new ArrayList<>(parts.size());
+    for (ReportAggregator part : parts) {
+      list.add(type.cast(part));
+    }
+    return list;
+  }
+}
@@ -0,0 +1,155 @@
+package org.folio.eusage.reports.api;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * Stored reports for each tenant and report parameters.
+ *
+ * <p>Results are cached as futures, so equal requests at the same time share one report.
+ * The report is made outside of the lock of the cache. Failed reports are not cached.
+ *
+ * <p>Callers include the data version of the agreements in the key, so a report is not
+ * served after its agreements have changed, also when another module instance wrote them.
+ * Entries of agreements that this module instance writes are removed at once to free
+ * memory. The time-to-live and the maximum number of entries, of which the least recently
+ * used is removed, only bound the memory of entries that are no longer asked for.
+ */
+final class ReportCache<T> {
+  private final int maxSize;
+  private final long ttlNanos;
+  private final Map<List<Object>, Entry<T>> entries;
+
+  private static final class Entry<T> {
+    final String tenant;
+    final Set<UUID> agreementIds;
+    final Future<T> future;
+    final long created;
+
+    Entry(String tenant, Set<UUID> agreementIds, Future<T> future) {
+      this.tenant = tenant;
+      this.agreementIds = agreementIds;
+      this.future = future;
+      this.created = System.nanoTime();
+    }
+
+    boolean dependsOn(Collection<UUID> ids) {
+      if (agreementIds == null) {
+        return true;
+      }
+      for (UUID id : ids) {
+        if (agreementIds.contains(id)) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  /**
+   * Create cache.
+   * @param maxSize maximum number of entries; 0 disables the cache.
+   * @param ttlSeconds time-to-live of entries in seconds.
+   */
+  ReportCache(int maxSize, long ttlSeconds) {
+    if (maxSize < 0) {
+      throw new IllegalArgumentException("maxSize must be 0 or higher: " + maxSize);
+    }
+    this.maxSize = maxSize;
+    this.ttlNanos = ttlSeconds * 1000000000L;
+    this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<List<Object>, Entry<T>> eldest) {
+        return size() > ReportCache.this.maxSize;
+      }
+    };
+  }
+
+  /**
+   * Get report from cache or make it.
+   * @param tenant tenant of report.
+   * @param agreementIds agreements of report; null if it depends on all agreements.
+   * @param key report name and all parameters that the report depends on.
+   * @param report makes the report if not cached.
+   * @return report.
+   */
+  Future<T> get(String tenant, Collection<UUID> agreementIds, List<Object> key,
+      Supplier<Future<T>> report) {
+    if (maxSize == 0) {
+      return report.get();
+    }
+    List<Object> tenantKey = new ArrayList<>(key.size() + 1);
+    tenantKey.add(tenant);
+    tenantKey.addAll(key);
+    Promise<T> promise = Promise.promise();
+    Entry<T> added = new Entry<>(tenant,
+        agreementIds == null ? null : new HashSet<>(agreementIds), promise.future());
+    synchronized (this) {
+      Entry<T> entry = entries.get(tenantKey);
+      if (entry != null && System.nanoTime() - entry.created < ttlNanos) {
+        return entry.future;
+      }
+      entries.put(tenantKey, added);
+    }
+    // equal requests get the promise while the report is being made
+    promise.future().onFailure(e -> remove(tenantKey, added));
+    Future<T> made;
+    try {
+      made = report.get();
+    } catch (RuntimeException e) {
+      promise.fail(e);
+      throw e;
+    }
+    made.onComplete(promise);
+    return promise.future();
+  }
+
+  private synchronized void remove(List<Object> key, Entry<T> entry) {
+    entries.remove(key, entry);
+  }
+
+  /**
+   * Remove all entries of tenant.
+   * @param tenant tenant whose data has changed.
+   */
+  synchronized void invalidate(String tenant) {
+    Iterator<Entry<T>> iterator = entries.values().iterator();
+    while (iterator.hasNext()) {
+      if (iterator.next().tenant.equals(tenant)) {
+        iterator.remove();
+      }
+    }
+  }
+
+  /**
+   * Remove entries of tenant that depend on agreements.
+   * @param tenant tenant whose data has changed.
+   * @param agreementIds agreements that have changed.
+   */
+  synchronized void invalidate(String tenant, Collection<UUID> agreementIds) {
+    if (agreementIds.isEmpty()) {
+      return;
+    }
+    Iterator<Entry<T>> iterator = entries.values().iterator();
+    while (iterator.hasNext()) {
+      Entry<T> entry = iterator.next();
+      if (entry.tenant.equals(tenant) && entry.dependsOn(agreementIds)) {
+        iterator.remove();
+      }
+    }
+  }
+
+  synchronized int size() {
+    return entries.size();
+  }
+}
@@ -0,0 +1,180 @@
+package org.folio.eusage.reports.api;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+
+/**
+ * Report item with access counts by period kept while rows are added.
+ *
+ * <p>Only periods with a non-zero count are kept, as period indexes with counts, sorted by
+ * index. A title usually has usage in few of the periods of a long report, so an item does
+ * not grow with the number of periods. The counts of all periods are returned in a copy of
+ * the JSON object by {@link #toJson()}, so that a cached report can be converted by several
+ * requests at the same time.
+ */
+final class ReportItem {
+  private static final int[] NO_PERIODS = new int[0];
+  private static final long[] NO_COUNTS = new long[0];
+
+  private final JsonObject json;
+  private final int periods;
+  /** Indexes of periods with count, in increasing order; the first countsSize are used. */
+  private int[] periodIdx = NO_PERIODS;
+  /** Count of each period in periodIdx. */
+  private long[] counts = NO_COUNTS;
+  private int countsSize;
+  private long accessCountTotal;
+  private ReportItem rankedWith = this;
+
+  /**
+   * Create item.
+   * @param json item without counts.
+   * @param periods number of periods of report; counts of later periods may be added too.
+   */
+  ReportItem(JsonObject json, int periods) {
+    this.json = json;
+    this.periods = periods;
+  }
+
+  JsonObject getJson() {
+    return json;
+  }
+
+  /**
+   * Rank item by the requests of another item, so that the two are kept together when
+   * items are ordered by requests.
+   * @param item item whose access count total is used; the total item of a title.
+   */
+  void rankWith(ReportItem item) {
+    rankedWith = item;
+  }
+
+  /**
+   * Requests that the item is ranked by.
+   * @return access count total of this item, or of the item it is ranked with.
+   */
+  long getRequests() {
+    return rankedWith.accessCountTotal;
+  }
+
+  /**
+   * Add to access count of period and total.
+   * @param idx period index.
+   * @param count access count.
+   */
+  void add(int idx, long count) {
+    accessCountTotal += count;
+    if (count == 0L) {
+      return;
+    }
+    // rows usually come in period order, so the period is mostly last or new
+    int pos = countsSize > 0 && periodIdx[countsSize - 1] < idx
+        ? -countsSize - 1 : Arrays.binarySearch(periodIdx, 0, countsSize, idx);
+    if (pos >= 0) {
+      counts[pos] += count;
+      return;
+    }
+    pos = -pos - 1;
+    if (countsSize == periodIdx.length) {
+      int capacity = Math.max(4, 2 * countsSize);
+      periodIdx = Arrays.copyOf(periodIdx, capacity);
+      counts = Arrays.copyOf(counts, capacity);
+    }
+    System.arraycopy(periodIdx, pos, periodIdx, pos + 1, countsSize - pos);
+    System.arraycopy(counts, pos, counts, pos + 1, countsSize - pos);
+    periodIdx[pos] = idx;
+    counts[pos] = count;
+    countsSize++;
+  }
+
+  /**
+   * Add value to array element.
+   * @param array array of values.
+   * @param idx element index; if beyond array, a larger array is returned.
+   * @param value value to add.
+   * @return array with the element updated.
+   */
+  static long[] add(long[] array, int idx, long value) {
+    if (idx >= array.length) {
+      array = Arrays.copyOf(array, Math.max(idx + 1, 2 * array.length));
+    }
+    array[idx] += value;
+    return array;
+  }
+
+  /**
+   * Change period indexes, when the item is merged into a report with other indexes.
+   * @param newIdx new index of each period index.
+   */
+  void remap(int[] newIdx) {
+    Integer[] order = new Integer[countsSize];
+    for (int i = 0; i < countsSize; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, (a, b) -> Integer.compare(newIdx[periodIdx[a]], newIdx[periodIdx[b]]));
+    int[] idx = new int[countsSize];
+    long[] values = new long[countsSize];
+    for (int i = 0; i < countsSize; i++) {
+      idx[i] = newIdx[periodIdx[order[i]]];
+      values[i] = counts[order[i]];
+    }
+    periodIdx = idx;
+    counts = values;
+  }
+
+  /**
+   * Access count of period.
+   * @param idx period index.
+   * @return count; 0 if nothing added for period.
+   */
+  long get(int idx) {
+    int pos = Arrays.binarySearch(periodIdx, 0, countsSize, idx);
+    return pos >= 0 ? counts[pos] : 0L;
+  }
+
+  static long get(long[] array, int idx) {
+    return idx < array.length ? array[idx] : 0L;
+  }
+
+  static JsonArray toJsonArray(long[] array) {
+    JsonArray a = new JsonArray();
+    for (long v : array) {
+      a.add(v);
+    }
+    return a;
+  }
+
+  /**
+   * JSON object with counts, one for each period.
+   * @return copy of JSON object of item with counts.
+   */
+  JsonObject toJson() {
+    int size = countsSize > 0 ? Math.max(periods, periodIdx[countsSize - 1] + 1) : periods;
+    long[] dense = new long[size];
+    for (int i = 0; i < countsSize; i++) {
+      dense[periodIdx[i]] = counts[i];
+    }
+    return withCounts(toJsonArray(dense));
+  }
+
+  /**
+   * JSON object with counts of periods in another order.
+   * @param periods period index for each element of accessCountsByPeriod.
+   * @return copy of JSON object of item with counts.
+   */
+  JsonObject toJson(int[] periods) {
+    JsonArray a = new JsonArray();
+    for (int idx : periods) {
+      a.add(get(idx));
+    }
+    return withCounts(a);
+  }
+
+  private JsonObject withCounts(JsonArray accessCountsByPeriod) {
+    return new JsonObject(new LinkedHashMap<>(json.getMap()))
+        .put("accessCountTotal", accessCountTotal)
+        .put("accessCountsByPeriod", accessCountsByPeriod);
+  }
+}
@@ -0,0 +1,149 @@
+package org.folio.eusage.reports.api;
+
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.WorkerExecutor;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.handler.HttpException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Worker pool for making reports from rows that have been fetched.
+ *
+ * <p>Aggregating a large agreement takes long enough to hold up other requests if done on
+ * the event loop. Tasks are run by a shared worker executor with a fixed number of threads.
+ * Reports are admitted before their rows are fetched: at most maxReports reports may be made
+ * at a time; more reports are rejected with status 503. The tasks of an admitted report,
+ * such as the batches of its rows, wait for a thread however many there are.
+ */
+final class ReportWorkers {
+  private static final Logger log = LogManager.getLogger(ReportWorkers.class);
+
+  static final String POOL_NAME = "eusage-reports-report";
+
+  private final int poolSize;
+  private final int maxReports;
+  private final AtomicInteger reports = new AtomicInteger();
+  private final AtomicInteger queued = new AtomicInteger();
+  private final AtomicInteger running = new AtomicInteger();
+  private final AtomicLong completed = new AtomicLong();
+  private final AtomicLong rejected = new AtomicLong();
+  private final AtomicLong queueNanos = new AtomicLong();
+  private Vertx vertx;
+  private WorkerExecutor executor;
+
+  /**
+   * Create pool.
+   * @param poolSize number of threads; 0 runs tasks on the calling thread.
+   * @param maxReports maximum number of reports being made at a time.
+   */
+  ReportWorkers(int poolSize, int maxReports) {
+    if (poolSize < 0) {
+      throw new IllegalArgumentException("poolSize must be 0 or higher: " + poolSize);
+    }
+    if (maxReports < 1) {
+      throw new IllegalArgumentException("maxReports must be 1 or higher: " + maxReports);
+    }
+    this.poolSize = poolSize;
+    this.maxReports = maxReports;
+  }
+
+  private synchronized WorkerExecutor executor(Vertx owner) {
+    if (executor == null || vertx != owner) {
+      vertx = owner;
+      executor = owner.createSharedWorkerExecutor(POOL_NAME, poolSize);
+    }
+    return executor;
+  }
+
+  /**
+   * Make report, if fewer than maxReports reports are being made.
+   *
+   * <p>Admission is once for each report, before its rows are fetched, so a report is not
+   * rejected part-way.
+   * @param report makes the report, running its tasks with {@link #execute}.
+   * @param <T> result type.
+   * @return report; failed with status 503 if too many reports are being made.
+   */
+  <T> Future<T> admit(Supplier<Future<T>> report) {
+    if (reports.incrementAndGet() > maxReports) {
+      reports.decrementAndGet();
+      rejected.incrementAndGet();
+      log.warn("Report rejected: {}", metrics().encode());
+      return Future.failedFuture(new HttpException(503, "Too many reports being made"));
+    }
+    Future<T> future;
+    try {
+      future = report.get();
+    } catch (RuntimeException e) {
+      future = Future.failedFuture(e);
+    }
+    return future.onComplete(x -> reports.decrementAndGet());
+  }
+
+  /**
+   * Run task on worker thread.
+   *
+   * <p>The task is run on the calling thread if there is no Vert.x context or the pool
+   * size is 0. Tasks are not rejected; reports are, see {@link #admit}.
+   * @param task task to run; it must not use the event loop.
+   * @param <T> result type.
+   * @return result of task, completed on the context of the caller.
+   */
+  <T> Future<T> execute(Callable<T> task) {
+    Context context = Vertx.currentContext();
+    if (poolSize == 0 || context == null) {
+      try {
+        return Future.succeededFuture(task.call());
+      } catch (Exception e) {
+        return Future.failedFuture(e);
+      }
+    }
+    queued.incrementAndGet();
+    long submitted = System.nanoTime();
+    return executor(context.owner()).executeBlocking(() -> {
+      queued.decrementAndGet();
+      running.incrementAndGet();
+      queueNanos.addAndGet(System.nanoTime() - submitted);
+      try {
+        return task.call();
+      } finally {
+        running.decrementAndGet();
+        completed.incrementAndGet();
+        log.debug("Report task done: {}", this::metrics);
+      }
+    }, false);
+  }
+
+  /**
+   * Number of partitions to make a report from, see {@link PartitionedRows}.
+   * @return one for each thread; 1 if tasks run on the calling thread.
+   */
+  int partitions() {
+    return Math.max(1, poolSize);
+  }
+
+  /**
+   * Metrics of pool.
+   * @return number of reports being made and tasks queued and running now; number of tasks
+   *     completed, reports rejected and total nanoseconds tasks have waited in the queue
+   *     since start.
+   */
+  JsonObject metrics() {
+    return new JsonObject()
+        .put("poolSize", poolSize)
+        .put("maxReports", maxReports)
+        .put("reports", reports.get())
+        .put("queued", queued.get())
+        .put("running", running.get())
+        .put("completed", completed.get())
+        .put("rejected", rejected.get())
+        .put("queueNanos", queueNanos.get());
+  }
+}
@@ -1,9 +1,7 @@
 package org.folio.eusage.reports.api;
 
-import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.sqlclient.Row;
-import io.vertx.sqlclient.RowSet;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -12,6 +10,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.UUID;
+import java.util.stream.Collectors;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -22,111 +21,128 @@ public final class ReqsByDateOfUse {
     throw new UnsupportedOperationException("Cannot instantiate utility class");
   }
 
-  static JsonObject titlesToJsonObject(RowSet<Row> rowSet, String agreementId,
-      Periods usePeriods, int pubPeriodsInMonths) {
+  static final class Aggregator implements ReportAggregator {
+    private final String agreementId;
+    private final Periods usePeriods;
+    private final int pubPeriodsInMonths;
+    private final long[] totalItemRequestsByPeriod;
+    private final long[] uniqueItemRequestsByPeriod;
+    private final Map<ItemKey,ReportItem> totalItems = new HashMap<>();
+    private final Map<ItemKey,ReportItem> uniqueItems = new HashMap<>();
+    /** Index of each publication period label for item keys. */
+    private final Map<String,Integer> pubPeriodIndex = new HashMap<>();
+    private final Set<UUID> kbIds = new TreeSet<>();
+    private final List<LabelCounts> totalRequestsPublicationYearsByPeriod = new ArrayList<>();
+    private final List<LabelCounts> uniqueRequestsPublicationYearsByPeriod = new ArrayList<>();
+    private final OrderedItems<ReportItem> items = new OrderedItems<>();
 
-    List<Long> totalItemRequestsByPeriod = new ArrayList<>();
-    List<Long> uniqueItemRequestsByPeriod = new ArrayList<>();
-    Map<String,JsonObject> totalItems = new HashMap<>();
-    Map<String,JsonObject> uniqueItems = new HashMap<>();
-    Set<UUID> kbIds = new TreeSet<>();
-
-    JsonArray totalRequestsPublicationYearsByPeriod = new JsonArray();
-    JsonArray uniqueRequestsPublicationYearsByPeriod = new JsonArray();
-    JsonArray items = new JsonArray();
-    for (int i = 0; i < usePeriods.size(); i++) {
-      totalItemRequestsByPeriod.add(0L);
-      uniqueItemRequestsByPeriod.add(0L);
-      totalRequestsPublicationYearsByPeriod.add(new JsonObject());
-      uniqueRequestsPublicationYearsByPeriod.add(new JsonObject());
+    Aggregator(String agreementId, Periods usePeriods, int pubPeriodsInMonths) {
+      this.agreementId = agreementId;
+      this.usePeriods = usePeriods;
+      this.pubPeriodsInMonths = pubPeriodsInMonths;
+      totalItemRequestsByPeriod = new long[usePeriods.size()];
+      uniqueItemRequestsByPeriod = new long[usePeriods.size()];
+      for (int i = 0; i < usePeriods.size(); i++) {
+        totalRequestsPublicationYearsByPeriod.add(new LabelCounts());
+        uniqueRequestsPublicationYearsByPeriod.add(new LabelCounts());
+      }
     }
-    rowSet.forEach(row -> {
+
+    @Override
+    public void add(Row row, long seq) {
       UUID kbId = row.getUUID("kbid");
-      String usageDateRange = row.getString("usagedaterange");
-      if (usageDateRange == null) {
+      LocalDate usageDate = row.getLocalDate("usagestart");
+      if (usageDate == null) {
         if (kbIds.add(kbId)) {
-          JsonObject item = UseOverTime.createNonMatchedItem(row,usePeriods.size());
-          items.add(item);
+          items.add(UseOverTime.createNonMatchedItem(row, usePeriods.size()), seq);
         }
         return;
       }
       kbIds.add(kbId);
-      Long totalAccessCount = row.getLong("totalaccesscount");
-      Long uniqueAccessCount = row.getLong("uniqueaccesscount");
-      if (usageDateRange != null && totalAccessCount > 0L) {
-        LocalDate usageStart = usePeriods.floorMonths(LocalDate.parse(
-            usageDateRange.substring(1, 11)));
-        int idx = usePeriods.getPeriodEntry(usageStart);
+      long totalAccessCount = row.getLong("totalaccesscount");
+      long uniqueAccessCount = row.getLong("uniqueaccesscount");
+      if (totalAccessCount <= 0L) {
+        return;
+      }
+      LocalDate usageStart = usePeriods.floorMonths(usageDate);
+      int idx = usePeriods.getPeriodEntry(usageStart);
 
-        LocalDate publicationDate = row.getLocalDate("publicationdate");
-        String pubPeriodLabel = Periods.periodLabelFloor(publicationDate, pubPeriodsInMonths,
-            "nopub");
-        totalItemRequestsByPeriod.set(idx, totalAccessCount
-            + totalItemRequestsByPeriod.get(idx));
+      LocalDate publicationDate = row.getLocalDate("publicationdate");
+      String pubPeriodLabel = Periods.periodLabelFloor(publicationDate, pubPeriodsInMonths,
+          "nopub");
+      totalItemRequestsByPeriod[idx] += totalAccessCount;
+      uniqueItemRequestsByPeriod[idx] += uniqueAccessCount;
 
-        uniqueItemRequestsByPeriod.set(idx, uniqueAccessCount
-            + uniqueItemRequestsByPeriod.get(idx));
+      totalRequestsPublicationYearsByPeriod.get(idx).add(pubPeriodLabel, totalAccessCount, seq);
+      uniqueRequestsPublicationYearsByPeriod.get(idx).add(pubPeriodLabel, uniqueAccessCount,
+          seq);
 
-        JsonObject o = totalRequestsPublicationYearsByPeriod.getJsonObject(idx);
-        Long totalAccessCountPeriod = o.getLong(pubPeriodLabel, 0L);
-        o.put(pubPeriodLabel, totalAccessCountPeriod + totalAccessCount);
+      boolean openAccess = row.getBoolean("openaccess");
+      String accessType = openAccess ? "OA_Gold" : "Controlled";
+      int pubIdx = pubPeriodIndex.computeIfAbsent(pubPeriodLabel, x -> pubPeriodIndex.size());
+      ItemKey itemKey = new ItemKey(kbId, pubIdx, openAccess);
+      ReportItem totalItem = totalItems.get(itemKey);
+      if (totalItem == null) {
+        totalItem = UseOverTime.createTotalItem(row, accessType, usePeriods.size());
+        totalItem.getJson().put("publicationYear", pubPeriodLabel);
+        items.add(totalItem, seq);
+        totalItems.put(itemKey, totalItem);
+      }
+      totalItem.add(idx, totalAccessCount);
 
-        o = uniqueRequestsPublicationYearsByPeriod.getJsonObject(idx);
-        Long uniqueAccessCountPeriod = o.getLong(pubPeriodLabel, 0L);
-        o.put(pubPeriodLabel, uniqueAccessCountPeriod + uniqueAccessCount);
+      ReportItem uniqueItem = uniqueItems.get(itemKey);
+      if (uniqueItem == null) {
+        uniqueItem = UseOverTime.createUniqueItem(row, accessType, usePeriods.size());
+        uniqueItem.rankWith(totalItem);
+        uniqueItem.getJson().put("publicationYear", pubPeriodLabel);
+        uniqueItems.put(itemKey, uniqueItem);
+        items.add(uniqueItem, seq);
+      }
+      uniqueItem.add(idx, uniqueAccessCount);
+    }
 
-        String accessType = row.getBoolean("openaccess") ? "OA_Gold" : "Controlled";
-        String itemKey = kbId + "," + pubPeriodLabel + "," + accessType;
-        JsonObject totalItem = totalItems.get(itemKey);
-        JsonArray accessCountsByPeriods;
-        if (totalItem != null) {
-          accessCountsByPeriods = totalItem.getJsonArray("accessCountsByPeriod");
-          totalItem.put("accessCountTotal", totalItem.getLong("accessCountTotal")
-              + totalAccessCount);
-        } else {
-          accessCountsByPeriods = new JsonArray();
-          totalItem = UseOverTime.createTotalItem(row, accessType,
-              totalAccessCount, accessCountsByPeriods, usePeriods.size());
-          totalItem.put("publicationYear", pubPeriodLabel);
-          items.add(totalItem);
-          totalItems.put(itemKey, totalItem);
-        }
-        accessCountsByPeriods.set(idx, accessCountsByPeriods.getLong(idx) + totalAccessCount);
+    @Override
+    public void merge(List<ReportAggregator> parts) {
+      List<Aggregator> aggregators = ReportAggregator.parts(parts, Aggregator.class);
+      UseOverTime.addCounts(totalItemRequestsByPeriod, aggregators.stream()
+          .map(a -> a.totalItemRequestsByPeriod).collect(Collectors.toList()));
+      UseOverTime.addCounts(uniqueItemRequestsByPeriod, aggregators.stream()
+          .map(a -> a.uniqueItemRequestsByPeriod).collect(Collectors.toList()));
+      for (int i = 0; i < usePeriods.size(); i++) {
+        int idx = i;
+        totalRequestsPublicationYearsByPeriod.get(i).merge(aggregators.stream()
+            .map(a -> a.totalRequestsPublicationYearsByPeriod.get(idx))
+            .collect(Collectors.toList()));
+        uniqueRequestsPublicationYearsByPeriod.get(i).merge(aggregators.stream()
+            .map(a -> a.uniqueRequestsPublicationYearsByPeriod.get(idx))
+            .collect(Collectors.toList()));
+      }
+      items.merge(aggregators.stream().map(a -> a.items).collect(Collectors.toList()));
+    }
 
-        JsonObject uniqueItem = uniqueItems.get(itemKey);
-        if (uniqueItem != null) {
-          accessCountsByPeriods = uniqueItem.getJsonArray("accessCountsByPeriod");
-          uniqueItem.put("accessCountTotal", uniqueItem.getLong("accessCountTotal")
-              + uniqueAccessCount);
-        } else {
-          accessCountsByPeriods = new JsonArray();
-          uniqueItem = UseOverTime.createUniqueItem(row, accessType,
-              uniqueAccessCount, accessCountsByPeriods, usePeriods.size());
-          uniqueItem.put("publicationYear", pubPeriodLabel);
-          uniqueItems.put(itemKey, uniqueItem);
-          items.add(uniqueItem);
-        }
-        accessCountsByPeriods.set(idx, accessCountsByPeriods.getLong(idx) + uniqueAccessCount);
+    @Override
+    public JsonObject toJson(ItemPage page) {
+      long totalItemRequestsTotal = 0L;
+      long uniqueItemRequestsTotal = 0L;
+      for (int i = 0; i < usePeriods.size(); i++) {
+        totalItemRequestsTotal += totalItemRequestsByPeriod[i];
+        uniqueItemRequestsTotal += uniqueItemRequestsByPeriod[i];
       }
-    });
-    Long totalItemRequestsTotal = 0L;
-    Long uniqueItemRequestsTotal = 0L;
-    for (int i = 0; i < usePeriods.size(); i++) {
-      totalItemRequestsTotal += totalItemRequestsByPeriod.get(i);
-      uniqueItemRequestsTotal += uniqueItemRequestsByPeriod.get(i);
+      JsonObject json = new JsonObject()
+          .put("agreementId", agreementId)
+          .put("accessCountPeriods", usePeriods.getAccessCountPeriods())
+          .put("totalItemRequestsTotal", totalItemRequestsTotal)
+          .put("uniqueItemRequestsTotal", uniqueItemRequestsTotal)
+          .put("totalItemRequestsByPeriod", ReportItem.toJsonArray(totalItemRequestsByPeriod))
+          .put("uniqueItemRequestsByPeriod", ReportItem.toJsonArray(uniqueItemRequestsByPeriod))
+          .put("totalRequestsPublicationYearsByPeriod",
+              LabelCounts.toJsonArray(totalRequestsPublicationYearsByPeriod))
+          .put("uniqueRequestsPublicationYearsByPeriod",
+              LabelCounts.toJsonArray(uniqueRequestsPublicationYearsByPeriod))
+          .put("items", UseOverTime.toJsonArray(items.getItems(), page));
+      ReportAggregator.putItemsTotal(json, page, items.size());
+      log.debug("JSON={}", json::encodePrettily);
+      return json;
     }
-    JsonObject json = new JsonObject()
-        .put("agreementId", agreementId)
-        .put("accessCountPeriods", usePeriods.getAccessCountPeriods())
-        .put("totalItemRequestsTotal", totalItemRequestsTotal)
-        .put("uniqueItemRequestsTotal", uniqueItemRequestsTotal)
-        .put("totalItemRequestsByPeriod", new JsonArray(totalItemRequestsByPeriod))
-        .put("uniqueItemRequestsByPeriod", new JsonArray(uniqueItemRequestsByPeriod))
-        .put("totalRequestsPublicationYearsByPeriod", totalRequestsPublicationYearsByPeriod)
-        .put("uniqueRequestsPublicationYearsByPeriod", uniqueRequestsPublicationYearsByPeriod)
-        .put("items", items);
-    log.debug("JSON={}", () -> json.encodePrettily());
-    return json;
   }
-
 }
@@ -3,7 +3,6 @@ package org.folio.eusage.reports.api;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.sqlclient.Row;
-import io.vertx.sqlclient.RowSet;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -13,6 +12,7 @@ import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.UUID;
+import java.util.stream.Collectors;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -23,132 +23,171 @@ public final class ReqsByPubYear {
     throw new UnsupportedOperationException("Cannot instantiate utility class");
   }
 
-  static JsonObject titlesToJsonObject(RowSet<Row> rowSet, String agreementId,
-      Periods usePeriods, int pubPeriodInMonths) {
+  /**
+   * Requests by publication year.
+   *
+   * <p>The publication periods are only known when all rows are seen, so counts are kept
+   * by publication period in the order the periods are first seen and are sorted by
+   * {@link #toJson()}.
+   */
+  static final class Aggregator implements ReportAggregator {
+    private final String agreementId;
+    private final Periods usePeriods;
+    private final int pubPeriodInMonths;
+    /** Publication periods with usage. */
+    private final SortedSet<String> pubPeriodsSet = new TreeSet<>();
+    /** Index of counts for each publication period label. */
+    private final Map<String,Integer> pubPeriodIndex = new HashMap<>();
+    private long[] totalItemRequestsByPeriod = new long[0];
+    private long[] uniqueItemRequestsByPeriod = new long[0];
+    private final List<LabelCounts> totalRequestsPeriodsOfUseByPeriod = new ArrayList<>();
+    private final List<LabelCounts> uniqueRequestsPeriodsOfUseByPeriod = new ArrayList<>();
+    private final OrderedItems<ReportItem> items = new OrderedItems<>();
+    private final Map<ItemKey,ReportItem> totalItems = new HashMap<>();
+    private final Map<ItemKey,ReportItem> uniqueItems = new HashMap<>();
+    private final Set<UUID> kbIds = new TreeSet<>();
 
-    List<Long> totalItemRequestsByPeriod = new ArrayList<>();
-    JsonArray totalRequestsPeriodsOfUseByPeriod = new JsonArray();
-    List<Long> uniqueItemRequestsByPeriod = new ArrayList<>();
-    JsonArray uniqueRequestsPeriodsOfUseByPeriod = new JsonArray();
-    JsonArray items = new JsonArray();
-    Map<String,JsonObject> totalItems = new HashMap<>();
-    Map<String,JsonObject> uniqueItems = new HashMap<>();
-    Set<UUID> kbIds = new TreeSet<>();
-    SortedSet<String> pubPeriodsSet = new TreeSet<>();
+    Aggregator(String agreementId, Periods usePeriods, int pubPeriodInMonths) {
+      this.agreementId = agreementId;
+      this.usePeriods = usePeriods;
+      this.pubPeriodInMonths = pubPeriodInMonths;
+    }
+
+    private int getPubPeriodIndex(String pubPeriodLabel) {
+      return pubPeriodIndex.computeIfAbsent(pubPeriodLabel, x -> {
+        totalRequestsPeriodsOfUseByPeriod.add(new LabelCounts());
+        uniqueRequestsPeriodsOfUseByPeriod.add(new LabelCounts());
+        return pubPeriodIndex.size();
+      });
+    }
 
-    rowSet.forEach(row -> {
+    @Override
+    public void add(Row row, long seq) {
       Long totalAccessCount = row.getLong("totalaccesscount");
+      LocalDate publicationDate = row.getLocalDate("publicationdate");
+      String pubPeriodLabel = Periods.periodLabelFloor(publicationDate, pubPeriodInMonths,
+          "nopub");
       if (totalAccessCount != null && totalAccessCount > 0L) {
-        LocalDate publicationDate = row.getLocalDate("publicationdate");
-        String pubPeriodLabel = Periods.periodLabelFloor(publicationDate,
-            pubPeriodInMonths, "nopub");
         pubPeriodsSet.add(pubPeriodLabel);
       }
-    });
-    Map<String,Integer> pubYearIndexMap = new HashMap<>();
-    JsonArray accessCountsPeriods = new JsonArray();
-    int numPubPeriods = 0;
-    for (String p : pubPeriodsSet) {
-      pubYearIndexMap.put(p, numPubPeriods++);
-      totalItemRequestsByPeriod.add(0L);
-      uniqueItemRequestsByPeriod.add(0L);
-      totalRequestsPeriodsOfUseByPeriod.add(new JsonObject());
-      uniqueRequestsPeriodsOfUseByPeriod.add(new JsonObject());
-      accessCountsPeriods.add(p);
-    }
-    rowSet.forEach(row -> {
       UUID kbId = row.getUUID("kbid");
-      String usageDateRange = row.getString("usagedaterange");
-      if (usageDateRange == null) {
+      LocalDate usageDate = row.getLocalDate("usagestart");
+      if (usageDate == null) {
         if (kbIds.add(kbId)) {
-          JsonObject item = UseOverTime.createNonMatchedItem(row, pubYearIndexMap.size());
-          items.add(item);
+          items.add(UseOverTime.createNonMatchedItem(row, 0), seq);
         }
         return;
       }
       kbIds.add(kbId);
-      Long totalAccessCount = row.getLong("totalaccesscount");
-      Long uniqueAccessCount = row.getLong("uniqueaccesscount");
-      LocalDate usageStart = usePeriods.floorMonths(LocalDate.parse(
-          usageDateRange.substring(1, 11)));
+      long uniqueAccessCount = row.getLong("uniqueaccesscount");
+      LocalDate usageStart = usePeriods.floorMonths(usageDate);
       final String usePeriodLabel = usePeriods.periodLabel(usageStart);
+      final int usePeriodIdx = usePeriods.getPeriodEntry(usageStart);
+      final int idx = getPubPeriodIndex(pubPeriodLabel);
 
-      LocalDate publicationDate = row.getLocalDate("publicationdate");
-      String pubPeriodLabel = Periods.periodLabelFloor(publicationDate, pubPeriodInMonths,
-          "nopub");
+      totalItemRequestsByPeriod = ReportItem.add(totalItemRequestsByPeriod, idx,
+          totalAccessCount);
+      uniqueItemRequestsByPeriod = ReportItem.add(uniqueItemRequestsByPeriod, idx,
+          uniqueAccessCount);
 
-      String accessType = row.getBoolean("openaccess") ? "OA_Gold" : "Controlled";
-      String itemKey = kbId + "," + usePeriodLabel + "," + accessType;
-      String dupKey = itemKey + "," + publicationDate + "," + usageDateRange;
-      Integer idx = pubYearIndexMap.get(pubPeriodLabel);
-      if (idx != null) {
-        totalItemRequestsByPeriod.set(idx, totalAccessCount
-            + totalItemRequestsByPeriod.get(idx));
+      totalRequestsPeriodsOfUseByPeriod.get(idx).add(usePeriodLabel, totalAccessCount, seq);
+      uniqueRequestsPeriodsOfUseByPeriod.get(idx).add(usePeriodLabel, uniqueAccessCount, seq);
 
-        uniqueItemRequestsByPeriod.set(idx, uniqueAccessCount
-            + uniqueItemRequestsByPeriod.get(idx));
-
-        JsonObject o = totalRequestsPeriodsOfUseByPeriod.getJsonObject(idx);
-        Long totalAccessCountPeriod = o.getLong(usePeriodLabel, 0L);
-        o.put(usePeriodLabel, totalAccessCountPeriod + totalAccessCount);
+      boolean openAccess = row.getBoolean("openaccess");
+      String accessType = openAccess ? "OA_Gold" : "Controlled";
+      ItemKey itemKey = new ItemKey(kbId, usePeriodIdx, openAccess);
+      ReportItem totalItem = totalItems.get(itemKey);
+      if (totalItem == null) {
+        totalItem = UseOverTime.createTotalItem(row, accessType, 0);
+        totalItem.getJson().put("periodOfUse", usePeriodLabel);
+        items.add(totalItem, seq);
+        totalItems.put(itemKey, totalItem);
+      }
+      totalItem.add(idx, totalAccessCount);
 
-        o = uniqueRequestsPeriodsOfUseByPeriod.getJsonObject(idx);
-        Long uniqueAccessCountPeriod = o.getLong(usePeriodLabel, 0L);
-        o.put(usePeriodLabel, uniqueAccessCountPeriod + uniqueAccessCount);
+      ReportItem uniqueItem = uniqueItems.get(itemKey);
+      if (uniqueItem == null) {
+        uniqueItem = UseOverTime.createUniqueItem(row, accessType, 0);
+        uniqueItem.rankWith(totalItem);
+        uniqueItem.getJson().put("periodOfUse", usePeriodLabel);
+        uniqueItems.put(itemKey, uniqueItem);
+        items.add(uniqueItem, seq);
       }
+      uniqueItem.add(idx, uniqueAccessCount);
+    }
 
-      JsonObject totalItem = totalItems.get(itemKey);
-      JsonArray accessCountsByPeriod;
-      if (totalItem != null) {
-        accessCountsByPeriod = totalItem.getJsonArray("accessCountsByPeriod");
-        totalItem.put("accessCountTotal", totalAccessCount
-            + totalItem.getLong("accessCountTotal"));
-      } else {
-        accessCountsByPeriod = new JsonArray();
-        totalItem = UseOverTime.createTotalItem(row, accessType,
-            totalAccessCount, accessCountsByPeriod, pubYearIndexMap.size());
-        totalItem.put("periodOfUse", usePeriodLabel);
-        items.add(totalItem);
-        totalItems.put(itemKey, totalItem);
+    @Override
+    public void merge(List<ReportAggregator> parts) {
+      List<Aggregator> aggregators = ReportAggregator.parts(parts, Aggregator.class);
+      // counts of each publication period index of this report
+      List<List<LabelCounts>> totalPeriodsOfUse = new ArrayList<>();
+      List<List<LabelCounts>> uniquePeriodsOfUse = new ArrayList<>();
+      for (Aggregator part : aggregators) {
+        pubPeriodsSet.addAll(part.pubPeriodsSet);
+        int[] newIdx = new int[part.pubPeriodIndex.size()];
+        part.pubPeriodIndex.forEach((label, idx) -> newIdx[idx] = getPubPeriodIndex(label));
+        for (int i = 0; i < newIdx.length; i++) {
+          totalItemRequestsByPeriod = ReportItem.add(totalItemRequestsByPeriod, newIdx[i],
+              ReportItem.get(part.totalItemRequestsByPeriod, i));
+          uniqueItemRequestsByPeriod = ReportItem.add(uniqueItemRequestsByPeriod, newIdx[i],
+              ReportItem.get(part.uniqueItemRequestsByPeriod, i));
+          while (totalPeriodsOfUse.size() <= newIdx[i]) {
+            totalPeriodsOfUse.add(new ArrayList<>());
+            uniquePeriodsOfUse.add(new ArrayList<>());
+          }
+          totalPeriodsOfUse.get(newIdx[i]).add(part.totalRequestsPeriodsOfUseByPeriod.get(i));
+          uniquePeriodsOfUse.get(newIdx[i]).add(part.uniqueRequestsPeriodsOfUseByPeriod.get(i));
+        }
+        // items of the part are only used by this report now
+        part.items.getItems().forEach(item -> item.remap(newIdx));
       }
-      if (idx != null) {
-        accessCountsByPeriod.set(idx, accessCountsByPeriod.getLong(idx) + totalAccessCount);
+      for (int i = 0; i < totalPeriodsOfUse.size(); i++) {
+        totalRequestsPeriodsOfUseByPeriod.get(i).merge(totalPeriodsOfUse.get(i));
+        uniqueRequestsPeriodsOfUseByPeriod.get(i).merge(uniquePeriodsOfUse.get(i));
       }
+      items.merge(aggregators.stream().map(a -> a.items).collect(Collectors.toList()));
+    }
 
-      JsonObject uniqueItem = uniqueItems.get(itemKey);
-      if (uniqueItem != null) {
-        accessCountsByPeriod = uniqueItem.getJsonArray("accessCountsByPeriod");
-        uniqueItem.put("accessCountTotal", uniqueAccessCount
-            + uniqueItem.getLong("accessCountTotal"));
-      } else {
-        accessCountsByPeriod = new JsonArray();
-        uniqueItem = UseOverTime.createUniqueItem(row, accessType,
-            uniqueAccessCount, accessCountsByPeriod, pubYearIndexMap.size());
-        uniqueItem.put("periodOfUse", usePeriodLabel);
-        uniqueItems.put(itemKey, uniqueItem);
-        items.add(uniqueItem);
-      }
-      if (idx != null) {
-        accessCountsByPeriod.set(idx, accessCountsByPeriod.getLong(idx) + uniqueAccessCount);
+    @Override
+    public JsonObject toJson(ItemPage page) {
+      // only publication periods with usage are reported, in sorted order
+      int[] periods = new int[pubPeriodsSet.size()];
+      JsonArray accessCountsPeriods = new JsonArray();
+      JsonArray totalByPeriod = new JsonArray();
+      JsonArray uniqueByPeriod = new JsonArray();
+      JsonArray totalPeriodsOfUse = new JsonArray();
+      JsonArray uniquePeriodsOfUse = new JsonArray();
+      long totalItemRequestsTotal = 0L;
+      long uniqueItemRequestsTotal = 0L;
+      int i = 0;
+      for (String p : pubPeriodsSet) {
+        int idx = getPubPeriodIndex(p);
+        periods[i++] = idx;
+        accessCountsPeriods.add(p);
+        long total = ReportItem.get(totalItemRequestsByPeriod, idx);
+        long unique = ReportItem.get(uniqueItemRequestsByPeriod, idx);
+        totalByPeriod.add(total);
+        uniqueByPeriod.add(unique);
+        totalItemRequestsTotal += total;
+        uniqueItemRequestsTotal += unique;
+        totalPeriodsOfUse.add(totalRequestsPeriodsOfUseByPeriod.get(idx).toJson());
+        uniquePeriodsOfUse.add(uniqueRequestsPeriodsOfUseByPeriod.get(idx).toJson());
       }
-    });
-    Long totalItemRequestsTotal = 0L;
-    Long uniqueItemRequestsTotal = 0L;
-    for (int i = 0; i < totalItemRequestsByPeriod.size(); i++) {
-      totalItemRequestsTotal += totalItemRequestsByPeriod.get(i);
-      uniqueItemRequestsTotal += uniqueItemRequestsByPeriod.get(i);
+      JsonArray itemsArray = ReportAggregator.toJsonArray(
+          page.select(items.getItems(), ReportItem::getRequests), item -> item.toJson(periods));
+      JsonObject json = new JsonObject()
+          .put("agreementId", agreementId)
+          .put("accessCountPeriods", accessCountsPeriods)
+          .put("totalItemRequestsTotal", totalItemRequestsTotal)
+          .put("totalItemRequestsByPeriod", totalByPeriod)
+          .put("totalRequestsPeriodsOfUseByPeriod", totalPeriodsOfUse)
+          .put("uniqueItemRequestsTotal", uniqueItemRequestsTotal)
+          .put("uniqueItemRequestsByPeriod", uniqueByPeriod)
+          .put("uniqueRequestsPeriodsOfUseByPeriod", uniquePeriodsOfUse)
+          .put("items", itemsArray);
+      ReportAggregator.putItemsTotal(json, page, items.size());
+      log.debug("JSON={}", json::encodePrettily);
+      return json;
     }
-    JsonObject json = new JsonObject()
-        .put("agreementId", agreementId)
-        .put("accessCountPeriods", accessCountsPeriods)
-        .put("totalItemRequestsTotal", totalItemRequestsTotal)
-        .put("totalItemRequestsByPeriod", totalItemRequestsByPeriod)
-        .put("totalRequestsPeriodsOfUseByPeriod", totalRequestsPeriodsOfUseByPeriod)
-        .put("uniqueItemRequestsTotal", uniqueItemRequestsTotal)
-        .put("uniqueItemRequestsByPeriod", uniqueItemRequestsByPeriod)
-        .put("uniqueRequestsPeriodsOfUseByPeriod", uniqueRequestsPeriodsOfUseByPeriod)
-        .put("items", items);
-    log.debug("JSON={}", json::encodePrettily);
-    return json;
   }
 }
@@ -3,15 +3,14 @@ package org.folio.eusage.reports.api;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.sqlclient.Row;
-import io.vertx.sqlclient.RowSet;
 import java.time.LocalDate;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.UUID;
+import java.util.stream.Collectors;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -22,29 +21,21 @@ public final class UseOverTime {
     throw new UnsupportedOperationException("Cannot instantiate utility class");
   }
 
-  static JsonObject createTotalItem(Row row, String accessType, Long totalAccessCount,
-      JsonArray accessCountsByPeriods, int periodSize) {
-    return createItem(row, accessType, "Total_Item_Requests",
-        totalAccessCount, accessCountsByPeriods, periodSize);
+  static ReportItem createTotalItem(Row row, String accessType, int periodSize) {
+    return createItem(row, accessType, "Total_Item_Requests", periodSize);
   }
 
-  static JsonObject createUniqueItem(Row row, String accessType, Long totalAccessCount,
-      JsonArray accessCountsByPeriods, int periodSize) {
-    return createItem(row, accessType, "Unique_Item_Requests",
-        totalAccessCount, accessCountsByPeriods, periodSize);
+  static ReportItem createUniqueItem(Row row, String accessType, int periodSize) {
+    return createItem(row, accessType, "Unique_Item_Requests", periodSize);
   }
 
-  static JsonObject createNonMatchedItem(Row row, int periodSize) {
-    return createItem(row, null, null,
-        0L, new JsonArray(), periodSize);
+  static ReportItem createNonMatchedItem(Row row, int periodSize) {
+    return createItem(row, null, null, periodSize);
   }
 
-  private static JsonObject createItem(Row row, String accessType, String metricType,
-      Long totalAccessCount, JsonArray accessCountsByPeriods, int periodSize) {
+  private static ReportItem createItem(Row row, String accessType, String metricType,
+      int periodSize) {
 
-    for (int i = 0; i < periodSize; i++) {
-      accessCountsByPeriods.add(0L);
-    }
     JsonObject o = new JsonObject()
         .put("kbId", row.getUUID("kbid"))
         .put("title", row.getString("title"));
@@ -60,100 +51,121 @@ public final class UseOverTime {
     if (v != null) {
       o.put("ISBN", v);
     }
+    // counts are set by ReportItem.toJson
     o.put("accessType", accessType)
         .put("metricType", metricType)
-        .put("accessCountTotal", totalAccessCount)
-        .put("accessCountsByPeriod", accessCountsByPeriods);
-    return o;
+        .put("accessCountTotal", 0L)
+        .put("accessCountsByPeriod", new JsonArray());
+    return new ReportItem(o, periodSize);
   }
 
-  static JsonObject titlesToJsonObject(RowSet<Row> rowSet, String agreementId, Periods usePeriods) {
+  static JsonArray toJsonArray(List<ReportItem> items, ItemPage page) {
+    return ReportAggregator.toJsonArray(page.select(items, ReportItem::getRequests),
+        ReportItem::toJson);
+  }
 
-    List<Long> totalItemRequestsByPeriod = new ArrayList<>();
-    List<Long> uniqueItemRequestsByPeriod = new ArrayList<>();
-    Map<String,JsonObject> totalItems = new HashMap<>();
-    Map<String,JsonObject> uniqueItems = new HashMap<>();
-    Set<UUID> kbIds = new TreeSet<>();
+  /**
+   * Add counts of partial reports.
+   * @param counts counts by period of report.
+   * @param parts counts by period of partial reports.
+   */
+  static void addCounts(long[] counts, List<long[]> parts) {
+    for (long[] part : parts) {
+      for (int i = 0; i < counts.length; i++) {
+        counts[i] += part[i];
+      }
+    }
+  }
 
-    JsonArray items = new JsonArray();
-    for (int i = 0; i < usePeriods.size(); i++) {
-      totalItemRequestsByPeriod.add(0L);
-      uniqueItemRequestsByPeriod.add(0L);
+  static final class Aggregator implements ReportAggregator {
+    private final String agreementId;
+    private final Periods usePeriods;
+    private final long[] totalItemRequestsByPeriod;
+    private final long[] uniqueItemRequestsByPeriod;
+    private final Map<ItemKey,ReportItem> totalItems = new HashMap<>();
+    private final Map<ItemKey,ReportItem> uniqueItems = new HashMap<>();
+    private final Set<UUID> kbIds = new TreeSet<>();
+    private final OrderedItems<ReportItem> items = new OrderedItems<>();
+
+    Aggregator(String agreementId, Periods usePeriods) {
+      this.agreementId = agreementId;
+      this.usePeriods = usePeriods;
+      totalItemRequestsByPeriod = new long[usePeriods.size()];
+      uniqueItemRequestsByPeriod = new long[usePeriods.size()];
     }
-    rowSet.forEach(row -> {
-      log.debug("useOverTime row: {}", () -> row.deepToString());
+
+    @Override
+    public void add(Row row, long seq) {
+      log.debug("useOverTime row: {}", row::deepToString);
       UUID kbId = row.getUUID("kbid");
-      String usageDateRange = row.getString("usagedaterange");
+      LocalDate usageDate = row.getLocalDate("usagestart");
 
-      if (usageDateRange == null) {
+      if (usageDate == null) {
         if (kbIds.add(kbId)) {
-          JsonObject item = createNonMatchedItem(row, usePeriods.size());
-          items.add(item);
+          items.add(createNonMatchedItem(row, usePeriods.size()), seq);
         }
         return;
       }
       kbIds.add(kbId);
-      String accessType = row.getBoolean("openaccess") ? "OA_Gold" : "Controlled";
-      String itemKey = kbId + "," + accessType;
-      LocalDate usageStart = usePeriods.floorMonths(LocalDate.parse(
-          usageDateRange.substring(1, 11)));
+      boolean openAccess = row.getBoolean("openaccess");
+      String accessType = openAccess ? "OA_Gold" : "Controlled";
+      ItemKey itemKey = new ItemKey(kbId, 0, openAccess);
+      LocalDate usageStart = usePeriods.floorMonths(usageDate);
       int idx = usePeriods.getPeriodEntry(usageStart);
 
-      Long totalAccessCount = row.getLong("totalaccesscount");
-      Long uniqueAccessCount = row.getLong("uniqueaccesscount");
-
-      totalItemRequestsByPeriod.set(idx, totalAccessCount
-          + totalItemRequestsByPeriod.get(idx));
-
-      uniqueItemRequestsByPeriod.set(idx, uniqueAccessCount
-          + uniqueItemRequestsByPeriod.get(idx));
-
-      JsonObject totalItem = totalItems.get(itemKey);
-      JsonArray accessCountsByPeriods;
-      if (totalItem != null) {
-        accessCountsByPeriods = totalItem.getJsonArray("accessCountsByPeriod");
-        totalItem.put("accessCountTotal", totalItem.getLong("accessCountTotal")
-            + totalAccessCount);
-      } else {
-        accessCountsByPeriods = new JsonArray();
-        totalItem = createTotalItem(row, accessType, totalAccessCount,
-            accessCountsByPeriods, usePeriods.size());
-        items.add(totalItem);
+      long totalAccessCount = row.getLong("totalaccesscount");
+      long uniqueAccessCount = row.getLong("uniqueaccesscount");
+
+      totalItemRequestsByPeriod[idx] += totalAccessCount;
+      uniqueItemRequestsByPeriod[idx] += uniqueAccessCount;
+
+      ReportItem totalItem = totalItems.get(itemKey);
+      if (totalItem == null) {
+        totalItem = createTotalItem(row, accessType, usePeriods.size());
+        items.add(totalItem, seq);
         totalItems.put(itemKey, totalItem);
       }
-      accessCountsByPeriods.set(idx, accessCountsByPeriods.getLong(idx) + totalAccessCount);
-
-      JsonObject uniqueItem = uniqueItems.get(itemKey);
-      if (uniqueItem != null) {
-        accessCountsByPeriods = uniqueItem.getJsonArray("accessCountsByPeriod");
-        uniqueItem.put("accessCountTotal", uniqueItem.getLong("accessCountTotal")
-            + uniqueAccessCount);
-      } else {
-        accessCountsByPeriods = new JsonArray();
-        uniqueItem = createUniqueItem(row, accessType, uniqueAccessCount,
-            accessCountsByPeriods, usePeriods.size());
+      totalItem.add(idx, totalAccessCount);
+
+      ReportItem uniqueItem = uniqueItems.get(itemKey);
+      if (uniqueItem == null) {
+        uniqueItem = createUniqueItem(row, accessType, usePeriods.size());
+        uniqueItem.rankWith(totalItem);
         uniqueItems.put(itemKey, uniqueItem);
-        items.add(uniqueItem);
+        items.add(uniqueItem, seq);
       }
-      accessCountsByPeriods.set(idx, accessCountsByPeriods.getLong(idx) + uniqueAccessCount);
-    });
-    Long totalItemRequestsTotal = 0L;
-    Long uniqueItemRequestsTotal = 0L;
-    for (int i = 0; i < usePeriods.size(); i++) {
-      totalItemRequestsTotal += totalItemRequestsByPeriod.get(i);
-      uniqueItemRequestsTotal += uniqueItemRequestsByPeriod.get(i);
+      uniqueItem.add(idx, uniqueAccessCount);
     }
-    JsonObject json = new JsonObject()
-        .put("agreementId", agreementId)
-        .put("accessCountPeriods", usePeriods.getAccessCountPeriods())
-        .put("totalItemRequestsTotal", totalItemRequestsTotal)
-        .put("uniqueItemRequestsTotal", uniqueItemRequestsTotal)
-        .put("totalItemRequestsByPeriod", new JsonArray(totalItemRequestsByPeriod))
-        .put("uniqueItemRequestsByPeriod", new JsonArray(uniqueItemRequestsByPeriod))
-        .put("items", items);
-    log.debug("useOverTime: JSON {}", () -> json.encodePrettily());
-    return json;
-  }
 
+    @Override
+    public void merge(List<ReportAggregator> parts) {
+      List<Aggregator> aggregators = ReportAggregator.parts(parts, Aggregator.class);
+      addCounts(totalItemRequestsByPeriod, aggregators.stream()
+          .map(a -> a.totalItemRequestsByPeriod).collect(Collectors.toList()));
+      addCounts(uniqueItemRequestsByPeriod, aggregators.stream()
+          .map(a -> a.uniqueItemRequestsByPeriod).collect(Collectors.toList()));
+      items.merge(aggregators.stream().map(a -> a.items).collect(Collectors.toList()));
+    }
 
+    @Override
+    public JsonObject toJson(ItemPage page) {
+      long totalItemRequestsTotal = 0L;
+      long uniqueItemRequestsTotal = 0L;
+      for (int i = 0; i < usePeriods.size(); i++) {
+        totalItemRequestsTotal += totalItemRequestsByPeriod[i];
+        uniqueItemRequestsTotal += uniqueItemRequestsByPeriod[i];
+      }
+      JsonObject json = new JsonObject()
+          .put("agreementId", agreementId)
+          .put("accessCountPeriods", usePeriods.getAccessCountPeriods())
+          .put("totalItemRequestsTotal", totalItemRequestsTotal)
+          .put("uniqueItemRequestsTotal", uniqueItemRequestsTotal)
+          .put("totalItemRequestsByPeriod", ReportItem.toJsonArray(totalItemRequestsByPeriod))
+          .put("uniqueItemRequestsByPeriod", ReportItem.toJsonArray(uniqueItemRequestsByPeriod))
+          .put("items", toJsonArray(items.getItems(), page));
+      ReportAggregator.putItemsTotal(json, page, items.size());
+      log.debug("useOverTime: JSON {}", json::encodePrettily);
+      return json;
+    }
+  }
 }
@@ -716,7 +716,9 @@ public class MainVerticleTest {
         .listen(MOCK_PORT)
         .compose(x -> {
           DeploymentOptions deploymentOptions = new DeploymentOptions();
-          deploymentOptions.setConfig(new JsonObject().put("port", Integer.toString(MODULE_PORT)));
+          deploymentOptions.setConfig(new JsonObject()
+              .put("port", Integer.toString(MODULE_PORT))
+              .put("ermPrefetch", "3"));
           return vertx.deployVerticle(new MainVerticle(), deploymentOptions);
         })
         .onComplete(context.asyncAssertSuccess());
@@ -1607,7 +1609,34 @@ public class MainVerticleTest {
         .then().statusCode(200)
         .body("id", is(goodAgreementId.toString()))
         .body("lastUpdated", Matchers.not(isEmptyOrNullString()))
-        .body("active", is(false));
+        .body("active", is(false))
+        .body("rowCount", Matchers.greaterThan(0))
+        .body("writeMillis", Matchers.greaterThanOrEqualTo(0));
+
+    String useOverTimeUri = "/eusage-reports/stored-reports/use-over-time?agreementId="
+        + goodAgreementId + "&startDate=2020-01&endDate=2020-12";
+    String etag = RestAssured.given()
+        .header(XOkapiHeaders.TENANT, tenant)
+        .get(useOverTimeUri)
+        .then().statusCode(200)
+        .header("ETag", Matchers.startsWith("W/"))
+        .header("Last-Modified", Matchers.notNullValue())
+        .extract().header("ETag");
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, tenant)
+        .header("If-None-Match", etag)
+        .get(useOverTimeUri)
+        .then().statusCode(304)
+        .header("ETag", is(etag));
+
+    // parameters are checked before the ETag
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, tenant)
+        .header("If-None-Match", etag)
+        .get("/eusage-reports/stored-reports/use-over-time?agreementId="
+            + goodAgreementId + "&startDate=2020-12&endDate=2020-01")
+        .then().statusCode(400);
 
     // running the from-agreement twice (wiping out the ond one above)
     response = RestAssured.given()
@@ -1624,6 +1653,36 @@ public class MainVerticleTest {
     resObject = new JsonObject(response.body().asString());
     context.assertEquals(4, resObject.getInteger("reportLinesCreated"));
 
+    // population gives the agreement a new data version
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, tenant)
+        .header("If-None-Match", etag)
+        .get(useOverTimeUri)
+        .then().statusCode(200)
+        .header("ETag", Matchers.not(etag));
+
+    // refresh all agreements with status: good one and the two that failed above
+    response = RestAssured.given()
+        .header(XOkapiHeaders.TENANT, tenant)
+        .header(XOkapiHeaders.URL, "http://localhost:" + MOCK_PORT)
+        .post("/eusage-reports/report-data/from-agreements")
+        .then().statusCode(200)
+        .header("Content-Type", is("application/json"))
+        .extract();
+    resObject = new JsonObject(response.body().asString());
+    context.assertEquals(1, resObject.getInteger("agreements"));
+    context.assertEquals(0, resObject.getInteger("agreementsNotFound"));
+    context.assertEquals(2, resObject.getInteger("agreementsFailed"));
+    context.assertEquals(4, resObject.getInteger("reportLinesCreated"));
+
+    RestAssured.given()
+        .header(XOkapiHeaders.TENANT, tenant)
+        .header(XOkapiHeaders.URL, "http://localhost:" + MOCK_PORT)
+        .get("/eusage-reports/report-data/status/" + goodAgreementId)
+        .then().statusCode(200)
+        .body("active", is(false))
+        .body("fetchMillis", Matchers.greaterThanOrEqualTo(0));
+
     RestAssured.given()
         .header(XOkapiHeaders.TENANT, tenant)
         .header(XOkapiHeaders.URL, "http://localhost:" + MOCK_PORT)
@@ -0,0 +1,95 @@
+package org.folio.eusage.reports.api;
+
+import io.vertx.core.Future;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.folio.eusage.reports.api.JsonReportWriterTest.BufferStream;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CsvReportWriterTest {
+
+  static JsonObject useOverTime(int items) {
+    JsonArray ar = new JsonArray();
+    for (int i = 0; i < items; i++) {
+      ar.add(new JsonObject()
+          .put("title", "Title, \"" + i + "\"")
+          .put("printISSN", "1234-5678")
+          .put("publicationYear", "2010")
+          .put("periodOfUse", "2020-01 - 2020-06")
+          .put("accessType", "Controlled")
+          .put("metricType", "Total_Item_Requests")
+          .put("accessCountTotal", 3L * i)
+          .put("accessCountsByPeriod", new JsonArray().add(i).add(2 * i)));
+    }
+    return new JsonObject()
+        .put("accessCountPeriods", new JsonArray().add("2020-01").add("2020-02"))
+        .put("totalItemRequestsTotal", 10L)
+        .put("totalItemRequestsByPeriod", new JsonArray().add(4L).add(6L))
+        .put("uniqueItemRequestsTotal", 5L)
+        .put("uniqueItemRequestsByPeriod", new JsonArray().add(2L).add(3L))
+        .put("items", ar);
+  }
+
+  static JsonObject costPerUse(int items) {
+    JsonArray ar = new JsonArray();
+    for (int i = 0; i < items; i++) {
+      ar.add(new JsonObject()
+          .put("title", "Title " + i)
+          .put("derivedTitle", i % 2 == 0)
+          .put("poLineIDs", new JsonArray().add("p1").add("p2"))
+          .put("amountPaid", "10.00")
+          .put("totalItemRequests", (long) i)
+          .put("uniqueItemRequests", 1L)
+          .put("costPerTotalRequest", 1.5)
+          .put("costPerUniqueRequest", 10.0));
+    }
+    return new JsonObject()
+        .put("amountPaidTotal", 100.0)
+        .put("items", ar);
+  }
+
+  @Test
+  public void testUseOverTime() {
+    for (int items : new int[] {0, 3, 20000}) {
+      JsonObject json = useOverTime(items);
+      BufferStream stream = new BufferStream();
+      Future<Void> future = CsvReports.writeUseOverTime2Csv(stream, json, true, true);
+      stream.drain();
+      Assert.assertTrue(future.succeeded());
+      Assert.assertEquals(CsvReports.getUseOverTime2Csv(json, true, true), stream.data.toString());
+    }
+  }
+
+  @Test
+  public void testUseOverTimeChunks() {
+    JsonObject json = useOverTime(20000);
+    BufferStream stream = new BufferStream();
+    CsvReports.writeUseOverTime2Csv(stream, json, false, false);
+    stream.drain();
+    Assert.assertTrue(stream.writes > 1);
+    Assert.assertEquals(CsvReports.getUseOverTime2Csv(json, false, false),
+        stream.data.toString());
+  }
+
+  @Test
+  public void testCostPerUse() {
+    JsonObject json = costPerUse(20000);
+    BufferStream stream = new BufferStream();
+    Future<Void> future = CsvReports.writeCostPerUse2Csv(stream, json);
+    stream.drain();
+    Assert.assertTrue(future.succeeded());
+    Assert.assertTrue(stream.writes > 1);
+    Assert.assertEquals(CsvReports.getCostPerUse2Csv(json), stream.data.toString());
+  }
+
+  @Test
+  public void testCostPerUseNoItems() {
+    JsonObject json = costPerUse(0);
+    json.remove("items");
+    BufferStream stream = new BufferStream();
+    Future<Void> future = CsvReports.writeCostPerUse2Csv(stream, json);
+    Assert.assertTrue(future.succeeded());
+    Assert.assertEquals(CsvReports.getCostPerUse2Csv(json), stream.data.toString());
+  }
+}
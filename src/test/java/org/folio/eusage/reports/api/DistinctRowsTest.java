@@ -0,0 +1,91 @@
+package org.folio.eusage.reports.api;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.vertx.sqlclient.Row;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DistinctRowsTest {
+  static final List<String> COLUMNS = Arrays.asList("title", "n", "extra");
+
+  static Row row(Object... values) {
+    Row row = mock(Row.class);
+    when(row.size()).thenReturn(values.length);
+    when(row.getValue(anyInt())).thenAnswer(a -> values[(Integer) a.getArgument(0)]);
+    when(row.getColumnIndex(anyString())).thenAnswer(a -> COLUMNS.indexOf(a.getArgument(0)));
+    when(row.getValue(anyString()))
+        .thenAnswer(a -> values[COLUMNS.indexOf((String) a.getArgument(0))]);
+    return row;
+  }
+
+  static List<Row> filter(DistinctRowsFactory factory, Row... rows) {
+    List<Row> result = new ArrayList<>();
+    DistinctRows distinctRows = factory.create(result::add);
+    for (Row row : rows) {
+      distinctRows.accept(row);
+    }
+    return result;
+  }
+
+  interface DistinctRowsFactory {
+    DistinctRows create(Consumer<Row> handler);
+  }
+
+  @Test
+  public void testDuplicatesInGroup() {
+    Row a1 = row("a", 1, "x");
+    Row a2 = row("a", 2, "x");
+    Row a1Again = row("a", 1, "x");
+    Row b1 = row("b", 1, "x");
+    Assert.assertEquals(Arrays.asList(a1, a2, b1),
+        filter(h -> new DistinctRows("title", h), a1, a2, a1Again, b1));
+  }
+
+  @Test
+  public void testEqualRowsInDifferentGroups() {
+    Row a1 = row("a", 1, "x");
+    Row b1 = row("b", 1, "x");
+    // a row equal to one of an earlier group is not expected after that group has ended,
+    // so it is passed on; only the current group is kept in memory
+    Row a1Later = row("a", 1, "x");
+    Assert.assertEquals(Arrays.asList(a1, b1, a1Later),
+        filter(h -> new DistinctRows("title", h), a1, b1, a1Later));
+  }
+
+  @Test
+  public void testLeadingColumns() {
+    Row a1x = row("a", 1, "x");
+    Row a1y = row("a", 1, "y");
+    Row a2y = row("a", 2, "y");
+    Assert.assertEquals(Arrays.asList(a1x, a2y),
+        filter(h -> new DistinctRows("title, n", 2, h), a1x, a1y, a2y));
+    Assert.assertEquals(Arrays.asList(a1x, a1y, a2y),
+        filter(h -> new DistinctRows("title, n", h), a1x, a1y, a2y));
+  }
+
+  @Test
+  public void testOrderByTerms() {
+    Assert.assertArrayEquals(new String[] {"title", "n", "extra"},
+        DistinctRows.orderByColumns(" Title DESC, n ASC NULLS FIRST ,extra nulls last"));
+    for (String orderBy : Arrays.asList("t.title", "lower(title)", "title collate \"C\"",
+        "title,", "1")) {
+      Assert.assertThrows(orderBy, IllegalArgumentException.class,
+          () -> new DistinctRows(orderBy, h -> { }));
+    }
+  }
+
+  @Test
+  public void testUnknownColumn() {
+    DistinctRows distinctRows = new DistinctRows("title, missing", h -> { });
+    Row row = row("a", 1, "x");
+    Assert.assertThrows(IllegalArgumentException.class, () -> distinctRows.accept(row));
+  }
+}
@@ -1,7 +1,10 @@
 package org.folio.eusage.reports.api;
 
 import static org.folio.eusage.reports.api.EusageReportsApi.agreementEntriesTable;
+import static org.folio.eusage.reports.api.EusageReportsApi.agreementTitlesTable;
 import static org.folio.eusage.reports.api.EusageReportsApi.packageEntriesTable;
+import static org.folio.eusage.reports.api.EusageReportsApi.statusTable;
+import static org.folio.eusage.reports.api.EusageReportsApi.titleDataMonthsTable;
 import static org.folio.eusage.reports.api.EusageReportsApi.titleDataTable;
 import static org.folio.eusage.reports.api.EusageReportsApi.titleEntriesTable;
 import static org.hamcrest.Matchers.not;
@@ -13,11 +16,13 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.junit.Assert.assertThrows;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.atLeast;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import io.vertx.core.Future;
 import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.unit.TestContext;
@@ -46,6 +51,10 @@ import org.testcontainers.containers.PostgreSQLContainer;
 import java.io.IOException;
 import java.io.StringReader;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
 
@@ -94,18 +103,209 @@ public class EusageReportsApiTest {
     EusageReportsApi api = new EusageReportsApi(webClient);
     UUID agreementId = UUID.randomUUID();
 
-    api.populateAgreementLine( null, null, new JsonObject(), agreementId, null)
+    api.populateAgreementLine(null, new AgreementPlan(agreementId), new JsonObject(), null)
         .onComplete(context.asyncAssertFailure(x ->
             context.assertTrue(x.getMessage().contains("Failed to decode agreement line:"), x.getMessage())));
   }
 
+  @Test
+  public void testErmPrefetchInvalid() {
+    EusageReportsApi api = new EusageReportsApi(webClient);
+    Throwable t = assertThrows(IllegalArgumentException.class, () -> api.setErmPrefetch(0));
+    assertThat(t.getMessage(), is("ermPrefetch must be 1 or higher: 0"));
+  }
+
+  @Test
+  public void testRefreshConcurrencyInvalid() {
+    EusageReportsApi api = new EusageReportsApi(webClient);
+    Throwable t = assertThrows(IllegalArgumentException.class, () -> api.setRefreshConcurrency(0));
+    assertThat(t.getMessage(), is("refreshConcurrency must be 1 or higher: 0"));
+  }
+
+  @Test
+  public void testClaimAgreement(TestContext context) {
+    UUID agreementId = UUID.randomUUID();
+    EusageReportsApi.claimAgreement(pool, agreementId)
+        .compose(other -> {
+          assertThat(other, is(nullValue()));
+          return EusageReportsApi.claimAgreement(pool, agreementId);
+        })
+        .compose(other -> {
+          assertThat(other.getBoolean("active"), is(true));
+          // claim left over from an instance that stopped
+          JsonObject status = other.copy().put("lastUpdated",
+              LocalDateTime.now(ZoneOffset.UTC).minusHours(2).toString());
+          return pool.execute("UPDATE " + statusTable(pool) + " SET status = $2 WHERE id = $1",
+              Tuple.of(agreementId, status));
+        })
+        .compose(x -> EusageReportsApi.claimAgreement(pool, agreementId))
+        .onComplete(context.asyncAssertSuccess(other -> assertThat(other, is(nullValue()))));
+  }
+
+  @Test
+  public void testWaitForAgreementDeadline(TestContext context) {
+    UUID agreementId = UUID.randomUUID();
+    EusageReportsApi.claimAgreement(pool, agreementId)
+        .compose(x -> EusageReportsApi.waitForAgreement(vertx, pool, agreementId,
+            System.nanoTime()))
+        .onComplete(context.asyncAssertFailure(e -> assertThat(e.getMessage(),
+            is("Timed out waiting for population of agreement " + agreementId
+                + " by another instance"))));
+  }
+
+  @Test
+  public void testRenewPopulateStatus(TestContext context) {
+    UUID agreementId = UUID.randomUUID();
+    String old = LocalDateTime.now(ZoneOffset.UTC).minusHours(2).toString();
+    pool.execute(EusageReportsApi.upsertStatusSql(pool), Tuple.of(agreementId,
+            EusageReportsApi.statusRecord(agreementId, true, new JsonObject())
+                .put("lastUpdated", old)))
+        .compose(x -> EusageReportsApi.renewPopulateStatus(pool, agreementId))
+        .compose(x -> EusageReportsApi.getStatus(pool, agreementId))
+        .compose(status -> {
+          assertThat(EusageReportsApi.isActive(status), is(true));
+          return pool.execute(EusageReportsApi.upsertStatusSql(pool), Tuple.of(agreementId,
+              EusageReportsApi.statusRecord(agreementId, false, new JsonObject())
+                  .put("lastUpdated", old)));
+        })
+        .compose(x -> EusageReportsApi.renewPopulateStatus(pool, agreementId))
+        .compose(x -> EusageReportsApi.getStatus(pool, agreementId))
+        .onComplete(context.asyncAssertSuccess(status -> {
+          assertThat(status.getBoolean("active"), is(false));
+          assertThat(status.getString("lastUpdated"), is(old));
+        }));
+  }
+
+  @Test
+  public void testStreamRows(TestContext context) {
+    int rows = 2 * EusageReportsApi.REPORT_FETCH_SIZE + 1;
+    List<Integer> values = new ArrayList<>();
+    EusageReportsApi.streamRows(pool, "SELECT generate_series(1, $1) AS n",
+            Tuple.of(rows), row -> values.add(row.getInteger("n")))
+        .onComplete(context.asyncAssertSuccess(x -> {
+          assertThat(values.size(), is(rows));
+          assertThat(values.get(rows - 1), is(rows));
+        }));
+  }
+
+  @Test
+  public void testStreamRowsHandlerFailure(TestContext context) {
+    EusageReportsApi.streamRows(pool, "SELECT generate_series(1, 10) AS n", Tuple.tuple(),
+            row -> {
+              throw new IllegalStateException("bad row " + row.getInteger("n"));
+            })
+        .onComplete(context.asyncAssertFailure(e ->
+            assertThat(e.getMessage(), is("bad row 1"))));
+  }
+
+  @Test
+  public void testMatchesEtag() {
+    assertThat(EusageReportsApi.matchesEtag(null, "W/\"1\""), is(false));
+    assertThat(EusageReportsApi.matchesEtag("W/\"1\"", "W/\"1\""), is(true));
+    assertThat(EusageReportsApi.matchesEtag("\"1\"", "W/\"1\""), is(true));
+    assertThat(EusageReportsApi.matchesEtag("W/\"2\", W/\"1\"", "W/\"1\""), is(true));
+    assertThat(EusageReportsApi.matchesEtag("W/\"2\"", "W/\"1\""), is(false));
+    assertThat(EusageReportsApi.matchesEtag("*", "W/\"1\""), is(true));
+  }
+
+  @Test
+  public void testReportVersion(TestContext context) {
+    String agreementId = UUID.randomUUID().toString();
+    String touchSql = EusageReportsApi.touchReportVersionsSql(pool,
+        "SELECT $1::uuid AS agreementId");
+    EusageReportsApi.getReportVersion(pool, agreementId)
+        .compose(version -> {
+          assertThat(version, is(nullValue()));
+          return pool.preparedQuery(touchSql).execute(Tuple.of(agreementId));
+        })
+        .compose(x -> EusageReportsApi.getReportVersion(pool, agreementId))
+        .compose(version1 -> pool.preparedQuery(touchSql).execute(Tuple.of(agreementId))
+            .compose(x -> EusageReportsApi.getReportVersion(pool, agreementId))
+            .map(version2 -> {
+              assertThat(version2.getLong("version") > version1.getLong("version"), is(true));
+              return null;
+            }))
+        .onComplete(context.asyncAssertSuccess());
+  }
+
+  @Test
+  public void testReportVersionAgreements(TestContext context) {
+    String agreementId1 = UUID.randomUUID().toString();
+    String agreementId2 = UUID.randomUUID().toString();
+    String agreementIds = agreementId1 + "," + agreementId2;
+    String touchSql = EusageReportsApi.touchReportVersionsSql(pool,
+        "SELECT $1::uuid AS agreementId");
+    EusageReportsApi.getReportVersion(pool, agreementIds)
+        .compose(version -> {
+          assertThat(version, is(nullValue()));
+          return pool.preparedQuery(touchSql).execute(Tuple.of(agreementId1));
+        })
+        .compose(x -> EusageReportsApi.getReportVersion(pool, agreementIds))
+        .compose(version1 -> pool.preparedQuery(touchSql).execute(Tuple.of(agreementId2))
+            .compose(x -> EusageReportsApi.getReportVersion(pool, agreementIds))
+            .map(version2 -> {
+              assertThat(version2.getLong("version") > version1.getLong("version"), is(true));
+              return null;
+            }))
+        .onComplete(context.asyncAssertSuccess());
+  }
+
+  @Test
+  public void testAgreementIds() {
+    UUID id1 = UUID.randomUUID();
+    UUID id2 = UUID.randomUUID();
+    assertThat(EusageReportsApi.agreementIds(null), is(nullValue()));
+    assertThat(EusageReportsApi.agreementIds(id1.toString()), is(nullValue()));
+    assertThat(EusageReportsApi.agreementIds(id1 + "," + id2 + "," + id1), contains(id1, id2));
+    assertThrows(IllegalArgumentException.class, () -> EusageReportsApi.agreementIds(id1 + ",x"));
+  }
+
+  @Test
+  public void testLogReportMetrics() {
+    EusageReportsApi api = new EusageReportsApi(webClient).setReportWorkers(0, 10);
+    assertThat(api.logReportMetrics(), is(true));
+    assertThat(api.logReportMetrics(), is(false));
+    api.setReportWorkers(1, 10);
+    assertThat(api.logReportMetrics(), is(true));
+  }
+
+  @Test
+  public void testWithoutItems() {
+    JsonObject json = new JsonObject()
+        .put("agreementId", "a")
+        .put("items", new JsonArray().add(1))
+        .put("agreements", new JsonArray()
+            .add(new JsonObject().put("agreementId", "b").put("items", new JsonArray().add(2))));
+    assertThat(EusageReportsApi.withoutItems(json), is(new JsonObject()
+        .put("agreementId", "a")
+        .put("agreements", new JsonArray().add(new JsonObject().put("agreementId", "b")))));
+    assertThat(json.getJsonArray("agreements").getJsonObject(0).containsKey("items"), is(true));
+
+    JsonObject dashboard = new JsonObject()
+        .put("useOverTime", new JsonObject().put("agreementId", "a")
+            .put("items", new JsonArray().add(1)))
+        .put("execution", new JsonObject().put("getTitles", 1));
+    assertThat(EusageReportsApi.withoutItems(dashboard), is(new JsonObject()
+        .put("useOverTime", new JsonObject().put("agreementId", "a"))
+        .put("execution", new JsonObject().put("getTitles", 1))));
+  }
+
   private Future<String> getUseOverTime(String format, String startDate, String endDate, boolean csv) {
     return getUseOverTime(format, startDate, endDate, csv, true);
   }
 
   private Future<String> getUseOverTime(String format, String startDate, String endDate,
       boolean csv, boolean full) {
+    return getUseOverTime(format, UUID.randomUUID().toString(), false, startDate, endDate,
+        csv, full);
+  }
+
+  private Future<String> getUseOverTime(String format, String agreementId, boolean includeOA,
+      String startDate, String endDate, boolean csv, boolean full) {
     RoutingContext ctx = mock(RoutingContext.class, RETURNS_DEEP_STUBS);
+    if (includeOA) {
+      when(ctx.request().params().get("includeOA")).thenReturn("true");
+    }
     if (csv) {
       when(ctx.request().params().get("csv")).thenReturn("true");
     }
@@ -114,15 +314,26 @@ public class EusageReportsApiTest {
     }
     when(ctx.request().getHeader("X-Okapi-Tenant")).thenReturn(tenant);
     when(ctx.request().params().get("format")).thenReturn(format);
-    when(ctx.request().params().get("agreementId")).thenReturn(UUID.randomUUID().toString());
+    when(ctx.request().params().get("agreementId")).thenReturn(agreementId);
     when(ctx.request().params().get("startDate")).thenReturn(startDate);
     when(ctx.request().params().get("endDate")).thenReturn(endDate);
     return new EusageReportsApi(webClient).getUseOverTime(vertx, ctx)
-    .map(x -> {
-      ArgumentCaptor<String> argument = ArgumentCaptor.forClass(String.class);
-      verify(ctx.response()).end(argument.capture());
-      return argument.getValue();
-    });
+    .map(x -> responseBody(ctx));
+  }
+
+  /**
+   * Body of chunked response of mocked routing context.
+   * @param ctx routing context with deep stubs.
+   * @return the buffers given to write and end.
+   */
+  static String responseBody(RoutingContext ctx) {
+    ArgumentCaptor<Buffer> chunks = ArgumentCaptor.forClass(Buffer.class);
+    verify(ctx.response(), atLeast(0)).write(chunks.capture());
+    ArgumentCaptor<Buffer> last = ArgumentCaptor.forClass(Buffer.class);
+    verify(ctx.response()).end(last.capture());
+    Buffer body = Buffer.buffer();
+    chunks.getAllValues().forEach(body::appendBuffer);
+    return body.appendBuffer(last.getValue()).toString();
   }
 
   @Test
@@ -142,8 +353,17 @@ public class EusageReportsApiTest {
   @Test
   public void useOverTimeTooManyPeriods() {
     Throwable t = assertThrows(IllegalArgumentException.class, () ->
-        getUseOverTime("BOOK", "1900", "2020", false));
-    assertThat(t.getMessage(), is("Too many periods 121 (max is 100) for startDate=1900-01-01, endDate= 2020-01-01 1Y"));
+        getUseOverTime("BOOK", "1900-01", "2020-01", false));
+    assertThat(t.getMessage(), is("Too many periods 1441 (max is 1200) for startDate=1900-01-01, endDate= 2020-01-01 1M"));
+  }
+
+  @Test
+  public void periodsMoreThan100() {
+    assertThat(new Periods("1900", "2020", null).size(), is(121));
+    Periods periods = new Periods("2010-01", "2021-12", null);
+    assertThat(periods.size(), is(144));
+    assertThat(periods.getAccessCountPeriods().getString(143), is("2021-12"));
+    assertThat(periods.getPeriodEntry(LocalDate.of(2021, 12, 1)), is(143));
   }
 
   @Test
@@ -305,6 +525,10 @@ public class EusageReportsApiTest {
         .compose(x -> insertTitleData(te21, "2020-06-01", "2020-07-01", "2010", true, 1, 2))
         .compose(x -> insertTitleData(te31, "2020-05-01", "2020-06-01", "0001", false, 20, 40))
         .compose(x -> insertTitleData(te32, "2020-06-01", "2020-07-01", "2010", true, 1, 2))
+        .compose(x -> pool.execute("INSERT INTO " + agreementTitlesTable(pool)
+            + EusageReportsApi.AGREEMENT_TITLES_COLUMNS + EusageReportsApi.agreementTitlesSql(pool)))
+        .compose(x -> pool.execute("INSERT INTO " + titleDataMonthsTable(pool)
+            + EusageReportsApi.TITLE_DATA_MONTHS_COLUMNS + EusageReportsApi.titleDataMonthsSql(pool, "")))
         .mapEmpty();
   }
 
@@ -370,6 +594,100 @@ assertThat(json.getJsonArray("items").size(), is(4));
     })).onComplete(context.asyncAssertSuccess());
   }
 
+  private static Future<Void> ingestTitleData(CounterReportContext counterReportContext,
+      UUID counterReportId, String titleEntryId, int... totalAccessCounts) {
+    return pool.getConnection().compose(con -> {
+      Future<Void> future = EusageReportsApi.clearTdEntry(counterReportContext, con,
+          counterReportId);
+      for (int i = 0; i < totalAccessCounts.length; i++) {
+        LocalDate publicationDate = LocalDate.of(2001 + i, 1, 1);
+        int count = totalAccessCounts[i];
+        future = future.compose(x -> EusageReportsApi.insertTdEntry(counterReportContext, con,
+            UUID.fromString(titleEntryId), counterReportId, "Title 51", null, publicationDate,
+            "[2020-08-01,2020-08-31]", count, count, false));
+      }
+      return future
+          .compose(x -> EusageReportsApi.updateTitleDataMonths(counterReportContext, con))
+          .eventually(x -> con.close());
+    });
+  }
+
+  private static Future<Void> insertIngestTitle(String agreementId, String kbTitleId,
+      String titleEntryId) {
+    return insertAgreement(agreementId, kbTitleId, null)
+        .compose(x -> pool.preparedQuery("INSERT INTO " + agreementTitlesTable(pool)
+                + EusageReportsApi.AGREEMENT_TITLES_COLUMNS
+                + EusageReportsApi.agreementTitlesSql(pool) + " AND agreementId = $1")
+            .execute(Tuple.of(agreementId)))
+        .compose(x -> insertTitleSerial(titleEntryId, kbTitleId, "Title 51", "5151-1111", null,
+            "journal"))
+        .mapEmpty();
+  }
+
+  @Test
+  public void useOverTimeCounterReportIngest(TestContext context) {
+    // title_data_months is maintained by ingest here, not filled from all title_data
+    String agreementId = "50000000-0000-4000-8000-000000000000";
+    String kbTitleId = "51000000-0000-4000-8000-000000000000";
+    String titleEntryId = "5100000e-0000-4000-8000-000000000000";
+    UUID counterReportId = UUID.randomUUID();
+    CounterReportContext counterReportContext = new CounterReportContext(null, pool);
+    insertIngestTitle(agreementId, kbTitleId, titleEntryId)
+        .compose(x -> ingestTitleData(counterReportContext, counterReportId, titleEntryId, 5, 7))
+        .compose(x -> getUseOverTime(true, true, agreementId, null, "2020-08", "2020-08"))
+        .compose(json -> {
+          assertThat(json.getLong("totalItemRequestsTotal"), is(12L));
+          // re-ingest replaces the usage of the counter report
+          return ingestTitleData(counterReportContext, counterReportId, titleEntryId, 4);
+        })
+        .compose(x -> getUseOverTime(true, true, agreementId, null, "2020-08", "2020-08"))
+        .compose(json -> {
+          assertThat(json.getLong("totalItemRequestsTotal"), is(4L));
+          assertThat(json.getLong("uniqueItemRequestsTotal"), is(4L));
+          return ingestTitleData(counterReportContext, counterReportId, titleEntryId);
+        })
+        .compose(x -> getUseOverTime(true, true, agreementId, null, "2020-08", "2020-08"))
+        .compose(json -> {
+          assertThat(json.getLong("totalItemRequestsTotal"), is(0L));
+          return pool.preparedQuery("SELECT count(*) FROM " + titleDataMonthsTable(pool)
+              + " WHERE titleEntryId = $1").execute(Tuple.of(titleEntryId));
+        })
+        .onComplete(context.asyncAssertSuccess(rowSet ->
+            assertThat(rowSet.iterator().next().getLong(0), is(0L))));
+  }
+
+  @Test
+  public void reportVersionCounterReportIngest(TestContext context) {
+    String agreementId = "60000000-0000-4000-8000-000000000000";
+    String kbTitleId = "61000000-0000-4000-8000-000000000000";
+    String titleEntryId = "6100000e-0000-4000-8000-000000000000";
+    UUID counterReportId = UUID.randomUUID();
+    CounterReportContext counterReportContext = new CounterReportContext(null, pool);
+    insertIngestTitle(agreementId, kbTitleId, titleEntryId)
+        .compose(x -> EusageReportsApi.getReportVersion(pool, agreementId))
+        .compose(version -> {
+          assertThat(version, is(nullValue()));
+          return ingestTitleData(counterReportContext, counterReportId, titleEntryId, 1, 2, 3);
+        })
+        .compose(x -> EusageReportsApi.getReportVersion(pool, agreementId))
+        .compose(version1 -> ingestTitleData(counterReportContext, counterReportId,
+                titleEntryId, 4)
+            .compose(x -> EusageReportsApi.getReportVersion(pool, agreementId))
+            .map(version2 -> {
+              // one version per counter report, not per title_data row or month
+              assertThat(version2.getLong("version"), is(version1.getLong("version") + 1));
+              List<Object> variant = List.of("use-over-time", ItemPage.ALL);
+              assertThat(EusageReportsApi.etag(version2, variant),
+                  not(EusageReportsApi.etag(version1, variant)));
+              assertThat(EusageReportsApi.etag(version2, variant),
+                  is(EusageReportsApi.etag(version2, List.of("use-over-time", ItemPage.ALL))));
+              assertThat(EusageReportsApi.etag(version2, variant), not(EusageReportsApi.etag(
+                  version2, List.of("use-over-time", ItemPage.of("1", null, null)))));
+              return null;
+            }))
+        .onComplete(context.asyncAssertSuccess());
+  }
+
   @Test
   public void useOverTimePackage(TestContext context) {
     // similar to useOverTime test since a3 has same titles as a1.
@@ -420,7 +738,7 @@ assertThat(json.getJsonArray("items").size(), is(4));
 
   @Test
   public void useOverTimeCsv(TestContext context) {
-    new EusageReportsApi(webClient).getUseOverTime(pool, true, true, a1, null,"2020-04", "2020-05", true, true)
+    getUseOverTime("JOURNAL", a1, true, "2020-04", "2020-05", true, true)
         .onComplete(context.asyncAssertSuccess(res -> {
           assertThat(res, containsString("Title,Print ISSN,Online ISSN,ISBN,Access type,Metric Type,Reporting period total,2020-04,2020-05"));
           assertThat(res, containsString("Totals - total item requests,,,,,,56,22,34"));
@@ -431,7 +749,7 @@ assertThat(json.getJsonArray("items").size(), is(4));
 
   @Test
   public void useOverTimeCsvAll(TestContext context) {
-    new EusageReportsApi(webClient).getUseOverTime(pool, null, true, a1, null,"2020-04", "2020-05", true, true)
+    getUseOverTime("ALL", a1, true, "2020-04", "2020-05", true, true)
         .onComplete(context.asyncAssertSuccess(res -> {
           assertThat(res, containsString("Title,Print ISSN,Online ISSN,ISBN,Access type,Metric Type,Reporting period total,2020-04,2020-05"));
           assertThat(res, containsString("Totals - total item requests,,,,,,56,22,34"));
@@ -442,7 +760,7 @@ assertThat(json.getJsonArray("items").size(), is(4));
 
   @Test
   public void useOverTimeCsvBook(TestContext context) {
-    new EusageReportsApi(webClient).getUseOverTime(pool, false, true, a2, null,"2020-05", "2020-06", true, true)
+    getUseOverTime("BOOK", a2, true, "2020-05", "2020-06", true, true)
         .onComplete(context.asyncAssertSuccess(res -> {
           assertThat(res, containsString("Title,Print ISSN,Online ISSN,ISBN,Access type,Metric Type,Reporting period total,2020-05,2020-06"));
           assertThat(res, containsString("Totals - total item requests,,,,,,42,40,2"));
@@ -858,6 +1176,192 @@ assertThat(json.getJsonArray("items").size(), is(4));
         }));
   }
 
+  private static JsonObject withoutExecution(JsonObject json) {
+    JsonObject res = json.copy();
+    res.remove("execution");
+    return res;
+  }
+
+  private static List<String> sortedItems(JsonObject json) {
+    List<String> items = new ArrayList<>();
+    json.getJsonArray("items").forEach(item -> items.add(((JsonObject) item).encode()));
+    Collections.sort(items);
+    return items;
+  }
+
+  @Test
+  public void dashboard(TestContext context) {
+    EusageReportsApi api = new EusageReportsApi(webClient);
+    api.getDashboard(pool, null, true, a1, null, "2020-02", "2020-06", null, "1M")
+        .compose(dashboard -> api.getUseOverTime(pool, null, true, a1, null, "2020-02", "2020-06")
+            .map(json -> {
+              assertThat(withoutExecution(dashboard.getJsonObject("useOverTime")),
+                  is(withoutExecution(json)));
+              return null;
+            })
+            .compose(x -> api.getReqsByDateOfUse(pool, null, true, a1, null, "2020-02", "2020-06", null))
+            .map(json -> {
+              assertThat(dashboard.getJsonObject("reqsByDateOfUse"), is(json));
+              return null;
+            })
+            .compose(x -> api.getReqsByPubYear(pool, null, true, a1, null, "2020-02", "2020-06", "1M"))
+            .map(json -> {
+              JsonObject reqsByPubYear = dashboard.getJsonObject("reqsByPubYear");
+              assertThat(sortedItems(reqsByPubYear), is(sortedItems(json)));
+              reqsByPubYear.remove("items");
+              json.remove("items");
+              assertThat(reqsByPubYear, is(json));
+              return null;
+            })
+            .compose(x -> api.costPerUse(pool, null, true, a1, null, "2020-02", "2020-06"))
+            .map(json -> {
+              assertThat(withoutExecution(dashboard.getJsonObject("costPerUse")),
+                  is(withoutExecution(json)));
+              return null;
+            }))
+        .onComplete(context.asyncAssertSuccess());
+  }
+
+  @Test
+  public void useOverTimeAgreements(TestContext context) {
+    EusageReportsApi api = new EusageReportsApi(webClient);
+    api.getUseOverTime(pool, null, true, a1 + "," + a2, null, "2020-02", "2020-06")
+        .compose(agreements -> api.getUseOverTime(pool, null, true, a1, null, "2020-02", "2020-06")
+            .compose(json1 -> api.getUseOverTime(pool, null, true, a2, null, "2020-02", "2020-06")
+                .map(json2 -> {
+                  JsonArray reports = agreements.getJsonArray("agreements");
+                  assertThat(reports.size(), is(2));
+                  assertThat(reports.getJsonObject(0), is(withoutExecution(json1)));
+                  assertThat(reports.getJsonObject(1), is(withoutExecution(json2)));
+                  assertThat(agreements.getString("agreementId"), is(a1 + "," + a2));
+                  assertThat(agreements.getLong("totalItemRequestsTotal")
+                      <= json1.getLong("totalItemRequestsTotal")
+                      + json2.getLong("totalItemRequestsTotal"), is(true));
+                  return null;
+                })))
+        .onComplete(context.asyncAssertSuccess());
+  }
+
+  @Test
+  public void useOverTimePage(TestContext context) {
+    EusageReportsApi api = new EusageReportsApi(webClient);
+    api.getUseOverTime(pool, null, true, a1, null, "2020-02", "2020-06",
+            ItemPage.of("1", "2", "requests"))
+        .compose(page -> api.getUseOverTime(pool, null, true, a1, null, "2020-02", "2020-06")
+            .map(json -> {
+              JsonArray items = json.getJsonArray("items");
+              assertThat(page.getInteger("itemsTotal"), is(items.size()));
+              assertThat(page.getLong("totalItemRequestsTotal"),
+                  is(json.getLong("totalItemRequestsTotal")));
+              JsonObject top = null;
+              for (int i = 0; i < items.size(); i++) {
+                JsonObject item = items.getJsonObject(i);
+                if ("Total_Item_Requests".equals(item.getString("metricType"))
+                    && (top == null || item.getLong("accessCountTotal")
+                    > top.getLong("accessCountTotal"))) {
+                  top = item;
+                }
+              }
+              // offset 1 skips the total item of the top title, not its unique item
+              JsonArray pageItems = page.getJsonArray("items");
+              assertThat(pageItems.size(), is(2));
+              assertThat(pageItems.getJsonObject(0).getString("kbId"), is(top.getString("kbId")));
+              assertThat(pageItems.getJsonObject(0).getString("metricType"),
+                  is("Unique_Item_Requests"));
+              assertThat(json.containsKey("itemsTotal"), is(false));
+              return null;
+            }))
+        .onComplete(context.asyncAssertSuccess());
+  }
+
+  private RoutingContext costPerUsePageContext(String offset) {
+    RoutingContext routingContext = mock(RoutingContext.class, RETURNS_DEEP_STUBS);
+    when(routingContext.request().getHeader("X-Okapi-Tenant")).thenReturn(tenant);
+    when(routingContext.request().params().get("agreementId")).thenReturn(a1);
+    when(routingContext.request().params().get("startDate")).thenReturn("2020-02");
+    when(routingContext.request().params().get("endDate")).thenReturn("2020-06");
+    when(routingContext.request().params().get("includeOA")).thenReturn("true");
+    when(routingContext.request().params().get("format")).thenReturn("JOURNAL");
+    when(routingContext.request().params().get("offset")).thenReturn(offset);
+    when(routingContext.request().params().get("limit")).thenReturn("1");
+    when(routingContext.request().params().get("sort")).thenReturn("requests");
+    return routingContext;
+  }
+
+  @Test
+  public void costPerUsePageWithRoutingContext(TestContext context) {
+    RoutingContext routingContext = costPerUsePageContext(null);
+    // the second page is selected from the report cached for the first page
+    RoutingContext secondPage = costPerUsePageContext("1");
+    EusageReportsApi api = new EusageReportsApi(webClient);
+    api.getCostPerUse(vertx, routingContext)
+        .compose(x -> api.getCostPerUse(vertx, secondPage))
+        .onComplete(context.asyncAssertSuccess(x -> {
+          JsonObject json = new JsonObject(responseBody(routingContext));
+          assertThat(json.getJsonArray("items").size(), is(1));
+          assertThat(json.getInteger("itemsTotal"), is(4));
+          JsonObject second = new JsonObject(responseBody(secondPage));
+          assertThat(second.getJsonArray("items").size(), is(1));
+          assertThat(second.getInteger("itemsTotal"), is(4));
+          assertThat(second.getJsonArray("items").getJsonObject(0),
+              is(not(json.getJsonArray("items").getJsonObject(0))));
+        }));
+  }
+
+  @Test
+  public void costPerUseSameAgreements(TestContext context) {
+    EusageReportsApi api = new EusageReportsApi(webClient);
+    api.costPerUse(pool, null, true, a1 + "," + a1, null, "2020-02", "2020-06")
+        .compose(agreements -> api.costPerUse(pool, null, true, a1, null, "2020-02", "2020-06")
+            .map(json -> {
+              JsonArray reports = agreements.getJsonArray("agreements");
+              assertThat(reports.size(), is(1));
+              assertThat(reports.getJsonObject(0).getString("agreementId"), is(a1));
+              agreements.remove("agreements");
+              assertThat(withoutExecution(agreements), is(withoutExecution(json)));
+              return null;
+            }))
+        .onComplete(context.asyncAssertSuccess());
+  }
+
+  @Test
+  public void dashboardPeriods(TestContext context) {
+    EusageReportsApi api = new EusageReportsApi(webClient);
+    api.getDashboard(pool, true, false, a2, "1M", "2020-05", "2020-06", "2Y", "1Y")
+        .compose(dashboard -> api.getReqsByPubYear(pool, true, false, a2, "1M", "2020-05", "2020-06", "1Y")
+            .map(json -> {
+              JsonObject reqsByPubYear = dashboard.getJsonObject("reqsByPubYear");
+              assertThat(sortedItems(reqsByPubYear), is(sortedItems(json)));
+              return null;
+            })
+            .compose(x -> api.getReqsByDateOfUse(pool, true, false, a2, "1M", "2020-05", "2020-06", "2Y"))
+            .map(json -> {
+              assertThat(dashboard.getJsonObject("reqsByDateOfUse"), is(json));
+              return null;
+            }))
+        .onComplete(context.asyncAssertSuccess());
+  }
+
+  @Test
+  public void dashboardWithRoutingContext(TestContext context) {
+    RoutingContext routingContext = mock(RoutingContext.class, RETURNS_DEEP_STUBS);
+    when(routingContext.request().getHeader("X-Okapi-Tenant")).thenReturn(tenant);
+    when(routingContext.request().params().get("agreementId")).thenReturn(a1);
+    when(routingContext.request().params().get("startDate")).thenReturn("2020-02");
+    when(routingContext.request().params().get("endDate")).thenReturn("2020-06");
+    when(routingContext.request().params().get("periodOfUse")).thenReturn("1M");
+    when(routingContext.request().params().get("includeOA")).thenReturn("true");
+    when(routingContext.request().params().get("full")).thenReturn("false");
+    new EusageReportsApi(webClient).getDashboard(vertx, routingContext)
+        .onComplete(context.asyncAssertSuccess(x -> {
+          JsonObject json = new JsonObject(responseBody(routingContext));
+          assertThat(json.getJsonObject("useOverTime").getLong("totalItemRequestsTotal"), is(99L));
+          assertThat(json.getJsonObject("reqsByPubYear").getLong("totalItemRequestsTotal"), is(99L));
+          assertThat(json.getJsonObject("costPerUse").containsKey("items"), is(false));
+          assertThat(json.getJsonObject("useOverTime").containsKey("items"), is(false));
+        }));
+  }
+
   @Test
   public void costPerUse63(TestContext context) {
     RoutingContext routingContext = mock(RoutingContext.class, RETURNS_DEEP_STUBS);
@@ -869,9 +1373,7 @@ assertThat(json.getJsonArray("items").size(), is(4));
     when(routingContext.request().params().get("format")).thenReturn("JOURNAL");
     new EusageReportsApi(webClient).getCostPerUse(vertx, routingContext)
         .onComplete(context.asyncAssertSuccess(x -> {
-          ArgumentCaptor<String> body = ArgumentCaptor.forClass(String.class);
-          verify(routingContext.response()).end(body.capture());
-          JsonObject json = new JsonObject(body.getValue());
+          JsonObject json = new JsonObject(responseBody(routingContext));
           assertThat(json.getJsonArray("items").size(), is(4));
         }));
   }
@@ -927,9 +1429,7 @@ assertThat(json.getJsonArray("items").size(), is(4));
     when(routingContext.request().params().get("includeOA")).thenReturn("true");
     new EusageReportsApi(webClient).getReqsByDateOfUse(vertx, routingContext)
     .onComplete(context.asyncAssertSuccess(x -> {
-      ArgumentCaptor<String> body = ArgumentCaptor.forClass(String.class);
-      verify(routingContext.response()).end(body.capture());
-      JsonObject json = new JsonObject(body.getValue());
+      JsonObject json = new JsonObject(responseBody(routingContext));
       assertThat(json.getLong("totalItemRequestsTotal"), is(42L));
       assertThat(json.getLong("uniqueItemRequestsTotal"), is(21L));
       assertThat(json.getJsonArray("totalItemRequestsByPeriod"), contains(40, 2));
@@ -959,9 +1459,7 @@ assertThat(json.getJsonArray("items").size(), is(4));
     when(routingContext.request().params().get("includeOA")).thenReturn("true");
     new EusageReportsApi(webClient).getReqsByDateOfUse(vertx, routingContext)
         .onComplete(context.asyncAssertSuccess(x -> {
-          ArgumentCaptor<String> body = ArgumentCaptor.forClass(String.class);
-          verify(routingContext.response()).end(body.capture());
-          JsonObject json = new JsonObject(body.getValue());
+          JsonObject json = new JsonObject(responseBody(routingContext));
           assertThat(json.getLong("totalItemRequestsTotal"), is(42L));
           assertThat(json.getLong("uniqueItemRequestsTotal"), is(21L));
           assertThat(json.getJsonArray("totalItemRequestsByPeriod"), contains(40, 2));
@@ -981,9 +1479,7 @@ assertThat(json.getJsonArray("items").size(), is(4));
     when(routingContext.request().params().get("includeOA")).thenReturn("true");
     new EusageReportsApi(webClient).getReqsByDateOfUse(vertx, routingContext)
         .onComplete(context.asyncAssertSuccess(x -> {
-          ArgumentCaptor<String> body = ArgumentCaptor.forClass(String.class);
-          verify(routingContext.response()).end(body.capture());
-          String res = body.getValue();
+          String res = responseBody(routingContext);
           assertThat(res, containsString("Title,Print ISSN,Online ISSN,ISBN,Year of publication,Access type,Metric Type,Reporting period total,2020-05,2020-06"));
           assertThat(res, containsString("Totals - total item requests,,,,,,,42,40,2"));
           assertThat(res, containsString("Title 21,2121-1111,,,2010,Controlled,Unique_Item_Requests,20,20,"));
@@ -1036,9 +1532,7 @@ assertThat(json.getJsonArray("items").size(), is(4));
     when(routingContext.request().params().get("includeOA")).thenReturn("true");
     new EusageReportsApi(webClient).getReqsByPubYear(vertx, routingContext)
         .onComplete(context.asyncAssertSuccess(x -> {
-          ArgumentCaptor<String> body = ArgumentCaptor.forClass(String.class);
-          verify(routingContext.response()).end(body.capture());
-          JsonObject json = new JsonObject(body.getValue());
+          JsonObject json = new JsonObject(responseBody(routingContext));
           assertThat((List<?>) json.getJsonArray("accessCountPeriods").getList(), contains("1999", "2000", "2010"));
           assertThat(json.getLong("totalItemRequestsTotal"), is(99L));
           assertThat(json.getLong("uniqueItemRequestsTotal"), is(59L));
@@ -1072,9 +1566,7 @@ assertThat(json.getJsonArray("items").size(), is(4));
     when(routingContext.request().params().get("includeOA")).thenReturn("true");
     new EusageReportsApi(webClient).getReqsByPubYear(vertx, routingContext)
         .onComplete(context.asyncAssertSuccess(x -> {
-          ArgumentCaptor<String> body = ArgumentCaptor.forClass(String.class);
-          verify(routingContext.response()).end(body.capture());
-          JsonObject json = new JsonObject(body.getValue());
+          JsonObject json = new JsonObject(responseBody(routingContext));
           assertThat(json.getJsonArray("items").size(), is(4));
           assertThat((List<?>) json.getJsonArray("accessCountPeriods").getList(),
               contains("1998 - 1999", "2000 - 2001", "2010 - 2011"));
@@ -1097,9 +1589,7 @@ assertThat(json.getJsonArray("items").size(), is(4));
     when(routingContext.request().params().get("includeOA")).thenReturn("true");
     new EusageReportsApi(webClient).getReqsByPubYear(vertx, routingContext)
         .onComplete(context.asyncAssertSuccess(x -> {
-          ArgumentCaptor<String> body = ArgumentCaptor.forClass(String.class);
-          verify(routingContext.response()).end(body.capture());
-          JsonObject json = new JsonObject(body.getValue());
+          JsonObject json = new JsonObject(responseBody(routingContext));
           assertThat((List<?>) json.getJsonArray("accessCountPeriods").getList(),
               contains("1999-01 - 1999-03", "2000-01 - 2000-03", "2010-01 - 2010-03"));
           assertThat(json.getLong("totalItemRequestsTotal"), is(99L));
@@ -1169,9 +1659,7 @@ assertThat(json.getJsonArray("items").size(), is(4));
     when(routingContext.request().params().get("includeOA")).thenReturn("true");
     new EusageReportsApi(webClient).getCostPerUse(vertx, routingContext)
         .onComplete(context.asyncAssertSuccess(x -> {
-          ArgumentCaptor<String> body = ArgumentCaptor.forClass(String.class);
-          verify(routingContext.response()).end(body.capture());
-          JsonObject json = new JsonObject(body.getValue());
+          JsonObject json = new JsonObject(responseBody(routingContext));
           assertThat((List<?>) json.getJsonArray("accessCountPeriods").getList(),
               contains("2020-04", "2020-05", "2020-06", "2020-07", "2020-08"));
           assertThat((List<?>) json.getJsonArray("titleCountByPeriod").getList(),
@@ -1196,9 +1684,7 @@ assertThat(json.getJsonArray("items").size(), is(4));
     when(routingContext.request().params().get("includeOA")).thenReturn("true");
     new EusageReportsApi(webClient).getCostPerUse(vertx, routingContext)
         .onComplete(context.asyncAssertSuccess(x -> {
-          ArgumentCaptor<String> body = ArgumentCaptor.forClass(String.class);
-          verify(routingContext.response()).end(body.capture());
-          JsonObject json = new JsonObject(body.getValue());
+          JsonObject json = new JsonObject(responseBody(routingContext));
           assertThat((List<?>) json.getJsonArray("accessCountPeriods").getList(),
               contains("2020-04", "2020-05", "2020-06", "2020-07", "2020-08"));
           assertThat((List<?>) json.getJsonArray("titleCountByPeriod").getList(),
@@ -1249,9 +1735,7 @@ assertThat(json.getJsonArray("items").size(), is(4));
     when(routingContext.request().params().get("includeOA")).thenReturn("true");
     new EusageReportsApi(webClient).getCostPerUse(vertx, routingContext)
         .onComplete(context.asyncAssertSuccess(x -> {
-          ArgumentCaptor<String> body = ArgumentCaptor.forClass(String.class);
-          verify(routingContext.response()).end(body.capture());
-          JsonObject json = new JsonObject(body.getValue());
+          JsonObject json = new JsonObject(responseBody(routingContext));
           assertThat((List<?>) json.getJsonArray("accessCountPeriods").getList(),
               contains("2020-04", "2020-05", "2020-06", "2020-07", "2020-08"));
           assertThat((List<?>) json.getJsonArray("titleCountByPeriod").getList(),
@@ -1277,9 +1761,7 @@ assertThat(json.getJsonArray("items").size(), is(4));
     when(routingContext.request().params().get("includeOA")).thenReturn("false");
     new EusageReportsApi(webClient).getCostPerUse(vertx, routingContext)
         .onComplete(context.asyncAssertSuccess(x -> {
-          ArgumentCaptor<String> body = ArgumentCaptor.forClass(String.class);
-          verify(routingContext.response()).end(body.capture());
-          JsonObject json = new JsonObject(body.getValue());
+          JsonObject json = new JsonObject(responseBody(routingContext));
           assertThat((List<?>) json.getJsonArray("accessCountPeriods").getList(),
               contains("2020-04", "2020-05", "2020-06", "2020-07", "2020-08"));
           assertThat((List<?>) json.getJsonArray("titleCountByPeriod").getList(),
@@ -1305,9 +1787,7 @@ assertThat(json.getJsonArray("items").size(), is(4));
     when(routingContext.request().params().get("includeOA")).thenReturn("true");
     new EusageReportsApi(webClient).getCostPerUse(vertx, routingContext)
         .onComplete(context.asyncAssertSuccess(x -> {
-          ArgumentCaptor<String> body = ArgumentCaptor.forClass(String.class);
-          verify(routingContext.response()).end(body.capture());
-          JsonObject json = new JsonObject(body.getValue());
+          JsonObject json = new JsonObject(responseBody(routingContext));
           assertThat((List<?>) json.getJsonArray("accessCountPeriods").getList(),
               contains("2020-04", "2020-05", "2020-06"));
           assertThat((List<?>) json.getJsonArray("titleCountByPeriod").getList(),
@@ -1329,9 +1809,7 @@ assertThat(json.getJsonArray("items").size(), is(4));
     when(routingContext.request().params().get("includeOA")).thenReturn("true");
     new EusageReportsApi(webClient).getCostPerUse(vertx, routingContext)
         .onComplete(context.asyncAssertSuccess(x -> {
-          ArgumentCaptor<String> body = ArgumentCaptor.forClass(String.class);
-          verify(routingContext.response()).end(body.capture());
-          JsonObject json = new JsonObject(body.getValue());
+          JsonObject json = new JsonObject(responseBody(routingContext));
           assertThat((List<?>) json.getJsonArray("accessCountPeriods").getList(),
               contains("2020-04", "2020-05", "2020-06", "2020-07"));
           assertThat((List<?>) json.getJsonArray("titleCountByPeriod").getList(),
@@ -1371,9 +1849,7 @@ assertThat(json.getJsonArray("items").size(), is(4));
     when(routingContext.request().params().get("accessCountPeriod")).thenReturn("1Y");
     new EusageReportsApi(webClient).getCostPerUse(vertx, routingContext)
         .onComplete(context.asyncAssertSuccess(x -> {
-          ArgumentCaptor<String> body = ArgumentCaptor.forClass(String.class);
-          verify(routingContext.response()).end(body.capture());
-          JsonObject json = new JsonObject(body.getValue());
+          JsonObject json = new JsonObject(responseBody(routingContext));
           assertThat((List<?>) json.getJsonArray("accessCountPeriods").getList(),
               contains("2020"));
           assertThat((List<?>) json.getJsonArray("titleCountByPeriod").getList(),
@@ -1430,9 +1906,7 @@ assertThat(json.getJsonArray("items").size(), is(4));
     when(routingContext.request().params().get("accessCountPeriod")).thenReturn("5Y");
     new EusageReportsApi(webClient).getCostPerUse(vertx, routingContext)
         .onComplete(context.asyncAssertSuccess(x -> {
-          ArgumentCaptor<String> body = ArgumentCaptor.forClass(String.class);
-          verify(routingContext.response()).end(body.capture());
-          JsonObject json = new JsonObject(body.getValue());
+          JsonObject json = new JsonObject(responseBody(routingContext));
           assertThat((List<?>) json.getJsonArray("accessCountPeriods").getList(),
               contains("2015 - 2019", "2020 - 2024"));
           assertThat((List<?>) json.getJsonArray("titleCountByPeriod").getList(),
@@ -1473,9 +1947,7 @@ assertThat(json.getJsonArray("items").size(), is(4));
     when(routingContext.request().params().get("includeOA")).thenReturn("true");
     new EusageReportsApi(webClient).getCostPerUse(vertx, routingContext)
         .onComplete(context.asyncAssertSuccess(x -> {
-          ArgumentCaptor<String> body = ArgumentCaptor.forClass(String.class);
-          verify(routingContext.response()).end(body.capture());
-          JsonObject json = new JsonObject(body.getValue());
+          JsonObject json = new JsonObject(responseBody(routingContext));
           assertThat((List<?>) json.getJsonArray("accessCountPeriods").getList(),
               contains("2022-01", "2022-02"));
           assertThat((List<?>) json.getJsonArray("titleCountByPeriod").getList(),
@@ -1498,9 +1970,7 @@ assertThat(json.getJsonArray("items").size(), is(4));
     when(routingContext.request().params().get("includeOA")).thenReturn("true");
     new EusageReportsApi(webClient).getCostPerUse(vertx, routingContext)
         .onComplete(context.asyncAssertSuccess(x -> {
-          ArgumentCaptor<String> body = ArgumentCaptor.forClass(String.class);
-          verify(routingContext.response()).end(body.capture());
-          String res = body.getValue();
+          String res = responseBody(routingContext);
           StringReader reader = new StringReader(res);
           try {
             CSVParser parser = new CSVParser(reader, CsvReports.CSV_FORMAT);
@@ -1532,9 +2002,7 @@ assertThat(json.getJsonArray("items").size(), is(4));
     when(routingContext.request().params().get("includeOA")).thenReturn("true");
     new EusageReportsApi(webClient).getCostPerUse(vertx, routingContext)
         .onComplete(context.asyncAssertSuccess(x -> {
-          ArgumentCaptor<String> body = ArgumentCaptor.forClass(String.class);
-          verify(routingContext.response()).end(body.capture());
-          String res = body.getValue();
+          String res = responseBody(routingContext);
           StringReader reader = new StringReader(res);
           try {
             CSVParser parser = new CSVParser(reader, CsvReports.CSV_FORMAT);
@@ -1591,9 +2059,7 @@ assertThat(json.getJsonArray("items").size(), is(4));
     when(routingContext.request().params().get("includeOA")).thenReturn("true");
     new EusageReportsApi(webClient).getCostPerUse(vertx, routingContext)
         .onComplete(context.asyncAssertSuccess(x -> {
-          ArgumentCaptor<String> body = ArgumentCaptor.forClass(String.class);
-          verify(routingContext.response()).end(body.capture());
-          String res = body.getValue();
+          String res = responseBody(routingContext);
           StringReader reader = new StringReader(res);
           try {
             CSVParser parser = new CSVParser(reader, CsvReports.CSV_FORMAT);
@@ -1627,9 +2093,7 @@ assertThat(json.getJsonArray("items").size(), is(4));
     when(routingContext.request().params().get("includeOA")).thenReturn("true");
     new EusageReportsApi(webClient).getCostPerUse(vertx, routingContext)
         .onComplete(context.asyncAssertSuccess(x -> {
-          ArgumentCaptor<String> body = ArgumentCaptor.forClass(String.class);
-          verify(routingContext.response()).end(body.capture());
-          String res = body.getValue();
+          String res = responseBody(routingContext);
           StringReader reader = new StringReader(res);
           try {
             CSVParser parser = new CSVParser(reader, CsvReports.CSV_FORMAT);
@@ -1668,9 +2132,7 @@ assertThat(json.getJsonArray("items").size(), is(4));
     when(routingContext.request().params().get("includeOA")).thenReturn("true");
     new EusageReportsApi(webClient).getCostPerUse(vertx, routingContext)
         .onComplete(context.asyncAssertSuccess(x -> {
-          ArgumentCaptor<String> body = ArgumentCaptor.forClass(String.class);
-          verify(routingContext.response()).end(body.capture());
-          JsonObject json = new JsonObject(body.getValue());
+          JsonObject json = new JsonObject(responseBody(routingContext));
           assertThat((List<?>) json.getJsonArray("accessCountPeriods").getList(),
               contains("2020-05", "2020-06"));
           assertThat((List<?>) json.getJsonArray("titleCountByPeriod").getList(),
@@ -1705,9 +2167,18 @@ assertThat(json.getJsonArray("items").size(), is(4));
 
   @Test
   public void reqsByPubYearCsv(TestContext context) {
-    new EusageReportsApi(webClient).getReqsByPubYear(pool, true, true, a1, null, "2020-04", "2020-08", "6M", true, true)
-        .onComplete(context.asyncAssertSuccess(res -> {
-          assertThat(res, containsString(",2020-01 - 2020-06,Controlled,"));
+    RoutingContext routingContext = mock(RoutingContext.class, RETURNS_DEEP_STUBS);
+    when(routingContext.request().getHeader("X-Okapi-Tenant")).thenReturn(tenant);
+    when(routingContext.request().params().get("csv")).thenReturn("true");
+    when(routingContext.request().params().get("format")).thenReturn("JOURNAL");
+    when(routingContext.request().params().get("includeOA")).thenReturn("true");
+    when(routingContext.request().params().get("agreementId")).thenReturn(a1);
+    when(routingContext.request().params().get("startDate")).thenReturn("2020-04");
+    when(routingContext.request().params().get("endDate")).thenReturn("2020-08");
+    when(routingContext.request().params().get("periodOfUse")).thenReturn("6M");
+    new EusageReportsApi(webClient).getReqsByPubYear(vertx, routingContext)
+        .onComplete(context.asyncAssertSuccess(x -> {
+          assertThat(responseBody(routingContext), containsString(",2020-01 - 2020-06,Controlled,"));
         }));
   }
 
@@ -1719,4 +2190,42 @@ assertThat(json.getJsonArray("items").size(), is(4));
       assertThat(json.getJsonArray("items").size(), is(2));
     }));
   }
+
+  private static JsonObject normalizeReport(JsonObject json) {
+    JsonObject res = json.copy();
+    res.remove("execution");
+    List<String> items = new ArrayList<>();
+    res.getJsonArray("items").forEach(item -> items.add(((JsonObject) item).encode()));
+    Collections.sort(items);
+    return res.put("items", new JsonArray(items));
+  }
+
+  private static Future<Void> assertSameReport(Future<JsonObject> expected, Future<JsonObject> actual) {
+    return expected.compose(e -> actual.map(a -> {
+      assertThat(normalizeReport(a), is(normalizeReport(e)));
+      return null;
+    }));
+  }
+
+  @Test
+  public void aggregateInSql(TestContext context) {
+    EusageReportsApi api = new EusageReportsApi(webClient);
+    EusageReportsApi sqlApi = new EusageReportsApi(webClient).setAggregateInSql(true);
+    Future<Void> future = Future.succeededFuture();
+    for (String agreementId : List.of(a1, a2, a3, a4)) {
+      for (String period : List.of("1M", "2M", "1Y")) {
+        future = future
+            .compose(x -> assertSameReport(
+                api.getUseOverTime(pool, null, true, agreementId, period, "2020-01", "2020-12"),
+                sqlApi.getUseOverTime(pool, null, true, agreementId, period, "2020-01", "2020-12")))
+            .compose(x -> assertSameReport(
+                api.getReqsByDateOfUse(pool, null, true, agreementId, period, "2020-01", "2020-12", "5Y"),
+                sqlApi.getReqsByDateOfUse(pool, null, true, agreementId, period, "2020-01", "2020-12", "5Y")))
+            .compose(x -> assertSameReport(
+                api.getReqsByPubYear(pool, null, false, agreementId, "1Y", "2020-01", "2020-12", period),
+                sqlApi.getReqsByPubYear(pool, null, false, agreementId, "1Y", "2020-01", "2020-12", period)));
+      }
+    }
+    future.onComplete(context.asyncAssertSuccess());
+  }
 }
@@ -0,0 +1,85 @@
+package org.folio.eusage.reports.api;
+
+import io.vertx.core.json.JsonObject;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ItemPageTest {
+  static final List<Long> ITEMS = Arrays.asList(5L, 9L, 1L, 9L, 7L, 3L);
+
+  @Test
+  public void testAll() {
+    Assert.assertSame(ItemPage.ALL, ItemPage.of(null, null, null));
+    Assert.assertTrue(ItemPage.ALL.isAll());
+    Assert.assertTrue(ItemPage.of("0", null, "title").isAll());
+    Assert.assertEquals(ITEMS, ItemPage.ALL.select(ITEMS, x -> x));
+    Assert.assertEquals("offset=0&limit=-1&sort=title", ItemPage.ALL.toString());
+    Assert.assertEquals("offset=1&limit=2&sort=requests",
+        ItemPage.of("1", "2", "requests").toString());
+  }
+
+  @Test
+  public void testReportOrder() {
+    Assert.assertEquals(Arrays.asList(9L, 1L), ItemPage.of("1", "2", null).select(ITEMS, x -> x));
+    Assert.assertEquals(Arrays.asList(7L, 3L), ItemPage.of("4", "10", null).select(ITEMS, x -> x));
+    Assert.assertEquals(Collections.emptyList(), ItemPage.of("6", null, null).select(ITEMS, x -> x));
+    Assert.assertEquals(Collections.emptyList(), ItemPage.of(null, "0", null).select(ITEMS, x -> x));
+    Assert.assertEquals(ITEMS, ItemPage.of(null, String.valueOf(Integer.MAX_VALUE), null)
+        .select(ITEMS, x -> x));
+  }
+
+  @Test
+  public void testByRequests() {
+    Assert.assertEquals(Arrays.asList(9L, 9L, 7L, 5L, 3L, 1L),
+        ItemPage.of(null, null, "requests").select(ITEMS, x -> x));
+    Assert.assertEquals(Arrays.asList(9L, 9L, 7L),
+        ItemPage.of(null, "3", "requests").select(ITEMS, x -> x));
+    Assert.assertEquals(Arrays.asList(7L, 5L),
+        ItemPage.of("2", "2", "requests").select(ITEMS, x -> x));
+    Assert.assertEquals(Collections.emptyList(),
+        ItemPage.of("7", "2", "requests").select(ITEMS, x -> x));
+  }
+
+  @Test
+  public void testByRequestsStable() {
+    List<String> items = Arrays.asList("a", "bb", "c", "dd", "e");
+    Assert.assertEquals(Arrays.asList("bb", "dd", "a", "c"),
+        ItemPage.of(null, "4", "requests").select(items, String::length));
+    Assert.assertEquals(Arrays.asList("c", "e"),
+        ItemPage.of("3", null, "requests").select(items, String::length));
+  }
+
+  @Test
+  public void testEquals() {
+    Assert.assertEquals(ItemPage.of("1", "2", "requests"), ItemPage.of("1", "2", "requests"));
+    Assert.assertEquals(ItemPage.of("1", "2", "requests").hashCode(),
+        ItemPage.of("1", "2", "requests").hashCode());
+    Assert.assertNotEquals(ItemPage.of("1", "2", "requests"), ItemPage.of("1", "2", "title"));
+    Assert.assertNotEquals(ItemPage.of("1", "2", null), ItemPage.of("1", "3", null));
+    Assert.assertNotEquals(ItemPage.of("1", "2", null), "1");
+  }
+
+  @Test
+  public void testIllegalArguments() {
+    Assert.assertThrows(IllegalArgumentException.class, () -> ItemPage.of(null, null, "x"));
+    Assert.assertThrows(IllegalArgumentException.class, () -> ItemPage.of("-1", null, null));
+    Assert.assertThrows(IllegalArgumentException.class, () -> ItemPage.of(null, "-1", null));
+    Assert.assertThrows(IllegalArgumentException.class, () -> ItemPage.of("a", null, null));
+  }
+
+  @Test
+  public void testRankWith() {
+    ReportItem total = new ReportItem(new JsonObject(), 1);
+    ReportItem unique = new ReportItem(new JsonObject(), 1);
+    ReportItem other = new ReportItem(new JsonObject(), 1);
+    unique.rankWith(total);
+    total.add(0, 10);
+    unique.add(0, 2);
+    other.add(0, 5);
+    Assert.assertEquals(Arrays.asList(total, unique, other), ItemPage.of(null, null, "requests")
+        .select(Arrays.asList(other, total, unique), ReportItem::getRequests));
+  }
+}
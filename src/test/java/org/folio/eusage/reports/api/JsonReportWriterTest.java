@@ -0,0 +1,128 @@
+package org.folio.eusage.reports.api;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.streams.WriteStream;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class JsonReportWriterTest {
+
+  /** Collects written data; the write queue is full every other time it is checked. */
+  static class BufferStream implements WriteStream<Buffer> {
+    final Buffer data = Buffer.buffer();
+    int writes;
+    boolean ended;
+    boolean full;
+    Handler<Void> drainHandler;
+
+    @Override
+    public WriteStream<Buffer> exceptionHandler(Handler<Throwable> handler) {
+      return this;
+    }
+
+    @Override
+    public Future<Void> write(Buffer buffer) {
+      Assert.assertFalse(ended);
+      data.appendBuffer(buffer);
+      writes++;
+      return Future.succeededFuture();
+    }
+
+    @Override
+    public void write(Buffer buffer, Handler<AsyncResult<Void>> handler) {
+      write(buffer).onComplete(handler);
+    }
+
+    @Override
+    public Future<Void> end() {
+      ended = true;
+      return Future.succeededFuture();
+    }
+
+    @Override
+    public void end(Handler<AsyncResult<Void>> handler) {
+      end().onComplete(handler);
+    }
+
+    @Override
+    public WriteStream<Buffer> setWriteQueueMaxSize(int maxSize) {
+      return this;
+    }
+
+    @Override
+    public boolean writeQueueFull() {
+      full = !full;
+      return full;
+    }
+
+    @Override
+    public WriteStream<Buffer> drainHandler(Handler<Void> handler) {
+      drainHandler = handler;
+      return this;
+    }
+
+    void drain() {
+      while (!ended) {
+        drainHandler.handle(null);
+      }
+    }
+  }
+
+  static JsonObject report(int items) {
+    JsonArray ar = new JsonArray();
+    for (int i = 0; i < items; i++) {
+      ar.add(new JsonObject()
+          .put("title", "Title \"" + i + "\"")
+          .put("accessCountsByPeriod", new JsonArray().add(i).add(2 * i)));
+    }
+    return new JsonObject()
+        .put("agreementId", "a1")
+        .put("accessCountPeriods", new JsonArray().add("2020-01").add("2020-02"))
+        .put("items", ar)
+        .put("totalItemRequestsTotal", 10L);
+  }
+
+  @Test
+  public void testSmall() {
+    BufferStream stream = new BufferStream();
+    JsonObject json = report(3);
+    Future<Void> future = JsonReportWriter.write(stream, json, true);
+    stream.drain();
+    Assert.assertTrue(future.succeeded());
+    Assert.assertEquals(json.encode(), stream.data.toString());
+  }
+
+  @Test
+  public void testChunks() {
+    BufferStream stream = new BufferStream();
+    JsonObject json = report(10000);
+    Future<Void> future = JsonReportWriter.write(stream, json, true);
+    stream.drain();
+    Assert.assertTrue(future.succeeded());
+    Assert.assertTrue(stream.writes > 1);
+    Assert.assertEquals(json.encode(), stream.data.toString());
+  }
+
+  @Test
+  public void testNotFull() {
+    BufferStream stream = new BufferStream();
+    JsonObject json = report(3);
+    JsonReportWriter.write(stream, json, false);
+    stream.drain();
+    json.remove("items");
+    Assert.assertEquals(json.encode(), stream.data.toString());
+  }
+
+  @Test
+  public void testEmpty() {
+    BufferStream stream = new BufferStream();
+    Future<Void> future = JsonReportWriter.write(stream, new JsonObject(), true);
+    Assert.assertTrue(future.succeeded());
+    Assert.assertEquals("{}", stream.data.toString());
+  }
+}
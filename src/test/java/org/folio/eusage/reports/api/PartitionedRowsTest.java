@@ -0,0 +1,207 @@
+package org.folio.eusage.reports.api;
+
+import static org.mockito.Mockito.RETURNS_DEFAULTS;
+import static org.mockito.Mockito.mock;
+
+import io.vertx.core.Future;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.RunTestOnContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import io.vertx.sqlclient.Row;
+import io.vertx.sqlclient.data.Numeric;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.function.Supplier;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(VertxUnitRunner.class)
+public class PartitionedRowsTest {
+  static final List<String> COLUMNS = Arrays.asList("kbid", "title", "kbpackageid",
+      "kbpackagename", "printissn", "onlineissn", "isbn", "publicationdate", "usagedaterange",
+      "usagestart", "uniqueaccesscount", "totalaccesscount", "openaccess", "ordertype",
+      "polinenumber", "invoicenumber", "fiscalyearrange", "subscriptiondaterange",
+      "encumberedcost", "invoicedcost", "agreementid");
+  static final String ORDER_BY = EusageReportsApi.TITLES_COST_ORDER_BY;
+  static final UUID AGREEMENT_A = UUID.fromString("10000000-0000-4000-8000-000000000000");
+  static final UUID AGREEMENT_B = UUID.fromString("20000000-0000-4000-8000-000000000000");
+  static final Periods PERIODS = new Periods("2021-01", "2021-06", "1M");
+  static final Periods PUB_YEAR_PERIODS = new Periods("2021-01", "2021-06", "2M");
+
+  @Rule
+  public RunTestOnContext contextRule = new RunTestOnContext();
+
+  static Row row(Object... values) {
+    return mock(Row.class, invocation -> {
+      String name = invocation.getMethod().getName();
+      Object[] args = invocation.getArguments();
+      switch (name) {
+        case "size":
+          return values.length;
+        case "getColumnIndex":
+          return COLUMNS.indexOf(args[0]);
+        case "toString":
+        case "deepToString":
+          return Arrays.toString(values);
+        default:
+          break;
+      }
+      if (!name.startsWith("get") || args.length != 1) {
+        return RETURNS_DEFAULTS.answer(invocation);
+      }
+      Object value = args[0] instanceof Integer
+          ? values[(Integer) args[0]] : values[COLUMNS.indexOf(args[0])];
+      if (value != null && "getNumeric".equals(name)) {
+        return Numeric.create((Number) value);
+      }
+      return value;
+    });
+  }
+
+  /**
+   * Rows of titlesCostSql in ORDER BY order, with duplicates, some with agreementId.
+   */
+  static List<Row> rows(boolean byAgreement) {
+    Random random = new Random(42);
+    UUID[] packages = {UUID.randomUUID(), UUID.randomUUID()};
+    List<Row> rows = new ArrayList<>();
+    for (int t = 0; t < 40; t++) {
+      UUID kbId = new UUID(t, 7 * t);
+      String title = String.format("title %02d", t);
+      UUID kbPackageId = t % 3 == 0 ? null : packages[t % 2];
+      String fiscalYear = "[2021-01-01,2022-01-01)";
+      String subscription = t % 4 == 0 ? "[2021-03-01,2021-09-01)" : null;
+      Double encumbered = t % 5 == 0 ? null : 100.0 + t / 3.0;
+      Double invoiced = t % 7 == 0 ? null : 90.0 + t / 7.0;
+      List<Object[]> titleRows = new ArrayList<>();
+      for (int p = 0; p < 1 + t % 3; p++) {
+        LocalDate publicationDate = LocalDate.of(2000 + random.nextInt(20), 1 + p, 1);
+        for (int m = 0; m < 6; m++) {
+          if (random.nextInt(4) == 0) {
+            continue;
+          }
+          LocalDate usageStart = LocalDate.of(2021, 1 + m, 1);
+          long unique = random.nextInt(10);
+          titleRows.add(new Object[] {kbId, title, kbPackageId, "package", "1234-5678", null,
+              null, publicationDate, "[" + usageStart + "," + usageStart.plusMonths(1) + ")",
+              usageStart, unique, unique + random.nextInt(10), false, "Ongoing", "po-" + t,
+              "inv-" + t, fiscalYear, subscription, encumbered, invoiced});
+        }
+      }
+      titleRows.add(new Object[] {kbId, title, kbPackageId, "package", "1234-5678", null,
+          null, null, null, null, null, null, true, "Ongoing", "po-" + t, "inv-" + t,
+          fiscalYear, subscription, encumbered, invoiced});
+      for (Object[] values : titleRows) {
+        int copies = random.nextInt(5) == 0 ? 2 : 1;
+        for (int i = 0; i < copies; i++) {
+          if (!byAgreement) {
+            rows.add(row(values));
+            continue;
+          }
+          for (UUID agreementId : t % 2 == 0
+              ? List.of(AGREEMENT_A, AGREEMENT_B) : List.of(AGREEMENT_A)) {
+            Object[] withAgreement = Arrays.copyOf(values, values.length + 1);
+            withAgreement[values.length] = agreementId;
+            rows.add(row(withAgreement));
+          }
+        }
+      }
+    }
+    return rows;
+  }
+
+  static Future<ReportAggregator> report(ReportWorkers workers, int partitions,
+      int batchSize, List<Row> rows, String orderBy, Supplier<ReportAggregator> aggregator) {
+
+    PartitionedRows<ReportAggregator> partitioned = new PartitionedRows<>(workers, partitions,
+        batchSize, aggregator,
+        (partial, seq) -> new DistinctRows(orderBy, row -> partial.add(row, seq.getAsLong())));
+    rows.forEach(partitioned);
+    return partitioned.end().map(parts -> ReportAggregator.merged(parts, aggregator));
+  }
+
+  static List<Supplier<ReportAggregator>> aggregators(String agreementId) {
+    return List.of(
+        () -> new UseOverTime.Aggregator(agreementId, PERIODS),
+        () -> new ReqsByDateOfUse.Aggregator(agreementId, PERIODS, 12),
+        () -> new ReqsByPubYear.Aggregator(agreementId, PUB_YEAR_PERIODS, 12),
+        () -> new CostPerUse.Aggregator(PERIODS));
+  }
+
+  static String sequential(List<Row> rows, String orderBy,
+      Supplier<ReportAggregator> aggregator) {
+    return report(new ReportWorkers(0, 1), 1, PartitionedRows.BATCH_SIZE, rows, orderBy,
+        aggregator).result().toJson().encodePrettily();
+  }
+
+  @Test
+  public void testPartitionsInline() {
+    List<Row> rows = rows(false);
+    for (Supplier<ReportAggregator> aggregator : aggregators(AGREEMENT_A.toString())) {
+      String expected = sequential(rows, ORDER_BY, aggregator);
+      for (int partitions : new int[] {2, 4, 7}) {
+        Assert.assertEquals(expected, report(new ReportWorkers(0, 1), partitions, 3, rows,
+            ORDER_BY, aggregator).result().toJson().encodePrettily());
+      }
+    }
+  }
+
+  @Test
+  public void testAgreements() {
+    List<Row> rows = rows(true);
+    List<UUID> agreementIds = List.of(AGREEMENT_A, AGREEMENT_B);
+    for (Supplier<ReportAggregator> factory : aggregators(null)) {
+      Supplier<ReportAggregator> aggregator = () -> new AgreementsAggregator(ORDER_BY,
+          agreementIds, id -> factory.get());
+      String expected = sequential(rows, ORDER_BY, aggregator);
+      Assert.assertEquals(expected, report(new ReportWorkers(0, 1), 4, 5, rows,
+          ORDER_BY, aggregator).result().toJson().encodePrettily());
+    }
+  }
+
+  @Test
+  public void testWorkers(TestContext context) {
+    List<Row> rows = rows(false);
+    ReportWorkers workers = new ReportWorkers(4, 100);
+    Future<Void> future = Future.succeededFuture();
+    for (Supplier<ReportAggregator> aggregator : aggregators(AGREEMENT_A.toString())) {
+      String expected = sequential(rows, ORDER_BY, aggregator);
+      future = future
+          .compose(x -> report(workers, 4, 4, rows, ORDER_BY, aggregator))
+          .map(report -> {
+            Assert.assertEquals(expected, report.toJson().encodePrettily());
+            return null;
+          });
+    }
+    future.onComplete(context.asyncAssertSuccess(x ->
+        Assert.assertTrue(workers.metrics().getLong("completed") > 4L)));
+  }
+
+  @Test
+  public void testFailure(TestContext context) {
+    List<Row> rows = rows(false);
+    PartitionedRows<List<Row>> partitioned = new PartitionedRows<>(new ReportWorkers(2, 100),
+        2, 3, ArrayList::new, (partial, seq) -> row -> {
+          if (seq.getAsLong() == 10L) {
+            throw new IllegalStateException("row 10");
+          }
+          partial.add(row);
+        });
+    rows.subList(0, 20).forEach(partitioned);
+    partitioned.end().onComplete(context.asyncAssertFailure(e ->
+        Assert.assertEquals("row 10", e.getMessage())));
+  }
+
+  @Test
+  public void testNoPartitions() {
+    ReportWorkers workers = new ReportWorkers(0, 1);
+    Assert.assertThrows(IllegalArgumentException.class, () -> new PartitionedRows<List<Row>>(
+        workers, 0, ArrayList::new, (partial, seq) -> partial::add));
+  }
+}
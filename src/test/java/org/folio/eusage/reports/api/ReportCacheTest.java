@@ -0,0 +1,133 @@
+package org.folio.eusage.reports.api;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ReportCacheTest {
+
+  static Future<String> report(AtomicInteger count) {
+    return Future.succeededFuture("r" + count.incrementAndGet());
+  }
+
+  @Test
+  public void testHit() {
+    ReportCache<String> cache = new ReportCache<>(10, 300);
+    AtomicInteger count = new AtomicInteger();
+    Assert.assertEquals("r1", cache.get("t1", null, List.of("a", 1), () -> report(count)).result());
+    Assert.assertEquals("r1", cache.get("t1", null, List.of("a", 1), () -> report(count)).result());
+    Assert.assertEquals("r2", cache.get("t1", null, List.of("a", 2), () -> report(count)).result());
+    Assert.assertEquals("r3", cache.get("t2", null, List.of("a", 1), () -> report(count)).result());
+    Assert.assertEquals(3, cache.size());
+  }
+
+  @Test
+  public void testInvalidate() {
+    ReportCache<String> cache = new ReportCache<>(10, 300);
+    AtomicInteger count = new AtomicInteger();
+    cache.get("t1", null, List.of("a"), () -> report(count));
+    cache.get("t2", null, List.of("a"), () -> report(count));
+    cache.invalidate("t1");
+    Assert.assertEquals(1, cache.size());
+    Assert.assertEquals("r3", cache.get("t1", null, List.of("a"), () -> report(count)).result());
+    Assert.assertEquals("r2", cache.get("t2", null, List.of("a"), () -> report(count)).result());
+  }
+
+  @Test
+  public void testInvalidateAgreements() {
+    ReportCache<String> cache = new ReportCache<>(10, 300);
+    AtomicInteger count = new AtomicInteger();
+    UUID a1 = UUID.randomUUID();
+    UUID a2 = UUID.randomUUID();
+    UUID a3 = UUID.randomUUID();
+    cache.get("t1", List.of(a1), List.of("a", 1), () -> report(count));
+    cache.get("t1", List.of(a2, a3), List.of("a", 2), () -> report(count));
+    cache.get("t1", null, List.of("a", 3), () -> report(count));
+    cache.get("t2", List.of(a3), List.of("a", 4), () -> report(count));
+    cache.invalidate("t1", List.of());
+    Assert.assertEquals(4, cache.size());
+    // reports of all agreements depend on any agreement
+    cache.invalidate("t1", List.of(a3));
+    Assert.assertEquals(2, cache.size());
+    Assert.assertEquals("r1", cache.get("t1", List.of(a1), List.of("a", 1),
+        () -> report(count)).result());
+    Assert.assertEquals("r4", cache.get("t2", List.of(a3), List.of("a", 4),
+        () -> report(count)).result());
+  }
+
+  @Test
+  public void testPending() {
+    ReportCache<String> cache = new ReportCache<>(10, 300);
+    Promise<String> promise = Promise.promise();
+    AtomicInteger count = new AtomicInteger();
+    Future<String> first = cache.get("t1", null, List.of("a"), () -> {
+      count.incrementAndGet();
+      // the report is made outside of the lock, so the cache can be used meanwhile
+      Assert.assertEquals(1, cache.size());
+      return promise.future();
+    });
+    Future<String> second = cache.get("t1", null, List.of("a"), () -> report(count));
+    Assert.assertFalse(second.isComplete());
+    promise.complete("r");
+    Assert.assertEquals("r", first.result());
+    Assert.assertEquals("r", second.result());
+    Assert.assertEquals(1, count.get());
+  }
+
+  @Test
+  public void testThrows() {
+    ReportCache<String> cache = new ReportCache<>(10, 300);
+    Assert.assertThrows(IllegalArgumentException.class, () -> cache.get("t1", null,
+        List.of("a"), () -> {
+          throw new IllegalArgumentException("bad");
+        }));
+    Assert.assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testMaxSize() {
+    ReportCache<String> cache = new ReportCache<>(2, 300);
+    AtomicInteger count = new AtomicInteger();
+    cache.get("t1", null, List.of("a"), () -> report(count));
+    cache.get("t1", null, List.of("b"), () -> report(count));
+    cache.get("t1", null, List.of("a"), () -> report(count));
+    cache.get("t1", null, List.of("c"), () -> report(count));
+    Assert.assertEquals(2, cache.size());
+    // b was least recently used
+    Assert.assertEquals("r1", cache.get("t1", null, List.of("a"), () -> report(count)).result());
+    Assert.assertEquals("r4", cache.get("t1", null, List.of("b"), () -> report(count)).result());
+  }
+
+  @Test
+  public void testExpired() {
+    ReportCache<String> cache = new ReportCache<>(10, 0);
+    AtomicInteger count = new AtomicInteger();
+    cache.get("t1", null, List.of("a"), () -> report(count));
+    Assert.assertEquals("r2", cache.get("t1", null, List.of("a"), () -> report(count)).result());
+  }
+
+  @Test
+  public void testFailureNotCached() {
+    ReportCache<String> cache = new ReportCache<>(10, 300);
+    cache.get("t1", null, List.of("a"), () -> Future.failedFuture("bad"));
+    Assert.assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testDisabled() {
+    ReportCache<String> cache = new ReportCache<>(0, 300);
+    AtomicInteger count = new AtomicInteger();
+    cache.get("t1", null, List.of("a"), () -> report(count));
+    Assert.assertEquals("r2", cache.get("t1", null, List.of("a"), () -> report(count)).result());
+    Assert.assertEquals(0, cache.size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testBadSize() {
+    new ReportCache<String>(-1, 300);
+  }
+}
@@ -0,0 +1,60 @@
+package org.folio.eusage.reports.api;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ReportItemTest {
+  @Test
+  public void testNoCounts() {
+    ReportItem item = new ReportItem(new JsonObject(), 3);
+    item.add(1, 0);
+    Assert.assertEquals(new JsonObject()
+            .put("accessCountTotal", 0L)
+            .put("accessCountsByPeriod", new JsonArray().add(0L).add(0L).add(0L)),
+        item.toJson());
+  }
+
+  @Test
+  public void testCounts() {
+    ReportItem item = new ReportItem(new JsonObject(), 6);
+    item.add(2, 5);
+    item.add(4, 1);
+    item.add(0, 2);
+    item.add(2, 3);
+    item.add(3, 0);
+    item.add(5, 7);
+    item.add(1, 4);
+    item.add(0, 1);
+    Assert.assertEquals(8L, item.get(2));
+    Assert.assertEquals(0L, item.get(3));
+    Assert.assertEquals(23L, item.getRequests());
+    Assert.assertEquals(new JsonArray().add(3L).add(4L).add(8L).add(0L).add(1L).add(7L),
+        item.toJson().getJsonArray("accessCountsByPeriod"));
+    Assert.assertEquals(new JsonArray().add(7L).add(0L).add(3L),
+        item.toJson(new int[] {5, 3, 0}).getJsonArray("accessCountsByPeriod"));
+  }
+
+  @Test
+  public void testBeyondPeriods() {
+    ReportItem item = new ReportItem(new JsonObject(), 0);
+    item.add(3, 2);
+    Assert.assertEquals(new JsonArray().add(0L).add(0L).add(0L).add(2L),
+        item.toJson().getJsonArray("accessCountsByPeriod"));
+  }
+
+  @Test
+  public void testManyPeriods() {
+    int periods = Periods.MAX_PERIODS;
+    ReportItem item = new ReportItem(new JsonObject(), periods);
+    for (int i = periods - 1; i >= 0; i -= 7) {
+      item.add(i, i);
+    }
+    JsonArray counts = item.toJson().getJsonArray("accessCountsByPeriod");
+    Assert.assertEquals(periods, counts.size());
+    for (int i = 0; i < periods; i++) {
+      Assert.assertEquals((periods - 1 - i) % 7 == 0 ? i : 0L, counts.getLong(i).longValue());
+    }
+  }
+}
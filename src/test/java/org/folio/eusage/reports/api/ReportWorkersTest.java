@@ -0,0 +1,101 @@
+package org.folio.eusage.reports.api;
+
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.RunTestOnContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import io.vertx.ext.web.handler.HttpException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(VertxUnitRunner.class)
+public class ReportWorkersTest {
+
+  @Rule
+  public RunTestOnContext contextRule = new RunTestOnContext();
+
+  @Test
+  public void testWorkerThread(TestContext context) {
+    ReportWorkers workers = new ReportWorkers(2, 10);
+    workers.execute(Context::isOnWorkerThread)
+        .onComplete(context.asyncAssertSuccess(onWorker -> {
+          Assert.assertTrue(onWorker);
+          Assert.assertTrue(Context.isOnEventLoopThread());
+          Assert.assertEquals(1L, workers.metrics().getLong("completed").longValue());
+          Assert.assertEquals(0, workers.metrics().getInteger("queued").intValue());
+        }));
+  }
+
+  @Test
+  public void testFailure(TestContext context) {
+    ReportWorkers workers = new ReportWorkers(2, 10);
+    workers.execute(() -> {
+      throw new IllegalStateException("failed");
+    }).onComplete(context.asyncAssertFailure(e ->
+        Assert.assertEquals("failed", e.getMessage())));
+  }
+
+  @Test
+  public void testEventLoop() {
+    ReportWorkers workers = new ReportWorkers(0, 10);
+    Future<Boolean> future = workers.execute(Context::isOnEventLoopThread);
+    Assert.assertTrue(future.result());
+  }
+
+  @Test
+  public void testReportsFull(TestContext context) throws InterruptedException {
+    ReportWorkers workers = new ReportWorkers(1, 1);
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    Future<String> first = workers.admit(() -> {
+      Future<String> blocked = workers.execute(() -> {
+        started.countDown();
+        Assert.assertTrue(release.await(10, TimeUnit.SECONDS));
+        return "first";
+      });
+      // tasks of an admitted report wait however many there are
+      Future<String> second = workers.execute(() -> "second");
+      Future<String> third = workers.execute(() -> "third");
+      return Future.all(blocked, second, third).map(x -> blocked.result() + second.result()
+          + third.result());
+    });
+    Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+    Future<String> rejected = workers.admit(() -> Future.succeededFuture("rejected"));
+    Assert.assertTrue(rejected.failed());
+    Assert.assertEquals(503, ((HttpException) rejected.cause()).getStatusCode());
+    Assert.assertEquals(1, workers.metrics().getInteger("reports").intValue());
+    Assert.assertEquals(2, workers.metrics().getInteger("queued").intValue());
+    Assert.assertEquals(1, workers.metrics().getInteger("running").intValue());
+    Assert.assertEquals(1L, workers.metrics().getLong("rejected").longValue());
+    release.countDown();
+    first
+        .onComplete(context.asyncAssertSuccess(x ->
+            Assert.assertEquals("firstsecondthird", x)))
+        .compose(x -> workers.admit(() -> Future.succeededFuture("next")))
+        .onComplete(context.asyncAssertSuccess(x -> {
+          Assert.assertEquals("next", x);
+          Assert.assertEquals(0, workers.metrics().getInteger("reports").intValue());
+        }));
+  }
+
+  @Test
+  public void testAdmitThrows() {
+    ReportWorkers workers = new ReportWorkers(0, 1);
+    Future<String> future = workers.admit(() -> {
+      throw new IllegalStateException("failed");
+    });
+    Assert.assertEquals("failed", future.cause().getMessage());
+    Assert.assertEquals(0, workers.metrics().getInteger("reports").intValue());
+  }
+
+  @Test
+  public void testIllegalArguments() {
+    Assert.assertThrows(IllegalArgumentException.class, () -> new ReportWorkers(-1, 10));
+    Assert.assertThrows(IllegalArgumentException.class, () -> new ReportWorkers(1, 0));
+  }
+}